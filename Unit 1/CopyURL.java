@@ -5,23 +5,15 @@ import textio.TextIO;
 import java.net.*;
 import java.io.*;
 
+/**
+ * Copies the contents of a URL into a file.  The download is done by a
+ * SegmentedDownloader, which fetches parts of a large file over several
+ * connections at once when the server allows it, and prints its progress.
+ */
 public class CopyURL {
 
-	private static void copyStream(InputStream in, OutputStream out)
-		throws IOException {
-		
-		int oneByte = in.read();
-		while (oneByte >= 0) { // negative value indicates end-of-stream
-			out.write(oneByte);
-			oneByte = in.read();
-		}
-	}
-	
 	public static void main(String[] args) {
 		
-		// Declare and initialize InputStream and OutputStream to null.
-		InputStream source = null;
-		OutputStream copy = null;
 		String urlString;  // The url from user input.
 		String outFileName;
 		File file;
@@ -57,14 +49,12 @@ public class CopyURL {
 		}
 		System.out.println("Using: " + urlString);
 		
-		// Create URL object, InputStream, and FileOutputStream.
-		// Copy data to selected file, afterwards, ensure streams
-		// are closed.
+		// Create URL object and download it into the selected file.
+		// The downloader closes its connections and the file.
 		try {
 			URL url = new URL(urlString);
-			source = url.openStream();
-			copy = new FileOutputStream(outFileName);
-			copyStream(source, copy);
+			new SegmentedDownloader(url, SegmentedDownloader.DEFAULT_SEGMENTS, System.out)
+					.download(file);
 		} catch (MalformedURLException e) {
 			System.out.println(urlString + " is not a legal URL.");
 			System.out.println(e.getMessage());
@@ -76,21 +66,6 @@ public class CopyURL {
 			System.out.println("Error: Web address may not exist or "
 				+ "there was an error writing to the output file.");
 			System.out.println(e.getMessage());
-		} finally {
-			if (source != null) {
-				try {
-					source.close();
-				} catch (IOException e) {
-					System.out.println("Error closing the input stream.");
-				}
-			}
-			if (copy != null) {
-				try {
-					copy.close();
-				} catch (IOException e) {
-					System.out.println("Error closing the output stream.");
-				}
-			}
-		}  // end finally
+		}
 	}  // end main
 }
\ No newline at end of file
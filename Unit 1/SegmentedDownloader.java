@@ -0,0 +1,331 @@
+package unit1.copyurl;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.io.RandomAccessFile;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Downloads a URL into a file, over several connections at once when the
+ * server allows it.
+ * <p>
+ * The first request asks an HTTP server for just the first byte.  A server
+ * that supports ranges answers "206 Partial Content" with the length of the
+ * whole file in its Content-Range header.  The file is then made that long
+ * and split into segments, and each segment is fetched on a connection of
+ * its own and written straight to its place in the file with a positional
+ * FileChannel write.  A file smaller than two segments is fetched as one.
+ * A file that changes on the server during the download is noticed,
+ * because each segment is asked for with If-Range.
+ * <p>
+ * A server that doesn't support ranges sends the whole file in answer to
+ * the first request, and that response is copied into the file through a
+ * buffer, on one connection.  So is anything that isn't HTTP, such as a
+ * "file:" or "ftp:" URL.  A server that supports ranges but doesn't know
+ * the file's length, and says "bytes 0-0/*", is asked again for the whole
+ * file with a plain GET, which is copied the same way.
+ * <p>
+ * While the download runs, the percentage done and the speed are printed
+ * every half second, and the total and average speed at the end.
+ */
+public class SegmentedDownloader {
+
+	/** The number of connections CopyURL uses. */
+	public static final int DEFAULT_SEGMENTS = 4;
+
+	/** Segments are never made smaller than this. */
+	private static final long MIN_SEGMENT_SIZE = 256 * 1024;
+
+	private static final int BUFFER_SIZE = 64 * 1024;
+	private static final int TIMEOUT_MILLIS = 30000;
+	private static final long PROGRESS_INTERVAL_MILLIS = 500;
+
+	private final URL url;
+	private final int segments;
+	private final PrintStream progress;
+	private final AtomicLong received = new AtomicLong();
+	private int connectionsUsed;
+
+	/**
+	 * Creates a downloader for one URL.
+	 *
+	 * @param url The URL to download.
+	 * @param segments The most connections to use at once.
+	 * @param progress Where progress is printed, or null for nowhere.
+	 */
+	public SegmentedDownloader(URL url, int segments, PrintStream progress) {
+		this.url = url;
+		this.segments = Math.max(1, segments);
+		this.progress = progress;
+	}
+
+	/**
+	 * Downloads the URL into a file, replacing anything already in it.
+	 *
+	 * @param file The file to write.
+	 * @return The number of bytes downloaded.
+	 * @throws IOException If the URL can't be read, the server answers with
+	 *     an error, or the file can't be written.
+	 */
+	public long download(File file) throws IOException {
+		received.set(0);
+		long start = System.nanoTime();
+		URLConnection first = url.openConnection();
+		first.setConnectTimeout(TIMEOUT_MILLIS);
+		first.setReadTimeout(TIMEOUT_MILLIS);
+
+		long length = -1;
+		String validator = null;
+		if (first instanceof HttpURLConnection) {
+			HttpURLConnection http = (HttpURLConnection) first;
+			http.setRequestProperty("Range", "bytes=0-0");
+			int code = http.getResponseCode();
+			if (code == HttpURLConnection.HTTP_PARTIAL) {
+				length = totalLength(http.getHeaderField("Content-Range"));
+				validator = http.getHeaderField("ETag");
+				if (validator == null || validator.startsWith("W/")) {
+					validator = http.getHeaderField("Last-Modified");
+				}
+				http.getInputStream().close();    // lets the connection be reused
+				if (length < 0) {
+					// Ranges work, but not knowing the length, we can't split
+					// the file, so it is fetched whole instead.
+					first = url.openConnection();
+					first.setConnectTimeout(TIMEOUT_MILLIS);
+					first.setReadTimeout(TIMEOUT_MILLIS);
+					http = (HttpURLConnection) first;
+					code = http.getResponseCode();
+					if (code != HttpURLConnection.HTTP_OK) {
+						throw new IOException(url + " answered " + code + " "
+										+ http.getResponseMessage());
+					}
+				}
+			} else if (code == 416 && "bytes */0".equals(http.getHeaderField("Content-Range"))) {
+				length = 0;    // an empty file has no first byte
+				http.disconnect();
+			} else if (code != HttpURLConnection.HTTP_OK) {
+				throw new IOException(url + " answered " + code + " " + http.getResponseMessage());
+			}
+		}
+
+		try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+			out.setLength(length > 0 ? length : 0);
+			FileChannel channel = out.getChannel();
+			if (length < 0) {
+				// The whole file is on its way already.
+				connectionsUsed = 1;
+				try (InputStream in = first.getInputStream()) {
+					run(List.<Task>of(() -> copy(in, channel, 0, -1)), -1);
+				}
+			} else {
+				int count = (int) Math.min(segments, (length + MIN_SEGMENT_SIZE - 1) / MIN_SEGMENT_SIZE);
+				connectionsUsed = Math.max(1, count);
+				List<Segment> tasks = new ArrayList<>(count);
+				for (int i = 0; i < count; i++) {
+					long from = length * i / count;
+					long to = length * (i + 1) / count;
+					if (from < to) {
+						tasks.add(new Segment(channel, from, to, validator));
+					}
+				}
+				run(tasks, length);
+			}
+		}
+
+		report(start, length, true);
+		return received.get();
+	}
+
+	/**
+	 * @return The number of connections the last download used.
+	 */
+	public int connectionsUsed() {
+		return connectionsUsed;
+	}
+
+	/**
+	 * Something that copies part of the download into the file.
+	 */
+	private interface Task {
+		void copy() throws IOException;
+	}
+
+	/**
+	 * One range of the file, from <code>from</code> up to <code>to</code>,
+	 * fetched with a request of its own.
+	 */
+	private class Segment implements Task {
+
+		private final FileChannel channel;
+		private final long from;
+		private final long to;
+		private final String validator;
+
+		Segment(FileChannel channel, long from, long to, String validator) {
+			this.channel = channel;
+			this.from = from;
+			this.to = to;
+			this.validator = validator;
+		}
+
+		public void copy() throws IOException {
+			HttpURLConnection http = (HttpURLConnection) url.openConnection();
+			http.setConnectTimeout(TIMEOUT_MILLIS);
+			http.setReadTimeout(TIMEOUT_MILLIS);
+			http.setRequestProperty("Range", "bytes=" + from + "-" + (to - 1));
+			if (validator != null) {
+				http.setRequestProperty("If-Range", validator);
+			}
+			int code = http.getResponseCode();
+			if (code == HttpURLConnection.HTTP_OK && validator != null) {
+				throw new IOException("The file changed on the server during the download.");
+			}
+			String range = http.getHeaderField("Content-Range");
+			if (code != HttpURLConnection.HTTP_PARTIAL || range == null
+							|| !range.startsWith("bytes " + from + "-" + (to - 1) + "/")) {
+				throw new IOException("Bad answer to a range request: " + code + " " + range);
+			}
+			try (InputStream in = http.getInputStream()) {
+				SegmentedDownloader.this.copy(in, channel, from, to);
+			}
+		}
+	}
+
+	/**
+	 * Reads the length of the whole file from a Content-Range header such
+	 * as "bytes 0-0/1234".
+	 *
+	 * @return The length, or -1 if the server doesn't know it and says
+	 *     "bytes 0-0/*".
+	 */
+	private static long totalLength(String contentRange) throws IOException {
+		int slash = contentRange == null ? -1 : contentRange.indexOf('/');
+		try {
+			String length = contentRange.substring(slash + 1).trim();
+			return length.equals("*") ? -1 : Long.parseLong(length);
+		} catch (RuntimeException e) {
+			throw new IOException("Can't read the file's length from Content-Range: "
+							+ contentRange);
+		}
+	}
+
+	/**
+	 * Copies a stream into the file, starting at a position.
+	 *
+	 * @param in The stream.
+	 * @param channel The file.
+	 * @param position Where the stream's first byte goes.
+	 * @param end The position the stream should end at, or -1 to copy
+	 *     until it ends.
+	 * @throws IOException If reading or writing fails, or the stream ends
+	 *     too soon.
+	 */
+	private void copy(InputStream in, FileChannel channel, long position, long end)
+					throws IOException {
+		byte[] buffer = new byte[BUFFER_SIZE];
+		ByteBuffer wrapped = ByteBuffer.wrap(buffer);
+		while (end < 0 || position < end) {
+			int n = in.read(buffer, 0, end < 0 ? buffer.length
+							: (int) Math.min(buffer.length, end - position));
+			if (n < 0) {
+				if (end < 0) {
+					return;
+				}
+				throw new IOException("The connection closed " + (end - position)
+								+ " bytes before the end of its range.");
+			}
+			wrapped.clear().limit(n);
+			while (wrapped.hasRemaining()) {
+				position += channel.write(wrapped, position);
+			}
+			received.addAndGet(n);
+		}
+	}
+
+	/**
+	 * Runs the tasks on threads of their own, printing the progress until
+	 * they have all finished.  If one fails, the others are stopped.
+	 *
+	 * @param tasks The tasks.
+	 * @param length The length of the download, or -1 if it isn't known.
+	 * @throws IOException If a task failed.
+	 */
+	private void run(List<? extends Task> tasks, long length) throws IOException {
+		if (tasks.isEmpty()) {
+			return;
+		}
+		long start = System.nanoTime();
+		ExecutorService pool = Executors.newFixedThreadPool(tasks.size());
+		try {
+			List<Future<?>> futures = new ArrayList<>(tasks.size());
+			for (Task task : tasks) {
+				futures.add(pool.submit(() -> {
+					task.copy();
+					return null;
+				}));
+			}
+			pool.shutdown();
+			while (!pool.awaitTermination(PROGRESS_INTERVAL_MILLIS, TimeUnit.MILLISECONDS)) {
+				for (Future<?> future : futures) {
+					if (future.isDone()) {
+						future.get();    // throws if the task failed
+					}
+				}
+				report(start, length, false);
+			}
+			for (Future<?> future : futures) {
+				future.get();
+			}
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof IOException) {
+				throw (IOException) e.getCause();
+			}
+			throw new IOException(e.getCause());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new IOException("The download was interrupted.");
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Prints how much has been downloaded and how fast.
+	 *
+	 * @param start The System.nanoTime() the download started.
+	 * @param length The length of the download, or -1 if it isn't known.
+	 * @param done True for the summary at the end.
+	 */
+	private void report(long start, long length, boolean done) {
+		if (progress == null) {
+			return;
+		}
+		long bytes = received.get();
+		double seconds = Math.max(1e-9, (System.nanoTime() - start) / 1e9);
+		double megabytesPerSecond = bytes / seconds / (1024 * 1024);
+		if (done) {
+			progress.printf("Downloaded %,d bytes in %.2f seconds (%.1f MB/s) over %d connection%s.%n",
+							bytes, seconds, megabytesPerSecond, connectionsUsed,
+							connectionsUsed == 1 ? "" : "s");
+		} else if (length > 0) {
+			progress.printf("  %3d%%  %,d of %,d bytes  %.1f MB/s%n",
+							bytes * 100 / length, bytes, length, megabytesPerSecond);
+		} else {
+			progress.printf("  %,d bytes  %.1f MB/s%n", bytes, megabytesPerSecond);
+		}
+	}
+}
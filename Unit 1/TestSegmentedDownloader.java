@@ -0,0 +1,117 @@
+package unit1.copyurl;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.URI;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+// A test program for SegmentedDownloader that downloads from a small web
+// server of its own, so it needs no network.  The server has the same file
+// at three paths: "/ranges" answers Range requests, "/plain" always sends
+// the whole file, like a server without range support, and "/unknown"
+// answers Range requests without saying how long the file is.  Then
+// "/ranges" is downloaded again while its file changes, which the
+// downloader must notice.
+//
+// The output from this program, after the progress lines, should be:
+//     /ranges: 4 connections, 5 requests, contents identical
+//     /plain: 1 connection, 1 request, contents identical
+//     /unknown: 1 connection, 2 requests, contents identical
+//     changing file: download failed as it should
+
+public class TestSegmentedDownloader {
+
+	private static final int LENGTH = 5 * 1024 * 1024 + 7;
+
+	private static final byte[] content = new byte[LENGTH];
+	private static final AtomicInteger requests = new AtomicInteger();
+
+	public static void main(String[] args) throws Exception {
+
+		new Random(1103).nextBytes(content);
+		HttpServer server = HttpServer.create(new InetSocketAddress("localhost", 0), 0);
+		server.createContext("/ranges", exchange -> send(exchange, true));
+		server.createContext("/plain", exchange -> send(exchange, false));
+		server.createContext("/unknown", exchange -> send(exchange, true));
+		ExecutorService executor = Executors.newCachedThreadPool();
+		server.setExecutor(executor);
+		server.start();
+		String base = "http://localhost:" + server.getAddress().getPort();
+		File file = File.createTempFile("segmented", ".bin");
+
+		try {
+			for (String path : new String[] { "/ranges", "/plain", "/unknown" }) {
+				requests.set(0);
+				SegmentedDownloader downloader = new SegmentedDownloader(URI.create(base + path).toURL(),
+						SegmentedDownloader.DEFAULT_SEGMENTS, System.out);
+				downloader.download(file);
+				int connections = downloader.connectionsUsed();
+				System.out.println(path + ": " + connections + " connection"
+						+ (connections == 1 ? "" : "s") + ", " + requests.get() + " request"
+						+ (requests.get() == 1 ? "" : "s") + ", contents "
+						+ (Arrays.equals(Files.readAllBytes(file.toPath()), content)
+								? "identical" : "DIFFERENT"));
+			}
+
+			// Every request after the first one sees a new version of the file.
+			requests.set(0);
+			try {
+				new SegmentedDownloader(URI.create(base + "/ranges?changing").toURL(),
+						SegmentedDownloader.DEFAULT_SEGMENTS, null).download(file);
+				System.out.println("changing file: download succeeded, but it shouldn't have");
+			} catch (IOException e) {
+				System.out.println("changing file: download failed as it should");
+			}
+		} finally {
+			server.stop(0);
+			executor.shutdown();
+			file.delete();
+		}
+	}
+
+	/**
+	 * Answers one request for the file, with just the range it asks for if
+	 * <code>ranges</code> is true and the If-Range header, if any, matches
+	 * the file's version.  Only single ranges like "bytes=10-99" are
+	 * understood, which are all the downloader asks for.  "/unknown" sends
+	 * "*" in place of the file's length.
+	 */
+	private static void send(HttpExchange exchange, boolean ranges) throws IOException {
+		int request = requests.incrementAndGet();
+		boolean changing = "changing".equals(exchange.getRequestURI().getQuery());
+		String eTag = "\"v" + (changing ? request : 0) + "\"";
+		String range = exchange.getRequestHeaders().getFirst("Range");
+		String ifRange = exchange.getRequestHeaders().getFirst("If-Range");
+		int from = 0;
+		int to = LENGTH;
+		int status = 200;
+		if (ranges && range != null && range.startsWith("bytes=")
+				&& (ifRange == null || ifRange.equals(eTag))) {
+			String[] bounds = range.substring(6).split("-");
+			from = Integer.parseInt(bounds[0]);
+			to = Math.min(LENGTH, Integer.parseInt(bounds[1]) + 1);
+			status = 206;
+			boolean unknown = exchange.getRequestURI().getPath().equals("/unknown");
+			exchange.getResponseHeaders().set("Content-Range",
+					"bytes " + from + "-" + (to - 1) + "/" + (unknown ? "*" : LENGTH));
+		}
+		if (ranges) {
+			exchange.getResponseHeaders().set("Accept-Ranges", "bytes");
+			exchange.getResponseHeaders().set("ETag", eTag);
+		}
+		exchange.sendResponseHeaders(status, to - from);
+		try (OutputStream out = exchange.getResponseBody()) {
+			out.write(content, from, to - from);
+		}
+	}
+}
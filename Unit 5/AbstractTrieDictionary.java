@@ -0,0 +1,222 @@
+package spellchecker;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * The lookup and correction logic shared by dictionaries that can be
+ * walked like a trie, one letter at a time.
+ * <p>
+ * Subclasses only say how to step from a node to one of its children.
+ * A node is an opaque long, so an implementation is free to use an index
+ * into its own arrays, or a range of words in a sorted list, without
+ * creating an object per step.
+ * <p>
+ * Corrections are found by walking down from the root with the misspelled
+ * word and allowing a single edit along the way.  A branch is abandoned as
+ * soon as it falls off the trie, and the candidate characters are kept in
+ * one reusable array, so a String is only created for a candidate that
+ * turns out to be a real word.
+ */
+abstract class AbstractTrieDictionary implements WordDictionary {
+
+	/** Returned by child() when there is no child for a letter. */
+	protected static final long NONE = -1;
+
+	/**
+	 * Returns the node that represents the empty prefix.
+	 *
+	 * @return The root node.
+	 */
+	protected abstract long root();
+
+	/**
+	 * Returns the child of <code>node</code> reached by <code>ch</code>.
+	 *
+	 * @param node A node returned by root() or child().
+	 * @param depth The length of the prefix that <code>node</code>
+	 *     represents.
+	 * @param ch The next letter.
+	 * @return The child node, or NONE if no word continues with
+	 *     <code>ch</code>.
+	 */
+	protected abstract long child(long node, int depth, char ch);
+
+	/**
+	 * Tests whether the prefix that <code>node</code> represents is
+	 * itself a word.
+	 *
+	 * @param node A node returned by root() or child().
+	 * @param depth The length of the prefix that <code>node</code>
+	 *     represents.
+	 * @return True if a dictionary word ends at this node.
+	 */
+	protected abstract boolean endsWord(long node, int depth);
+
+	/**
+	 * Returns every letter that appears in the dictionary, in ascending
+	 * order.  These are the letters tried when a correction changes or
+	 * inserts a letter.
+	 *
+	 * @return The dictionary's alphabet.  Callers must not modify it.
+	 */
+	protected abstract char[] alphabet();
+
+	@Override
+	public boolean contains(CharSequence word) {
+		return contains(word, 0, word.length());
+	}
+
+	/**
+	 * Visits the trie depth first, trying the letters of the alphabet in
+	 * order, which produces the words in alphabetical order.
+	 */
+	@Override
+	public void forEachWord(Consumer<? super String> action) {
+		forEachWord(root(), new StringBuilder(), action);
+	}
+
+	@Override
+	public SortedSet<String> corrections(String badWord) {
+
+		SortedSet<String> corrections = new TreeSet<>();
+		int length = badWord.length();
+
+		/*
+		 * One extra slot, since a candidate with an inserted letter
+		 * is one character longer than the misspelled word.
+		 */
+		char[] path = new char[length + 1];
+		search(root(), badWord, 0, path, 0, corrections);
+
+		/*
+		 * Walk down the trie along the word.  Every prefix that ends
+		 * at a word is a place where a space could be inserted, as long
+		 * as the rest of the word is in the dictionary as well.
+		 */
+		long node = root();
+		for (int i = 1; i < length; i++) {
+			node = child(node, i - 1, badWord.charAt(i - 1));
+			if (node == NONE) {
+				break;
+			}
+			if (endsWord(node, i) && contains(badWord, i, length)) {
+				corrections.add(badWord.substring(0, i) + ' ' + badWord.substring(i));
+			}
+		}
+
+		return corrections;
+	}
+
+	/**
+	 * Tests whether the characters of <code>word</code> from
+	 * <code>start</code> up to <code>end</code> spell a dictionary word.
+	 *
+	 * @param word The characters to look up.
+	 * @param start The index of the first character of the word.
+	 * @param end The index just past the last character of the word.
+	 * @return True if the characters spell a dictionary word.
+	 */
+	protected boolean contains(CharSequence word, int start, int end) {
+		long node = root();
+		for (int i = start; i < end && node != NONE; i++) {
+			node = child(node, i - start, word.charAt(i));
+		}
+		return node != NONE && endsWord(node, end - start);
+	}
+
+	private void forEachWord(long node, StringBuilder path,
+					Consumer<? super String> action) {
+
+		int depth = path.length();
+		if (endsWord(node, depth)) {
+			action.accept(path.toString());
+		}
+		for (char ch : alphabet()) {
+			long c = child(node, depth, ch);
+			if (c != NONE) {
+				path.append(ch);
+				forEachWord(c, path, action);
+				path.setLength(depth);
+			}
+		}
+	}
+
+	/**
+	 * Follows <code>word</code> down the trie, matching its letters
+	 * exactly until it is time to make the one allowed edit.  After the
+	 * edit the rest of the word has to match exactly.  The depth of
+	 * <code>node</code> is always the length of <code>path</code>.
+	 *
+	 * @param node The node reached by the letters matched so far.
+	 * @param word The misspelled word.
+	 * @param i The position of the next letter of <code>word</code>.
+	 * @param path The candidate's characters so far.
+	 * @param depth The number of characters in <code>path</code>.
+	 * @param out The set that collects the corrections found.
+	 */
+	private void search(long node, String word, int i, char[] path,
+					int depth, Set<String> out) {
+
+		int length = word.length();
+
+		// Delete the letter at i.
+		if (i < length) {
+			finish(node, word, i + 1, path, depth, out);
+		}
+
+		// Swap the letters at i and i + 1.
+		if (i + 1 < length && word.charAt(i) != word.charAt(i + 1)) {
+			long swapped = child(node, depth, word.charAt(i + 1));
+			if (swapped != NONE) {
+				swapped = child(swapped, depth + 1, word.charAt(i));
+				if (swapped != NONE) {
+					path[depth] = word.charAt(i + 1);
+					path[depth + 1] = word.charAt(i);
+					finish(swapped, word, i + 2, path, depth + 2, out);
+				}
+			}
+		}
+
+		for (char ch : alphabet()) {
+			long c = child(node, depth, ch);
+			if (c == NONE) {
+				continue;
+			}
+			path[depth] = ch;
+
+			// Insert ch before the letter at i.
+			finish(c, word, i, path, depth + 1, out);
+
+			if (i < length) {
+				if (ch == word.charAt(i)) {
+					// Matches, so the edit can still happen further on.
+					search(c, word, i + 1, path, depth + 1, out);
+				} else {
+					// Change the letter at i to ch.
+					finish(c, word, i + 1, path, depth + 1, out);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Matches the rest of <code>word</code> exactly, starting at
+	 * <code>node</code>, and records the candidate if it ends at a word.
+	 */
+	private void finish(long node, String word, int from, char[] path,
+					int depth, Set<String> out) {
+
+		for (int i = from; i < word.length(); i++) {
+			char ch = word.charAt(i);
+			node = child(node, depth, ch);
+			if (node == NONE) {
+				return;
+			}
+			path[depth++] = ch;
+		}
+		if (endsWord(node, depth)) {
+			out.add(new String(path, 0, depth));
+		}
+	}
+}
@@ -0,0 +1,329 @@
+package spellchecker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Stream;
+
+/**
+ * Spell checks many files, or very large ones, using every processor.
+ * <p>
+ * Each file is cut into chunks of about CHUNK_SIZE bytes, always on a
+ * non-letter byte so that no word is split between two chunks.  The chunks
+ * are tokenized and looked up as fork/join tasks, and the misspellings
+ * found in neighboring chunks are merged back together in file order.  As
+ * soon as a file's misspellings are known, the corrections for the ones
+ * not seen before are computed as separate tasks, while later files are
+ * still being scanned.
+ * <p>
+ * The report lists every distinct misspelled word once, in the order it
+ * first appears in the input, with its suggestions ranked best first, in
+ * the same format SpellChecker uses.  It comes out the same no matter how
+ * the work was scheduled.
+ * <p>
+ * Usage: <code>java spellchecker.BatchSpellChecker &lt;dictionary&gt;
+ * &lt;file-or-directory&gt;...</code>
+ * <br>
+ * Directories are searched recursively, and their files are checked in
+ * path order.
+ */
+public class BatchSpellChecker {
+
+	/**
+	 * The size a chunk is split down to before it is tokenized.  Big
+	 * enough that task overhead doesn't matter, small enough that a
+	 * single large file still keeps every thread busy.
+	 */
+	static final int CHUNK_SIZE = 1 << 20;
+
+	/** The dictionary that every task looks words up in. */
+	private final WordDictionary dictionary;
+
+	/** Finds and ranks the corrections for a misspelled word. */
+	private final SuggestionRanker ranker;
+
+	/** Suggestions remembered from earlier batches or runs. */
+	private final SuggestionCache cache;
+
+	/** The pool that runs the scanning and correction tasks. */
+	private final ForkJoinPool pool;
+
+	/**
+	 * Creates a batch checker that runs its tasks on <code>pool</code>.
+	 * The ranker's dictionary is shared by all of the tasks, so it must be
+	 * safe to read from several threads; every WordDictionary in this
+	 * package is.
+	 *
+	 * @param ranker Finds and ranks corrections in the dictionary of
+	 *     properly spelled words.
+	 * @param cache The cache to check before computing corrections.
+	 * @param pool The pool to run tasks on.
+	 */
+	public BatchSpellChecker(SuggestionRanker ranker, SuggestionCache cache,
+					ForkJoinPool pool) {
+		this.dictionary = ranker.dictionary();
+		this.ranker = ranker;
+		this.cache = cache;
+		this.pool = pool;
+	}
+
+	/**
+	 * Loads the dictionary and checks the files named on the command line.
+	 *
+	 * @param args The dictionary file, followed by files or directories
+	 *     to spell check.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length < 2) {
+			System.out.println("Usage: java spellchecker.BatchSpellChecker "
+				+ "<dictionary> <file-or-directory>...");
+			return;
+		}
+
+		WordDictionary dictionary;
+		try {
+			dictionary = WordDictionary.load(new File(args[0]));
+		} catch (IOException e) {
+			System.out.println("Can't read dictionary " + args[0] + ": " + e.getMessage());
+			return;
+		}
+
+		List<File> files = new ArrayList<>();
+		for (int i = 1; i < args.length; i++) {
+			try {
+				addFiles(new File(args[i]), files);
+			} catch (IOException e) {
+				System.out.println("Can't list " + args[i] + ": " + e.getMessage());
+			}
+		}
+
+		SuggestionRanker ranker = SuggestionRanker.forDictionary(dictionary, new File(args[0]));
+		SuggestionCache cache = SuggestionCache.fromProperties(ranker);
+		BatchSpellChecker checker = new BatchSpellChecker(ranker, cache,
+						ForkJoinPool.commonPool());
+
+		long start = System.nanoTime();
+		Map<String, List<String>> report = checker.check(files);
+		long elapsed = (System.nanoTime() - start) / 1000000;
+
+		for (Map.Entry<String, List<String>> entry : report.entrySet()) {
+			System.out.println(formatSuggestions(entry.getKey(), entry.getValue()));
+		}
+		System.out.println("\nChecked " + files.size() + " files in " + elapsed
+						+ " ms; " + report.size() + " distinct misspelled words.");
+		System.out.println(cache.statistics());
+		try {
+			cache.save();
+		} catch (IOException e) {
+			System.out.println("Can't save the suggestion cache: " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Spell checks <code>files</code> in parallel.
+	 *
+	 * @param files The files to check, in report order.
+	 * @return Each distinct misspelled word, in order of first occurrence,
+	 *     mapped to its suggestions, best first.
+	 */
+	public Map<String, List<String>> check(List<File> files) {
+
+		// Start scanning every file at once.
+		List<ForkJoinTask<Set<String>>> scans = new ArrayList<>();
+		for (File file : files) {
+			scans.add(pool.submit(new FileScan(file)));
+		}
+
+		/*
+		 * Collect the results in file order, so the first occurrence
+		 * order does not depend on which file finished first.  Every new
+		 * misspelling that isn't cached gets its corrections started
+		 * right away.
+		 */
+		Map<String, ForkJoinTask<List<String>>> pending = new LinkedHashMap<>();
+		for (int i = 0; i < scans.size(); i++) {
+			Set<String> misspelled;
+			try {
+				misspelled = scans.get(i).join();
+			} catch (RuntimeException e) {
+				System.out.println("Can't spell check " + files.get(i) + ": " + e);
+				continue;
+			}
+			for (String word : misspelled) {
+				if (!pending.containsKey(word)) {
+					pending.put(word, pool.submit(() -> cache.suggestions(word, ranker)));
+				}
+			}
+		}
+
+		Map<String, List<String>> report = new LinkedHashMap<>();
+		for (Map.Entry<String, ForkJoinTask<List<String>>> entry : pending.entrySet()) {
+			report.put(entry.getKey(), entry.getValue().join());
+		}
+		return report;
+	}
+
+	/**
+	 * Formats a misspelled word and its corrections as one report line,
+	 * the way SpellChecker prints them.
+	 *
+	 * @param badWord The misspelled word.
+	 * @param suggestions Its possible corrections.
+	 * @return The report line.
+	 */
+	static String formatSuggestions(String badWord, Collection<String> suggestions) {
+		if (suggestions.isEmpty()) {
+			return badWord + ": (no suggestions)";
+		}
+		return badWord + ": " + String.join(", ", suggestions);
+	}
+
+	/**
+	 * Adds <code>file</code> to <code>files</code>, or every regular file
+	 * under it, in path order, if it is a directory.
+	 */
+	private static void addFiles(File file, List<File> files) throws IOException {
+		if (!file.isDirectory()) {
+			files.add(file);
+			return;
+		}
+		try (Stream<Path> paths = Files.walk(file.toPath())) {
+			paths.filter(Files::isRegularFile)
+				.sorted()
+				.forEach(path -> files.add(path.toFile()));
+		}
+	}
+
+	/**
+	 * Scans one whole file.  The file is opened once and its channel is
+	 * shared by the chunk tasks, which only use positional reads.
+	 */
+	private class FileScan extends RecursiveTask<Set<String>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final File file;
+
+		FileScan(File file) {
+			this.file = file;
+		}
+
+		@Override
+		protected Set<String> compute() {
+			try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+				return new ChunkScan(channel, 0, channel.size()).compute();
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+	}
+
+	/**
+	 * Scans the bytes of a file from <code>start</code> up to
+	 * <code>end</code>, splitting the range in two at a word boundary
+	 * until it is no bigger than CHUNK_SIZE.
+	 */
+	private class ChunkScan extends RecursiveTask<Set<String>> {
+
+		private static final long serialVersionUID = 1L;
+
+		private final transient FileChannel channel;
+		private final long start;
+		private final long end;
+
+		ChunkScan(FileChannel channel, long start, long end) {
+			this.channel = channel;
+			this.start = start;
+			this.end = end;
+		}
+
+		@Override
+		protected Set<String> compute() {
+			try {
+				if (end - start <= CHUNK_SIZE) {
+					return scan(read(start, (int) (end - start)));
+				}
+
+				long middle = wordBoundary(start + (end - start) / 2);
+				if (middle == end) {
+					// The second half is all one word, so there is nowhere to cut.
+					return scan(read(start, (int) (end - start)));
+				}
+				ChunkScan left = new ChunkScan(channel, start, middle);
+				ChunkScan right = new ChunkScan(channel, middle, end);
+				right.fork();
+
+				/*
+				 * The left half comes first in the file, so its words keep
+				 * their place and only the right half's new words follow.
+				 */
+				Set<String> misspelled = left.compute();
+				misspelled.addAll(right.join());
+				return misspelled;
+			} catch (IOException e) {
+				throw new UncheckedIOException(e);
+			}
+		}
+
+		/**
+		 * Returns the first position at or after <code>position</code>
+		 * that does not hold a letter, or <code>end</code> if the rest of
+		 * the range is one long word.
+		 */
+		private long wordBoundary(long position) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(256);
+			while (position < end) {
+				buffer.clear();
+				int n = channel.read(buffer, position);
+				if (n < 0) {
+					break;
+				}
+				for (int i = 0; i < n && position < end; i++, position++) {
+					if (!isLetter(buffer.get(i))) {
+						return position;
+					}
+				}
+			}
+			return end;
+		}
+
+		private ByteBuffer read(long position, int length) throws IOException {
+			ByteBuffer buffer = ByteBuffer.allocate(length);
+			while (buffer.hasRemaining()) {
+				if (channel.read(buffer, position + buffer.position()) < 0) {
+					break;
+				}
+			}
+			buffer.flip();
+			return buffer;
+		}
+	}
+
+	/**
+	 * Tokenizes a chunk on non-letter bytes and returns the words missing
+	 * from the dictionary, lowercased, in the order they first appear.
+	 * Any ASCII based encoding can be scanned this way, since only the
+	 * letters a-z and A-Z make up words.
+	 */
+	private Set<String> scan(ByteBuffer chunk) throws IOException {
+
+		Set<String> misspelled = new LinkedHashSet<>();
+		WordTokenizer words = new WordTokenizer(chunk);
+
+		while (words.next()) {
+			if (!dictionary.contains(words.word())) {
+				misspelled.add(words.word().toString());
+			}
+		}
+
+		return misspelled;
+	}
+
+	private static boolean isLetter(byte b) {
+		return (b >= 'a' && b <= 'z') || (b >= 'A' && b <= 'Z');
+	}
+}
@@ -0,0 +1,203 @@
+package spellchecker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The spell checking state of one document that keeps changing.
+ * <p>
+ * The document's lines are kept along with the misspelled words on each
+ * line and how many times each misspelled word occurs.  When a new version
+ * of the document arrives, the lines that are the same at the start and
+ * at the end are skipped, and only the lines in between are tokenized and
+ * looked up.  So after the first check, the work done per change is about
+ * the size of the edit, not the size of the document.
+ * <p>
+ * A word is reported as new when it goes from not occurring to occurring
+ * at least once, and as fixed when its last occurrence goes away.
+ */
+class CheckedDocument {
+
+	/** Hears about the misspellings that an update adds or removes. */
+	interface Listener {
+
+		/**
+		 * Called for a misspelled word that wasn't in the document before.
+		 *
+		 * @param line The first changed line the word is on, counting from 1.
+		 * @param word The misspelled word, lowercased.
+		 * @throws IOException If reporting the word fails.
+		 */
+		void misspelled(int line, String word) throws IOException;
+
+		/**
+		 * Called for a misspelled word that is no longer in the document.
+		 *
+		 * @param line The first line of the edit that removed it.
+		 * @param word The word, lowercased.
+		 * @throws IOException If reporting the word fails.
+		 */
+		void fixed(int line, String word) throws IOException;
+	}
+
+	private static final String[] NONE = new String[0];
+
+	private final WordDictionary dictionary;
+
+	/** The document's current lines. */
+	private final List<String> lines = new ArrayList<>();
+
+	/** The misspelled words on each line, parallel to lines. */
+	private final List<String[]> misspelled = new ArrayList<>();
+
+	/** How many times each misspelled word occurs in the whole document. */
+	private final Map<String, Integer> counts = new HashMap<>();
+
+	/**
+	 * Creates an empty document.
+	 *
+	 * @param dictionary The dictionary of properly spelled words.
+	 */
+	CheckedDocument(WordDictionary dictionary) {
+		this.dictionary = dictionary;
+	}
+
+	/**
+	 * Replaces the document with a new version and reports what changed.
+	 * The first update reports every misspelling as new.
+	 *
+	 * @param newLines The lines of the new version.
+	 * @param listener Told about each misspelling that is new or fixed.
+	 * @return The number of lines that had to be checked.
+	 * @throws IOException If the listener fails.
+	 */
+	int update(List<String> newLines, Listener listener) throws IOException {
+
+		int oldSize = lines.size();
+		int newSize = newLines.size();
+
+		int start = 0;
+		while (start < oldSize && start < newSize
+						&& lines.get(start).equals(newLines.get(start))) {
+			start++;
+		}
+		int same = 0;
+		while (same < oldSize - start && same < newSize - start
+						&& lines.get(oldSize - 1 - same).equals(newLines.get(newSize - 1 - same))) {
+			same++;
+		}
+		int oldEnd = oldSize - same;
+		int newEnd = newSize - same;
+
+		if (start == oldEnd && start == newEnd) {
+			return 0;
+		}
+
+		/*
+		 * Work out the change in count of every misspelled word in the
+		 * edited range before touching the totals, so a word that just
+		 * moved from one changed line to another isn't reported at all.
+		 * The map keeps the order the words were found in.
+		 */
+		Map<String, int[]> changes = new LinkedHashMap<>();
+
+		for (String[] words : misspelled.subList(start, oldEnd)) {
+			for (String word : words) {
+				change(changes, word)[0]--;
+			}
+		}
+
+		List<String[]> checked = check(newLines.subList(start, newEnd));
+		for (int i = 0; i < checked.size(); i++) {
+			for (String word : checked.get(i)) {
+				int[] change = change(changes, word);
+				if (change[1] == 0) {
+					change[1] = start + i + 1;
+				}
+				change[0]++;
+			}
+		}
+
+		lines.subList(start, oldEnd).clear();
+		lines.addAll(start, newLines.subList(start, newEnd));
+		misspelled.subList(start, oldEnd).clear();
+		misspelled.addAll(start, checked);
+
+		for (Map.Entry<String, int[]> entry : changes.entrySet()) {
+			String word = entry.getKey();
+			int delta = entry.getValue()[0];
+			if (delta == 0) {
+				continue;
+			}
+			Integer before = counts.get(word);
+			int after = (before == null ? 0 : before) + delta;
+			if (after == 0) {
+				counts.remove(word);
+				listener.fixed(start + 1, word);
+			} else {
+				counts.put(word, after);
+				if (before == null) {
+					listener.misspelled(entry.getValue()[1], word);
+				}
+			}
+		}
+
+		return newEnd - start;
+	}
+
+	/**
+	 * Returns the number of distinct misspelled words in the document.
+	 *
+	 * @return The count.
+	 */
+	int misspellings() {
+		return counts.size();
+	}
+
+	/**
+	 * Returns the change record for <code>word</code>: its change in
+	 * count, and the first new line it is on, or 0 if none.
+	 */
+	private static int[] change(Map<String, int[]> changes, String word) {
+		int[] change = changes.get(word);
+		if (change == null) {
+			change = new int[2];
+			changes.put(word, change);
+		}
+		return change;
+	}
+
+	/**
+	 * Finds the misspelled words on each of <code>range</code>'s lines.
+	 * The lines are tokenized as one block, joined the same way they were
+	 * split, so there is one tokenizer however many lines changed.
+	 */
+	private List<String[]> check(List<String> range) throws IOException {
+
+		List<String[]> result = new ArrayList<>(range.size());
+		if (range.isEmpty()) {
+			return result;
+		}
+
+		List<List<String>> found = new ArrayList<>(range.size());
+		for (int i = 0; i < range.size(); i++) {
+			found.add(null);
+		}
+
+		WordTokenizer words = new WordTokenizer(new StringReader(String.join("\n", range)));
+		while (words.next()) {
+			if (!dictionary.contains(words.word())) {
+				int index = words.line() - 1;
+				if (found.get(index) == null) {
+					found.set(index, new ArrayList<String>());
+				}
+				found.get(index).add(words.word().toString());
+			}
+		}
+
+		for (List<String> lineWords : found) {
+			result.add(lineWords == null ? NONE : lineWords.toArray(NONE));
+		}
+		return result;
+	}
+}
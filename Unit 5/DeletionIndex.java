@@ -0,0 +1,352 @@
+package spellchecker;
+
+import java.nio.CharBuffer;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.function.LongConsumer;
+
+/**
+ * A WordDictionary that answers corrections from a precomputed index of
+ * deletion variants, in the style of SymSpell.
+ * <p>
+ * Two words are within n edits of each other (counting deletions,
+ * insertions, changes and swaps of neighboring letters) only if deleting
+ * at most n letters from each of them produces the same string.  So every
+ * dictionary word is indexed under each string that deleting up to
+ * maxDistance of its letters produces.  At query time the same deletions
+ * are made to the misspelled word, each one is a single probe into the
+ * index, and only the handful of words found that way are checked with a
+ * real edit distance.  No insertions or changes are ever tried.
+ * <p>
+ * The index does not store the deletion strings themselves, only a 40 bit
+ * hash of each, so a collision can only add a candidate, which the edit
+ * distance check then throws out.
+ * <p>
+ * maxDistance is the memory/speed knob.  At 1 the index for words.txt
+ * takes about 20 MB of heap and answers in roughly half the time of a
+ * trie walk; at 2 it takes about 70 MB, but also finds words two edits
+ * away.  The distance used by WordDictionary.load() comes from the
+ * system property named by DISTANCE_PROPERTY; the index is not built
+ * unless it is set.
+ * <p>
+ * Exact lookups, and the two word suggestions made by inserting a space,
+ * are still answered by the wrapped dictionary.
+ */
+public class DeletionIndex implements WordDictionary {
+
+	/**
+	 * The system property that sets the maximum edit distance indexed by
+	 * WordDictionary.load(), for example
+	 * <code>-Dspellchecker.maxEditDistance=2</code>.  Zero or unset means
+	 * no index.
+	 */
+	public static final String DISTANCE_PROPERTY = "spellchecker.maxEditDistance";
+
+	/** The low bits of an index entry hold a word id, the rest a hash. */
+	private static final int ID_BITS = 24;
+	private static final long ID_MASK = (1L << ID_BITS) - 1;
+
+	/** The dictionary that answers exact lookups. */
+	private final WordDictionary base;
+
+	/** The largest number of edits a suggestion may be away. */
+	private final int maxDistance;
+
+	/** Every dictionary word, indexed by its id. */
+	private final String[] words;
+
+	/** The length of the longest dictionary word. */
+	private final int maxWordLength;
+
+	/** The hash of each distinct deletion variant, with the id bits clear. */
+	private final long[] keys;
+
+	/**
+	 * Where each variant's word ids start in <code>ids</code>.  Has one
+	 * more entry than <code>keys</code>.
+	 */
+	private final int[] groupStart;
+
+	/** The ids of the words that produce each variant, grouped by variant. */
+	private final int[] ids;
+
+	/**
+	 * An open addressing hash table from a variant's hash to its position
+	 * in <code>keys</code>, plus one.  Zero marks an empty slot.
+	 */
+	private final int[] table;
+
+	/**
+	 * Indexes every word of <code>base</code>.
+	 *
+	 * @param base The dictionary to index.
+	 * @param maxDistance The largest number of edits to index, at least 1.
+	 * @throws IllegalArgumentException If maxDistance is less than 1 or
+	 *     the dictionary has too many words to index.
+	 */
+	public DeletionIndex(WordDictionary base, int maxDistance) {
+
+		if (maxDistance < 1) {
+			throw new IllegalArgumentException("The maximum edit distance must be at least 1.");
+		}
+		if (base.size() > ID_MASK + 1) {
+			throw new IllegalArgumentException("Too many words to index: " + base.size());
+		}
+
+		this.base = base;
+		this.maxDistance = maxDistance;
+
+		List<String> list = new ArrayList<>(base.size());
+		base.forEachWord(list::add);
+		words = list.toArray(new String[0]);
+
+		int longest = 0;
+		for (String word : words) {
+			longest = Math.max(longest, word.length());
+		}
+		maxWordLength = longest;
+
+		/*
+		 * Pack every (variant hash, word id) pair into one long and sort
+		 * them, which groups the words of each variant together and puts
+		 * duplicate pairs next to each other.
+		 */
+		long[][] entries = { new long[words.length * 8] };
+		int[] count = { 0 };
+		int[] skip = new int[maxDistance];
+		for (int id = 0; id < words.length; id++) {
+			long wordId = id;
+			forEachDeletion(words[id], skip, 0, 0, hash -> {
+				if (count[0] == entries[0].length) {
+					entries[0] = Arrays.copyOf(entries[0], count[0] * 2);
+				}
+				entries[0][count[0]++] = (hash & ~ID_MASK) | wordId;
+			});
+		}
+		long[] sorted = entries[0];
+		int n = count[0];
+		Arrays.sort(sorted, 0, n);
+
+		int[] idList = new int[n];
+		long[] keyList = new long[n];
+		int[] starts = new int[n + 1];
+		int distinct = 0;
+		int groups = 0;
+		for (int i = 0; i < n; i++) {
+			if (i > 0 && sorted[i] == sorted[i - 1]) {
+				continue;
+			}
+			long key = sorted[i] & ~ID_MASK;
+			if (groups == 0 || keyList[groups - 1] != key) {
+				keyList[groups] = key;
+				starts[groups] = distinct;
+				groups++;
+			}
+			idList[distinct++] = (int) (sorted[i] & ID_MASK);
+		}
+		starts[groups] = distinct;
+
+		ids = Arrays.copyOf(idList, distinct);
+		keys = Arrays.copyOf(keyList, groups);
+		groupStart = Arrays.copyOf(starts, groups + 1);
+
+		table = new int[Math.max(2, Integer.highestOneBit(Math.max(1, groups)) * 4)];
+		for (int g = 0; g < groups; g++) {
+			int slot = slot(keys[g]);
+			while (table[slot] != 0) {
+				slot = (slot + 1) & (table.length - 1);
+			}
+			table[slot] = g + 1;
+		}
+	}
+
+	/**
+	 * Wraps <code>base</code> in an index if the system property named by
+	 * DISTANCE_PROPERTY asks for one.
+	 *
+	 * @param base The dictionary to index.
+	 * @return The index, or <code>base</code> itself if no index was
+	 *     requested.
+	 */
+	static WordDictionary fromProperties(WordDictionary base) {
+		int distance = Integer.getInteger(DISTANCE_PROPERTY, 0);
+		return distance > 0 ? new DeletionIndex(base, distance) : base;
+	}
+
+	/**
+	 * Returns the largest number of edits this index finds suggestions at.
+	 *
+	 * @return The maximum edit distance.
+	 */
+	public int maxDistance() {
+		return maxDistance;
+	}
+
+	@Override
+	public boolean contains(CharSequence word) {
+		return base.contains(word);
+	}
+
+	@Override
+	public void forEachWord(Consumer<? super String> action) {
+		for (String word : words) {
+			action.accept(word);
+		}
+	}
+
+	@Override
+	public int size() {
+		return words.length;
+	}
+
+	/**
+	 * Collects the dictionary words up to maxDistance edits away from
+	 * <code>badWord</code>, plus the ways of splitting it into two words.
+	 * With a maximum distance of 1 this is exactly the set that the other
+	 * dictionaries return.
+	 */
+	@Override
+	public SortedSet<String> corrections(String badWord) {
+
+		SortedSet<String> corrections = new TreeSet<>();
+		int[][] rows = new int[3][maxWordLength + 1];
+
+		forEachDeletion(badWord, new int[maxDistance], 0, 0, hash -> {
+			int g = find(hash & ~ID_MASK);
+			if (g < 0) {
+				return;
+			}
+			for (int i = groupStart[g]; i < groupStart[g + 1]; i++) {
+				String word = words[ids[i]];
+				if (!corrections.contains(word)
+								&& distance(badWord, word, maxDistance, rows) <= maxDistance) {
+					corrections.add(word);
+				}
+			}
+		});
+		corrections.remove(badWord);
+
+		for (int i = 1; i < badWord.length(); i++) {
+			if (base.contains(CharBuffer.wrap(badWord, 0, i))
+							&& base.contains(CharBuffer.wrap(badWord, i, badWord.length()))) {
+				corrections.add(badWord.substring(0, i) + ' ' + badWord.substring(i));
+			}
+		}
+
+		return corrections;
+	}
+
+	/**
+	 * Passes the hash of every string made by deleting up to maxDistance
+	 * letters from <code>word</code>, including <code>word</code> itself,
+	 * to <code>action</code>.  The deleted positions are kept in
+	 * <code>skip</code> in increasing order, so each set of positions is
+	 * only tried once.
+	 */
+	private void forEachDeletion(String word, int[] skip, int deleted,
+					int from, LongConsumer action) {
+		action.accept(hash(word, skip, deleted));
+		if (deleted < maxDistance) {
+			for (int i = from; i < word.length(); i++) {
+				skip[deleted] = i;
+				forEachDeletion(word, skip, deleted + 1, i + 1, action);
+			}
+		}
+	}
+
+	/**
+	 * Returns the position in <code>keys</code> of the variant with the
+	 * hash <code>key</code>, or -1 if no word produces it.
+	 */
+	private int find(long key) {
+		int slot = slot(key);
+		while (table[slot] != 0) {
+			int g = table[slot] - 1;
+			if (keys[g] == key) {
+				return g;
+			}
+			slot = (slot + 1) & (table.length - 1);
+		}
+		return -1;
+	}
+
+	private int slot(long key) {
+		return (int) (key >>> ID_BITS) & (table.length - 1);
+	}
+
+	/**
+	 * Hashes the characters of <code>word</code>, leaving out the first
+	 * <code>deleted</code> positions listed in <code>skip</code>.  This is
+	 * 64 bit FNV-1a followed by the MurmurHash3 finalizer, so that the
+	 * high bits, which are the only ones kept, are well mixed.
+	 */
+	private static long hash(String word, int[] skip, int deleted) {
+		long h = 0xcbf29ce484222325L;
+		int k = 0;
+		for (int i = 0; i < word.length(); i++) {
+			if (k < deleted && skip[k] == i) {
+				k++;
+				continue;
+			}
+			h ^= word.charAt(i);
+			h *= 0x100000001b3L;
+		}
+		h ^= h >>> 33;
+		h *= 0xff51afd7ed558ccdL;
+		h ^= h >>> 33;
+		h *= 0xc4ceb9fe1a85ec53L;
+		h ^= h >>> 33;
+		return h;
+	}
+
+	/**
+	 * Returns the optimal string alignment distance between
+	 * <code>a</code> and dictionary word <code>b</code>: the number of
+	 * deletions, insertions, changes and neighbor swaps needed to turn one
+	 * into the other.  Gives up as soon as the answer must be more than
+	 * <code>max</code>, and then returns max + 1.
+	 *
+	 * @param rows Three scratch rows at least as long as <code>b</code>
+	 *     plus one.
+	 */
+	static int distance(String a, String b, int max, int[][] rows) {
+
+		int n = a.length();
+		int m = b.length();
+		if (Math.abs(n - m) > max) {
+			return max + 1;
+		}
+
+		int[] twoBack = rows[0];
+		int[] previous = rows[1];
+		int[] current = rows[2];
+		for (int j = 0; j <= m; j++) {
+			previous[j] = j;
+		}
+
+		for (int i = 1; i <= n; i++) {
+			current[0] = i;
+			int rowMin = i;
+			for (int j = 1; j <= m; j++) {
+				int cost = a.charAt(i - 1) == b.charAt(j - 1) ? 0 : 1;
+				int d = Math.min(Math.min(previous[j] + 1, current[j - 1] + 1),
+								previous[j - 1] + cost);
+				if (i > 1 && j > 1 && a.charAt(i - 1) == b.charAt(j - 2)
+								&& a.charAt(i - 2) == b.charAt(j - 1)) {
+					d = Math.min(d, twoBack[j - 2] + 1);
+				}
+				current[j] = d;
+				rowMin = Math.min(rowMin, d);
+			}
+			if (rowMin > max) {
+				return max + 1;
+			}
+			int[] recycled = twoBack;
+			twoBack = previous;
+			previous = current;
+			current = recycled;
+		}
+
+		return Math.min(previous[m], max + 1);
+	}
+}
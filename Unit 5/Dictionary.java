@@ -7,47 +7,66 @@ import javax.swing.JFileChooser;
 
 public class Dictionary {
 
-	public static void main(String args[]) throws FileNotFoundException {
-
-		Scanner filein;
-		Scanner userFile;
-		
-		try {
-			// Reading the words.txt file.
-			filein = new Scanner(new File("src/spellchecker/words.txt"));
-
-			// Creating the new dictionary data structure
-			HashSet<String> hash = new HashSet<>();
+	/** The word list the program checks against. */
+	static final String WORDS_FILE = "src/spellchecker/words.txt";
 
-			while (filein.hasNext()) {
-				String tk = filein.next();
+	/**
+	 * Checks a user selected file against words.txt.  If there are any
+	 * command line arguments, no file dialog is shown; the documents are
+	 * checked as described in HeadlessSpellChecker, with words.txt as the
+	 * default dictionary.
+	 */
+	public static void main(String args[]) throws FileNotFoundException {
 
-				// Adding words into dictionary from "words.txt"
-				hash.add(tk.toLowerCase());
+		if (args.length > 0) {
+			int status = HeadlessSpellChecker.run(args, WORDS_FILE);
+			if (status != 0) {
+				System.exit(status);
 			}
+			return;
+		}
 
-			userFile = new Scanner(getInputFileNameFromUser());
-			userFile.useDelimiter("[^a-zA-Z]+");
-
-			while (userFile.hasNext()) {
-				String two = userFile.next();
-				String two1 = two.toLowerCase();
-				if (!hash.contains(two1)) {
-					System.out.println(two1 + ":" + corrections(two1, hash));
+		Reader userFile;
+		
+		try {
+			// Mapping words.dict if it has been compiled, otherwise
+			// reading the words.txt file into the trie dictionary.
+			WordDictionary hash = WordDictionary.load(new File(WORDS_FILE));
+
+			// Ranking corrections with the word counts next to words.txt,
+			// and remembering them, so a repeated typo is only corrected once.
+			SuggestionRanker ranker = SuggestionRanker.forDictionary(hash, new File(WORDS_FILE));
+			SuggestionCache cache = SuggestionCache.fromProperties(ranker);
+
+			userFile = new FileReader(getInputFileNameFromUser());
+			WordTokenizer words = new WordTokenizer(userFile);
+
+			// Words come back lowercased, and are only turned into
+			// Strings when they are not in the dictionary.
+			while (words.next()) {
+				if (!hash.contains(words.word())) {
+					String two1 = words.word().toString();
+					List<String> suggestions = corrections(two1, ranker, cache);
+					System.out.println(two1 + ":" + (suggestions.isEmpty()
+									? "[no suggestions]" : suggestions));
 				}
 			}
-			filein.close();
 			userFile.close();
+
+			System.out.println(cache.statistics());
+			try {
+				cache.save();
+			} catch (IOException e) {
+				System.out.println("Can't save the suggestion cache: " + e.getMessage());
+			}
 		} catch (IOException e) {
 			System.out.println("File not found - words.txt");
 		}
 	}
 
 	/**
-	 * Stores the variations in a TreeSet, then
-	 * Returns the possible variations on the misspelled word.
-	 * Since the corrections are stored in a tree set, they are automatically
-	 * printed out in alphabetical order with no repeats.
+	 * Returns the most likely corrections of the misspelled word, best
+	 * first, with no repeats.  The list is empty if there are none.
 	 *
 	 * The possible corrections that the program considers are as follows:
 	 *
@@ -57,88 +76,17 @@ public class Dictionary {
 	 * Swap any two neighboring characters in the misspelled word.
 	 * Insert a space at any point in the misspelled word (and check that both
 	 * of the words that are produced are in the dictionary)
+	 *
+	 * They are ranked by how common each kind of typo is and how common the
+	 * word is, and only the best few are kept.
 	 */
 
-	static TreeSet<String> corrections(String badWord, HashSet<String> dictionary) {
-
-		TreeSet<String> tree = new TreeSet<String>();
-
-		// Delete any one of the letters from the misspelled word, then check if
-		// exist in the dictionary.
-
-		for (int i = 0; i < badWord.length(); i++) {
-			String s = badWord.substring(0, i) + badWord.substring(i + 1);
-			if (dictionary.contains(s)) {
-				tree.add(s);
-			}
-		}
-
-		// Change any letter in the misspelled word to any other letter , then
-		// check if exist in the dictionary.
-
-		for (int i = 0; i < badWord.length(); i++) {
-			for (char ch = 'a'; ch <= 'z'; ch++) {
-				String s = badWord.substring(0, i) + ch
-								+ badWord.substring(i + 1);
-				if (dictionary.contains(s)) {
-					tree.add(s);
-				}
-			}
-		}
-		// Insert any letter at any point in the misspelled word ,then check if
-		// exist in the dictionary.
-
-		for (int i = 0; i <= badWord.length(); i++) {
-			for (char ch = 'a'; ch <= 'z'; ch++) {
-				String s = badWord.substring(0, i) + ch + badWord.substring(i);
-				if (dictionary.contains(s)) {
-					tree.add(s);
-				}
-			}
-		}
-
-		// Swap any two neighboring characters in the misspelled word, then
-		// check if exist in the dictionary.
+	static List<String> corrections(String badWord, SuggestionRanker ranker,
+					SuggestionCache cache) {
 
-		for (int i = 0; i < badWord.length() - 1; i++) {
-			String s = badWord.substring(0, i) + badWord.substring(i + 1, i + 2)
-							+ badWord.substring(i, i + 1)
-							+ badWord.substring(i + 2);
-			if (dictionary.contains(s)) {
-				tree.add(s);
-			}
-		}
-
-		// Insert a space at any point in the misspelled word (and check that
-		// both of the words that are produced are in the dictionary)
-
-		for (int i = 1; i < badWord.length(); i++) {
-			String stringInput = badWord.substring(0, i) + " "
-							+ badWord.substring(i);
-			String tempString = "";
-
-			// break a string into tokens and add it to tempWords
-			StringTokenizer tempWords = new StringTokenizer(stringInput);
-
-			// Loop over all words in tempWords.
-			while (tempWords.hasMoreTokens()) {
-				// Store each word in a temp string.
-				String stringWord1 = tempWords.nextToken();
-				String stringWord2 = tempWords.nextToken();
-				// Check if temp words exist in dictionary otherwise break
-				if (dictionary.contains(stringWord1)
-								&& dictionary.contains(stringWord2)) {
-					tempString = stringWord1 + " " + stringWord2;
-				} else
-					break;
-				tree.add(tempString);
-			}
-		}
-
-		if (tree.isEmpty()) {
-			tree.add("no suggestions");
-		}
-		return tree;
+		// The trie dictionary finds every variation that is a real word and
+		// the ranker orders them, unless the cache already has them.
+		return cache.suggestions(badWord, ranker);
 	}
 
 	/**
@@ -0,0 +1,133 @@
+package spellchecker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A build step that compiles a text dictionary, such as words.txt, into a
+ * binary image that MappedDictionary can use without any parsing.
+ * <p>
+ * The words are lowercased, sorted and deduplicated, then written as:
+ * <pre>
+ *   int     magic ("SPDI")
+ *   int     version
+ *   int     word count n
+ *   int     alphabet length a
+ *   byte[a] every letter used, in ascending order
+ *   int[n+1] offset of each word in the data, plus the end of the data
+ *   byte[]  the letters of every word, one byte each, back to back
+ * </pre>
+ * All ints are big-endian.  Letters are stored as ISO-8859-1, so a word
+ * with a character outside that range is left out with a warning.
+ * <p>
+ * Usage: <code>java spellchecker.DictionaryCompiler words.txt words.dict</code>
+ * <br>
+ * If the output name is left off, the image is written next to the input
+ * with the extension changed to ".dict".
+ */
+public class DictionaryCompiler {
+
+	/**
+	 * Compiles the dictionary named on the command line.
+	 *
+	 * @param args The text dictionary and, optionally, the image to write.
+	 */
+	public static void main(String[] args) {
+
+		if (args.length < 1 || args.length > 2) {
+			System.out.println("Usage: java spellchecker.DictionaryCompiler "
+				+ "<words.txt> [<words.dict>]");
+			return;
+		}
+
+		File source = new File(args[0]);
+		File target = args.length == 2 ? new File(args[1]) : imageFileFor(source);
+
+		try {
+			int count = compile(source, target);
+			System.out.println("Wrote " + count + " words to " + target + ".");
+		} catch (IOException e) {
+			System.out.println("Error compiling " + source + ": " + e.getMessage());
+		}
+	}
+
+	/**
+	 * Returns the image file that belongs next to a text dictionary: the
+	 * same name with its extension replaced by ".dict".
+	 *
+	 * @param textFile The text dictionary.
+	 * @return The matching image file, which may not exist.
+	 */
+	static File imageFileFor(File textFile) {
+		String name = textFile.getName();
+		int pos = name.lastIndexOf('.');
+		if (pos > 0) {
+			name = name.substring(0, pos);
+		}
+		return new File(textFile.getAbsoluteFile().getParentFile(), name + ".dict");
+	}
+
+	/**
+	 * Compiles <code>source</code> into an image at <code>target</code>.
+	 *
+	 * @param source The text dictionary, with words separated by whitespace.
+	 * @param target The image file to write.
+	 * @return The number of distinct words written.
+	 * @throws IOException If either file can't be read or written.
+	 */
+	static int compile(File source, File target) throws IOException {
+
+		SortedSet<String> words = new TreeSet<>();
+		BitSet letters = new BitSet(256);
+
+		Scanner filein = new Scanner(source);
+		while (filein.hasNext()) {
+			String word = filein.next().toLowerCase();
+			if (isLatin1(word)) {
+				words.add(word);
+				for (int i = 0; i < word.length(); i++) {
+					letters.set(word.charAt(i));
+				}
+			} else {
+				System.out.println("Skipping \"" + word + "\": not ISO-8859-1.");
+			}
+		}
+		filein.close();
+
+		try (DataOutputStream out = new DataOutputStream(
+						new BufferedOutputStream(new FileOutputStream(target)))) {
+
+			out.writeInt(MappedDictionary.MAGIC);
+			out.writeInt(MappedDictionary.VERSION);
+			out.writeInt(words.size());
+			out.writeInt(letters.cardinality());
+			for (int ch = letters.nextSetBit(0); ch >= 0; ch = letters.nextSetBit(ch + 1)) {
+				out.writeByte(ch);
+			}
+
+			int offset = 0;
+			for (String word : words) {
+				out.writeInt(offset);
+				offset += word.length();
+			}
+			out.writeInt(offset);
+
+			for (String word : words) {
+				for (int i = 0; i < word.length(); i++) {
+					out.writeByte(word.charAt(i));
+				}
+			}
+		}
+
+		return words.size();
+	}
+
+	private static boolean isLatin1(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			if (word.charAt(i) > 0xFF) {
+				return false;
+			}
+		}
+		return true;
+	}
+}
@@ -0,0 +1,196 @@
+package spellchecker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Keeps spell checking a set of documents as they are edited.
+ * <p>
+ * Each document's directory is registered with a WatchService.  When a
+ * document changes, it is read again and handed to its CheckedDocument,
+ * which only re-checks the lines that changed and reports the misspellings
+ * that were added or fixed.  Editors often write a file in several steps,
+ * so events that arrive close together are collected and each changed
+ * document is checked once.  A document that is deleted counts as empty,
+ * so all of its misspellings are reported as fixed, and it is checked
+ * again if it comes back.
+ */
+class DocumentWatcher {
+
+	/** Hears about the changes in every watched document. */
+	interface Listener {
+
+		/**
+		 * Called for a misspelled word that wasn't in a document before.
+		 *
+		 * @param source The document's name.
+		 * @param line The line the word is on, counting from 1.
+		 * @param word The misspelled word, lowercased.
+		 * @throws IOException If reporting the word fails.
+		 */
+		void misspelled(String source, int line, String word) throws IOException;
+
+		/**
+		 * Called for a misspelled word that is no longer in a document.
+		 *
+		 * @param source The document's name.
+		 * @param line The first line of the edit that removed it.
+		 * @param word The word, lowercased.
+		 * @throws IOException If reporting the word fails.
+		 */
+		void fixed(String source, int line, String word) throws IOException;
+
+		/**
+		 * Called after each document has been checked, whether or not
+		 * anything was reported.
+		 *
+		 * @param source The document's name.
+		 * @throws IOException If finishing the report fails.
+		 */
+		void checked(String source) throws IOException;
+	}
+
+	/** How long to wait for more events before checking the documents. */
+	private static final long SETTLE_MILLIS = 50;
+
+	private final WordDictionary dictionary;
+	private final Listener listener;
+	private final WatchService watcher;
+
+	/** The name and state of each document, by its absolute path. */
+	private final Map<Path, String> names = new LinkedHashMap<>();
+	private final Map<Path, CheckedDocument> documents = new HashMap<>();
+
+	/** The directories that are already registered. */
+	private final Set<Path> directories = new HashSet<>();
+
+	/**
+	 * Creates a watcher with no documents.
+	 *
+	 * @param dictionary The dictionary of properly spelled words.
+	 * @param listener Told about every change.
+	 * @throws IOException If the file system can't be watched.
+	 */
+	DocumentWatcher(WordDictionary dictionary, Listener listener) throws IOException {
+		this.dictionary = dictionary;
+		this.listener = listener;
+		this.watcher = FileSystems.getDefault().newWatchService();
+	}
+
+	/**
+	 * Starts watching a document.  It is checked in full when watch()
+	 * starts.
+	 *
+	 * @param name The document's file name, which is also used in reports.
+	 * @throws IOException If its directory can't be watched.
+	 */
+	void add(String name) throws IOException {
+		Path path = Paths.get(name).toAbsolutePath().normalize();
+		Path directory = path.getParent();
+		if (directories.add(directory)) {
+			directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+							StandardWatchEventKinds.ENTRY_MODIFY,
+							StandardWatchEventKinds.ENTRY_DELETE);
+		}
+		names.put(path, name);
+		documents.put(path, new CheckedDocument(dictionary));
+	}
+
+	/**
+	 * Checks every document, then checks them again each time they change.
+	 * This only returns if the thread is interrupted.
+	 *
+	 * @throws IOException If the listener fails.
+	 * @throws InterruptedException If the thread is interrupted while
+	 *     waiting for changes.
+	 */
+	void watch() throws IOException, InterruptedException {
+
+		for (Path path : names.keySet()) {
+			refresh(path);
+		}
+
+		while (true) {
+			Set<Path> changed = new LinkedHashSet<>();
+			WatchKey key = watcher.take();
+			do {
+				collect(key, changed);
+				key = watcher.poll(SETTLE_MILLIS, TimeUnit.MILLISECONDS);
+			} while (key != null);
+
+			for (Path path : changed) {
+				refresh(path);
+			}
+		}
+	}
+
+	/**
+	 * Adds the watched documents that <code>key</code>'s events are about
+	 * to <code>changed</code>.  If events were lost, every document in the
+	 * directory might have changed.
+	 */
+	private void collect(WatchKey key, Set<Path> changed) {
+		Path directory = (Path) key.watchable();
+		for (WatchEvent<?> event : key.pollEvents()) {
+			if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+				for (Path path : names.keySet()) {
+					if (path.getParent().equals(directory)) {
+						changed.add(path);
+					}
+				}
+			} else {
+				Path path = directory.resolve((Path) event.context());
+				if (documents.containsKey(path)) {
+					changed.add(path);
+				}
+			}
+		}
+		key.reset();
+	}
+
+	/** Reads a document again and reports what changed. */
+	private void refresh(Path path) throws IOException {
+		final String name = names.get(path);
+		List<String> lines;
+		try {
+			lines = readLines(path);
+		} catch (NoSuchFileException e) {
+			lines = Collections.emptyList();
+		} catch (IOException e) {
+			System.err.println("Can't read " + name + ": " + e.getMessage());
+			return;
+		}
+
+		documents.get(path).update(lines, new CheckedDocument.Listener() {
+			@Override
+			public void misspelled(int line, String word) throws IOException {
+				listener.misspelled(name, line, word);
+			}
+
+			@Override
+			public void fixed(int line, String word) throws IOException {
+				listener.fixed(name, line, word);
+			}
+		});
+		listener.checked(name);
+	}
+
+	/**
+	 * Reads a document's lines.  Lines end the same way they do for
+	 * BufferedReader.readLine().
+	 */
+	private static List<String> readLines(Path path) throws IOException {
+		List<String> lines = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+						Files.newInputStream(path), StandardCharsets.UTF_8))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				lines.add(line);
+			}
+		}
+		return lines;
+	}
+}
@@ -0,0 +1,322 @@
+package spellchecker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A non-interactive spell checker for batch jobs.
+ * <p>
+ * Documents are read from the files named on the command line, or from
+ * standard input, and every distinct misspelled word in each document is
+ * written to standard output as one machine-readable record, as soon as it
+ * is found.  Nothing here touches Swing, so no AWT toolkit is started.
+ * <p>
+ * Usage: <code>java spellchecker.SpellChecker --dict &lt;dictionary&gt;
+ * [--format tsv|jsonl] [--watch] [&lt;file&gt;|-]...</code>
+ * <br>
+ * A file name of "-", or no file names at all, reads standard input.  The
+ * dictionary may be a text word list or a compiled image.  Records look
+ * like this:
+ * <pre>
+ *   tsv:   source &lt;TAB&gt; line &lt;TAB&gt; word &lt;TAB&gt; suggestion,suggestion
+ *   jsonl: {"source":"a.txt","line":3,"word":"teh","suggestions":["eh","the"]}
+ * </pre>
+ * The line is where the word first appears.  Suggestions are ranked best
+ * first, as described in SuggestionRanker.  Progress and cache
+ * statistics go to standard error so they never mix with the records.
+ * <p>
+ * With --watch, the files are checked once and then watched until the
+ * program is stopped, as described in DocumentWatcher.  Each time a file
+ * changes, only its changed lines are checked again, and only the
+ * misspellings that appeared or went away are reported.  Each record then
+ * starts with the kind of change:
+ * <pre>
+ *   tsv:   + &lt;TAB&gt; source &lt;TAB&gt; line &lt;TAB&gt; word &lt;TAB&gt; suggestion,suggestion
+ *          - &lt;TAB&gt; source &lt;TAB&gt; line &lt;TAB&gt; word &lt;TAB&gt;
+ *   jsonl: {"change":"new","source":"a.txt","line":3,"word":"teh","suggestions":["the","eh"]}
+ *          {"change":"fixed","source":"a.txt","line":3,"word":"teh","suggestions":[]}
+ * </pre>
+ * For a fixed word, the line is the start of the edit that removed it.
+ */
+public class HeadlessSpellChecker {
+
+	/** The supported output formats. */
+	private enum Format { TSV, JSONL }
+
+	/** The name used for standard input in records. */
+	private static final String STDIN = "-";
+
+	/** The kinds of change written in watch mode, and how they are written. */
+	private enum Change {
+		NEW("new", "+"), FIXED("fixed", "-");
+
+		final String name;
+		final String mark;
+
+		Change(String name, String mark) {
+			this.name = name;
+			this.mark = mark;
+		}
+	}
+
+	private final WordDictionary dictionary;
+	private final SuggestionRanker ranker;
+	private final SuggestionCache cache;
+	private final Format format;
+	private final Writer out;
+
+	private HeadlessSpellChecker(SuggestionRanker ranker, SuggestionCache cache,
+					Format format, Writer out) {
+		this.dictionary = ranker.dictionary();
+		this.ranker = ranker;
+		this.cache = cache;
+		this.format = format;
+		this.out = out;
+	}
+
+	/**
+	 * Runs the headless checker and exits with its status.
+	 *
+	 * @param args The command line described in the class comment.
+	 */
+	public static void main(String[] args) {
+		int status = run(args, null);
+		if (status != 0) {
+			System.exit(status);
+		}
+	}
+
+	/**
+	 * Parses the command line, then checks every document it names.
+	 *
+	 * @param args The command line described in the class comment.
+	 * @param defaultDictionary The dictionary to use if there is no
+	 *     --dict option, or null to make the option required.
+	 * @return 0 on success, 2 on a usage error or if a file couldn't be
+	 *     read.
+	 */
+	static int run(String[] args, String defaultDictionary) {
+
+		String dictionaryName = defaultDictionary;
+		Format format = Format.TSV;
+		boolean watch = false;
+		List<String> sources = new ArrayList<>();
+
+		for (int i = 0; i < args.length; i++) {
+			if (args[i].equals("--dict") && i + 1 < args.length) {
+				dictionaryName = args[++i];
+			} else if (args[i].equals("--format") && i + 1 < args.length) {
+				String name = args[++i];
+				if (name.equalsIgnoreCase("tsv")) {
+					format = Format.TSV;
+				} else if (name.equalsIgnoreCase("jsonl")) {
+					format = Format.JSONL;
+				} else {
+					return usage("Unknown format \"" + name + "\".");
+				}
+			} else if (args[i].equals("--watch")) {
+				watch = true;
+			} else if (args[i].startsWith("--")) {
+				return usage("Unknown option \"" + args[i] + "\".");
+			} else {
+				sources.add(args[i]);
+			}
+		}
+
+		if (dictionaryName == null) {
+			return usage("No dictionary given.");
+		}
+		if (watch && (sources.isEmpty() || sources.contains(STDIN))) {
+			return usage("--watch needs files, not standard input.");
+		}
+		if (sources.isEmpty()) {
+			sources.add(STDIN);
+		}
+
+		WordDictionary dictionary;
+		try {
+			dictionary = WordDictionary.load(new File(dictionaryName));
+		} catch (IOException e) {
+			System.err.println("Can't read dictionary " + dictionaryName + ": " + e.getMessage());
+			return 2;
+		}
+
+		SuggestionRanker ranker = SuggestionRanker.forDictionary(dictionary, new File(dictionaryName));
+		SuggestionCache cache = SuggestionCache.fromProperties(ranker);
+		Writer out = new BufferedWriter(new OutputStreamWriter(System.out, StandardCharsets.UTF_8));
+		HeadlessSpellChecker checker = new HeadlessSpellChecker(ranker, cache, format, out);
+
+		if (watch) {
+			return checker.watch(sources);
+		}
+
+		int status = 0;
+		for (String source : sources) {
+			try (Reader in = source.equals(STDIN)
+							? new InputStreamReader(System.in, StandardCharsets.UTF_8)
+							: new InputStreamReader(new FileInputStream(source), StandardCharsets.UTF_8)) {
+				checker.check(source, in);
+			} catch (IOException e) {
+				System.err.println("Can't spell check " + source + ": " + e.getMessage());
+				status = 2;
+			}
+		}
+
+		System.err.println(cache.statistics());
+		try {
+			cache.save();
+		} catch (IOException e) {
+			System.err.println("Can't save the suggestion cache: " + e.getMessage());
+		}
+		return status;
+	}
+
+	private static int usage(String problem) {
+		System.err.println(problem);
+		System.err.println("Usage: java spellchecker.SpellChecker --dict <dictionary> "
+						+ "[--format tsv|jsonl] [--watch] [<file>|-]...");
+		return 2;
+	}
+
+	/**
+	 * Checks one document, writing a record for each distinct misspelled
+	 * word as it is found.  The output is flushed when the document is
+	 * done, so a consumer sees whole documents even when it reads a pipe.
+	 *
+	 * @param source The name to put in the records.
+	 * @param in The document.
+	 * @throws IOException If reading the document or writing a record fails.
+	 */
+	private void check(String source, Reader in) throws IOException {
+
+		Set<String> reported = new HashSet<>();
+		WordTokenizer words = new WordTokenizer(in);
+
+		while (words.next()) {
+			if (!dictionary.contains(words.word())) {
+				String word = words.word().toString();
+				if (reported.add(word)) {
+					write(null, source, words.line(), word, cache.suggestions(word, ranker));
+				}
+			}
+		}
+
+		out.flush();
+	}
+
+	/**
+	 * Checks the files, then keeps checking the changes made to them until
+	 * the program is stopped.  The suggestion cache is saved on the way
+	 * out.
+	 *
+	 * @param sources The files to watch.
+	 * @return 2 if the files can't be watched.  Otherwise this only
+	 *     returns if the thread is interrupted, with 0.
+	 */
+	private int watch(List<String> sources) {
+
+		final DocumentWatcher watcher;
+		try {
+			watcher = new DocumentWatcher(dictionary, new DocumentWatcher.Listener() {
+				@Override
+				public void misspelled(String source, int line, String word) throws IOException {
+					write(Change.NEW, source, line, word, cache.suggestions(word, ranker));
+				}
+
+				@Override
+				public void fixed(String source, int line, String word) throws IOException {
+					write(Change.FIXED, source, line, word, Collections.<String>emptyList());
+				}
+
+				@Override
+				public void checked(String source) throws IOException {
+					out.flush();
+				}
+			});
+			for (String source : sources) {
+				watcher.add(source);
+			}
+		} catch (IOException e) {
+			System.err.println("Can't watch the files: " + e.getMessage());
+			return 2;
+		}
+
+		Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+			System.err.println(cache.statistics());
+			try {
+				cache.save();
+			} catch (IOException e) {
+				System.err.println("Can't save the suggestion cache: " + e.getMessage());
+			}
+		}));
+
+		try {
+			watcher.watch();
+		} catch (IOException e) {
+			System.err.println("Can't write the report: " + e.getMessage());
+			return 2;
+		} catch (InterruptedException e) {
+			// Stopped; the shutdown hook saves the cache.
+		}
+		return 0;
+	}
+
+	/**
+	 * Writes one record.
+	 *
+	 * @param change NEW or FIXED in watch mode, otherwise null.
+	 */
+	private void write(Change change, String source, int line, String word,
+					List<String> suggestions) throws IOException {
+		if (format == Format.TSV) {
+			if (change != null) {
+				out.write(change.mark);
+				out.write('\t');
+			}
+			out.write(source);
+			out.write('\t');
+			out.write(Integer.toString(line));
+			out.write('\t');
+			out.write(word);
+			out.write('\t');
+			out.write(String.join(",", suggestions));
+		} else {
+			out.write('{');
+			if (change != null) {
+				out.write("\"change\":\"" + change.name + "\",");
+			}
+			out.write("\"source\":");
+			writeJsonString(source);
+			out.write(",\"line\":");
+			out.write(Integer.toString(line));
+			out.write(",\"word\":");
+			writeJsonString(word);
+			out.write(",\"suggestions\":[");
+			for (int i = 0; i < suggestions.size(); i++) {
+				if (i > 0) {
+					out.write(',');
+				}
+				writeJsonString(suggestions.get(i));
+			}
+			out.write("]}");
+		}
+		out.write('\n');
+	}
+
+	private void writeJsonString(String s) throws IOException {
+		out.write('"');
+		for (int i = 0; i < s.length(); i++) {
+			char ch = s.charAt(i);
+			if (ch == '"' || ch == '\\') {
+				out.write('\\');
+				out.write(ch);
+			} else if (ch < 0x20) {
+				out.write(String.format("\\u%04x", (int) ch));
+			} else {
+				out.write(ch);
+			}
+		}
+		out.write('"');
+	}
+}
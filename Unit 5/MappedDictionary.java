@@ -0,0 +1,275 @@
+package spellchecker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.function.Consumer;
+
+/**
+ * A WordDictionary that reads a compiled dictionary image directly out of
+ * a memory mapped file.
+ * <p>
+ * The image is written by DictionaryCompiler.  Its words are sorted and
+ * stored one byte per letter, so a lookup is a binary search over the
+ * mapped bytes.  Nothing is parsed or copied when the image is opened, and
+ * the heap use of this class does not depend on how many words there are;
+ * the operating system pages the file in as it is touched.
+ * <p>
+ * A sorted word list is also a trie in disguise: all the words that share a
+ * prefix form one contiguous range.  A node is that range, packed into a
+ * long, which lets the correction search of AbstractTrieDictionary run
+ * straight over the image.
+ * <p>
+ * The buffer is only read with absolute gets, so one dictionary can be
+ * shared by any number of threads.
+ */
+public class MappedDictionary extends AbstractTrieDictionary {
+
+	/** The first four bytes of every image: "SPDI". */
+	static final int MAGIC = 0x53504449;
+
+	/** The image layout written by this version of the compiler. */
+	static final int VERSION = 1;
+
+	/**
+	 * The size of the fixed header: magic, version, word count and
+	 * alphabet length, each an int.
+	 */
+	static final int HEADER_SIZE = 16;
+
+	/** The whole image. */
+	private final ByteBuffer image;
+
+	/** The number of words in the image. */
+	private final int wordCount;
+
+	/** Every letter used by the words, in ascending order. */
+	private final char[] alphabet;
+
+	/** Where the table of word offsets starts. */
+	private final int offsetsStart;
+
+	/** Where the packed word bytes start. */
+	private final int dataStart;
+
+	/**
+	 * Wraps an image that is already in memory.
+	 *
+	 * @param image The image, laid out as described in DictionaryCompiler.
+	 * @throws IOException If the buffer does not hold a dictionary image.
+	 */
+	MappedDictionary(ByteBuffer image) throws IOException {
+
+		this.image = image;
+
+		if (image.capacity() < HEADER_SIZE || image.getInt(0) != MAGIC) {
+			throw new IOException("Not a compiled dictionary image.");
+		}
+		if (image.getInt(4) != VERSION) {
+			throw new IOException("Unsupported dictionary image version "
+							+ image.getInt(4) + ".");
+		}
+
+		wordCount = image.getInt(8);
+		int alphabetLength = image.getInt(12);
+
+		alphabet = new char[alphabetLength];
+		for (int i = 0; i < alphabetLength; i++) {
+			alphabet[i] = (char) (image.get(HEADER_SIZE + i) & 0xFF);
+		}
+
+		offsetsStart = HEADER_SIZE + alphabetLength;
+		dataStart = offsetsStart + 4 * (wordCount + 1);
+
+		if (dataStart > image.capacity()
+						|| dataStart + offset(wordCount) > image.capacity()) {
+			throw new IOException("Dictionary image is truncated.");
+		}
+	}
+
+	/**
+	 * Maps a compiled dictionary image.  The channel is closed right away;
+	 * the mapping stays valid until the dictionary is garbage collected.
+	 *
+	 * @param file The image written by DictionaryCompiler.
+	 * @return The dictionary backed by the mapped file.
+	 * @throws IOException If the file can't be mapped or is not an image.
+	 */
+	public static MappedDictionary open(File file) throws IOException {
+		try (FileChannel channel = FileChannel.open(file.toPath(),
+						StandardOpenOption.READ)) {
+			MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY,
+							0, channel.size());
+			return new MappedDictionary(buffer);
+		}
+	}
+
+	/**
+	 * Tests whether <code>file</code> starts with the image magic number.
+	 *
+	 * @param file The file to test.
+	 * @return True if the file looks like a compiled image.
+	 */
+	static boolean isImage(File file) {
+		try (DataInputStream in = new DataInputStream(new FileInputStream(file))) {
+			return in.readInt() == MAGIC;
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	@Override
+	public int size() {
+		return wordCount;
+	}
+
+	/**
+	 * The words are already stored in order, so there is no need to walk
+	 * the implicit trie to find them.
+	 */
+	@Override
+	public void forEachWord(Consumer<? super String> action) {
+		char[] word = new char[16];
+		for (int index = 0; index < wordCount; index++) {
+			int start = dataStart + offset(index);
+			int length = length(index);
+			if (length > word.length) {
+				word = new char[length];
+			}
+			for (int i = 0; i < length; i++) {
+				word[i] = (char) (image.get(start + i) & 0xFF);
+			}
+			action.accept(new String(word, 0, length));
+		}
+	}
+
+	/**
+	 * Binary searches the whole word list, which is cheaper than stepping
+	 * down the implicit trie one letter at a time.
+	 */
+	@Override
+	protected boolean contains(CharSequence word, int start, int end) {
+		int lo = 0;
+		int hi = wordCount - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int cmp = compare(mid, word, start, end);
+			if (cmp < 0) {
+				lo = mid + 1;
+			} else if (cmp > 0) {
+				hi = mid - 1;
+			} else {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * The root covers every word.  A node packs the index of its first
+	 * word in the high half and the index just past its last word in the
+	 * low half.
+	 */
+	@Override
+	protected long root() {
+		return node(0, wordCount);
+	}
+
+	/**
+	 * Every word in the node's range is at least <code>depth</code> letters
+	 * long and shares the same first <code>depth</code> letters.  The child
+	 * for <code>ch</code> is the sub-range whose next letter is
+	 * <code>ch</code>, found with two binary searches.
+	 */
+	@Override
+	protected long child(long node, int depth, char ch) {
+		if (ch > 0xFF) {
+			return NONE;
+		}
+		int lo = (int) (node >>> 32);
+		int hi = (int) node;
+		int from = firstWithLetterAtLeast(lo, hi, depth, ch);
+		int to = firstWithLetterAtLeast(from, hi, depth, ch + 1);
+		return from < to ? node(from, to) : NONE;
+	}
+
+	/**
+	 * Words sharing a prefix sort shortest first, so the prefix is itself a
+	 * word exactly when the first word of the range has no more letters.
+	 */
+	@Override
+	protected boolean endsWord(long node, int depth) {
+		int lo = (int) (node >>> 32);
+		int hi = (int) node;
+		return lo < hi && length(lo) == depth;
+	}
+
+	@Override
+	protected char[] alphabet() {
+		return alphabet;
+	}
+
+	/**
+	 * Returns the first word in [lo, hi) whose letter at
+	 * <code>depth</code> is at least <code>ch</code>, or hi if there is
+	 * none.  A word with no letter at <code>depth</code> counts as lower
+	 * than every letter.
+	 */
+	private int firstWithLetterAtLeast(int lo, int hi, int depth, int ch) {
+		while (lo < hi) {
+			int mid = (lo + hi) >>> 1;
+			if (letter(mid, depth) < ch) {
+				lo = mid + 1;
+			} else {
+				hi = mid;
+			}
+		}
+		return lo;
+	}
+
+	/**
+	 * Returns the letter of word <code>index</code> at
+	 * <code>depth</code>, or -1 if the word is too short.
+	 */
+	private int letter(int index, int depth) {
+		int start = offset(index);
+		if (depth >= offset(index + 1) - start) {
+			return -1;
+		}
+		return image.get(dataStart + start + depth) & 0xFF;
+	}
+
+	/**
+	 * Compares word <code>index</code> of the image with the characters
+	 * of <code>word</code> from <code>start</code> up to <code>end</code>,
+	 * in the same order that String.compareTo() would.
+	 */
+	private int compare(int index, CharSequence word, int start, int end) {
+		int from = offset(index);
+		int length = offset(index + 1) - from;
+		int other = end - start;
+		int n = Math.min(length, other);
+		for (int i = 0; i < n; i++) {
+			int a = image.get(dataStart + from + i) & 0xFF;
+			int b = word.charAt(start + i);
+			if (a != b) {
+				return a - b;
+			}
+		}
+		return length - other;
+	}
+
+	private int length(int index) {
+		return offset(index + 1) - offset(index);
+	}
+
+	private int offset(int index) {
+		return image.getInt(offsetsStart + 4 * index);
+	}
+
+	private static long node(int lo, int hi) {
+		return ((long) lo << 32) | (hi & 0xFFFFFFFFL);
+	}
+}
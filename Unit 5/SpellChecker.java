@@ -23,28 +23,35 @@ public class SpellChecker {
 	 * Prompts the user for file inputs and calls the
 	 * routines for spell checking and suggestion output.
 	 * 
-	 * @param args Command line args (not used).
+	 * @param args Command line args.  If there are any, the program
+	 *     runs without a GUI instead, as described in
+	 *     HeadlessSpellChecker.
 	 */
 	public static void main(String[] args) {
 		
+		if (args.length > 0) {
+			HeadlessSpellChecker.main(args);
+			return;
+		}
+		
 		/*
-		 * Store the dictionary words in a HashSet for maximum
-		 * efficiency, but declare the reference variable as the
-		 * interface type instead of a concrete type.
-		 * (i.e. Collection<> dictionary vs HashSet<> dictionary)
-		 * This allows the dictionary variable to be treated as
-		 * a generic Collection as it is passed around a program,
-		 * rather than the more specific HashSet that it is
-		 * actually implemented as, which provides the
+		 * Store the dictionary words in a trie, but declare the
+		 * reference variable as the interface type instead of a
+		 * concrete type.  (i.e. WordDictionary dictionary vs
+		 * TrieDictionary dictionary)  This allows the dictionary
+		 * variable to be treated as a generic WordDictionary as it
+		 * is passed around a program, rather than the more specific
+		 * trie that it is actually implemented as, which provides the
 		 * flexibility to change its underlying implementation
 		 * while using good encapsulation with loose coupling.
 		 * I've tried to use similar practices throughout this
 		 * program.
 		 */
-		Collection<String> dictionary = new HashSet<>();
+		WordDictionary dictionary;
 		
 		System.out.println("Choose the file to be used as a dictionary.\n");
-		dictionary = createDictionary();
+		File dictionaryFile = getInputFileNameFromUser("Select Dictionary File");
+		dictionary = createDictionary(dictionaryFile);
 		
 		if (dictionary.size() == 0) {
 			System.out.println("No dictionary from which to perform spell "
@@ -56,41 +63,56 @@ public class SpellChecker {
 		
 		File file = getInputFileNameFromUser("Select File to spell check");
 		
-		if (file != null) {
+		if (file == null) {
+			System.out.println("No file selected to spell check.  Goodbye.");
+			return;
+		}
+		
+		/*
+		 * Keep checking files until the user cancels.  All of them share
+		 * one suggestion cache, so a typo that shows up in several files
+		 * only has its corrections worked out and ranked once.
+		 */
+		SuggestionRanker ranker = SuggestionRanker.forDictionary(dictionary, dictionaryFile);
+		SuggestionCache cache = SuggestionCache.fromProperties(ranker);
+		
+		while (file != null) {
 			System.out.println("Below is the list of potentially misspelled "
 				+ "words and some possible correct spellings:\n");
-			spellCheckWordsFromFile(file, dictionary);
-		} else {
-			System.out.println("No file selected to spell check.  Goodbye.");
+			spellCheckWordsFromFile(file, dictionary, ranker, cache);
+			
+			System.out.println("\nChoose another file to spell check, "
+				+ "or cancel to finish.\n");
+			file = getInputFileNameFromUser("Select File to spell check");
+		}
+		
+		System.out.println(cache.statistics());
+		try {
+			cache.save();
+		} catch (IOException e) {
+			System.out.println("Can't save the suggestion cache: " + e.getMessage());
 		}
 	}
 	
 	/**
-	 * Obtains a user-selected file to be implemented as a dictionary.
+	 * Loads the user-selected file to be implemented as a dictionary.
 	 * The words in the dictionary file should be separated by one or more
-	 * non-letter characters.
+	 * non-letter characters.  A dictionary image compiled with
+	 * DictionaryCompiler may be chosen instead, and is memory mapped
+	 * rather than read word by word.
 	 * 
+	 * @param file The dictionary file, or null if none was selected.
 	 * @return The dictionary that has been filled with words
 	 *     from the user's selected file.
 	 */
-	private static Collection<String> createDictionary()  {
+	private static WordDictionary createDictionary(File file)  {
 		
-		Collection<String> dict = new HashSet<>();
-		
-		File file = getInputFileNameFromUser("Select Dictionary File");
+		WordDictionary dict = new TrieDictionary(Collections.<String>emptySet());
 		
 		if (file != null) {
 			try {
-				Scanner filein = new Scanner(file);
-				
-				while (filein.hasNext()) {
-					String word = filein.next();
-					word = word.toLowerCase();
-					dict.add(word);
-				}		
-				filein.close();
-				
-			} catch (FileNotFoundException e) {
+				dict = WordDictionary.load(file);
+			} catch (IOException e) {
 				System.out.println("Can't find dictionary file.  No words "
 					+ "added to dictionary.");
 			}
@@ -112,8 +134,11 @@ public class SpellChecker {
 	 *     is not null.
 	 * @param dict The dictionary to use as the correct spellings
 	 *     of English words.
+	 * @param ranker Finds and ranks the corrections for a misspelled word.
+	 * @param cache The cache of suggestions shared by every file.
 	 */
-	private static void spellCheckWordsFromFile(File f, Collection<String> dict) {
+	private static void spellCheckWordsFromFile(File f, WordDictionary dict,
+					SuggestionRanker ranker, SuggestionCache cache) {
 		
 		/* 
 		 * Store words that have already been output in a set so
@@ -122,148 +147,61 @@ public class SpellChecker {
 		 */
 		Collection<String> wordsToOutput = new HashSet<>();
 		
-		try {
-			Scanner in = new Scanner(f);
-			in.useDelimiter("[^a-zA-Z]+");
+		/*
+		 * The tokenizer hands back each word already lowercased, as a
+		 * view into its own buffer.  The dictionary can look the view up
+		 * directly, so a String is only made for a misspelled word.
+		 */
+		try (Reader in = new FileReader(f)) {
+			WordTokenizer words = new WordTokenizer(in);
 			
-			while (in.hasNext()) {
-				String word = in.next();
-				word = word.toLowerCase();
-				
-				if (!dict.contains(word)) {
+			while (words.next()) {
+				if (!dict.contains(words.word())) {
+					String word = words.word().toString();
 					if (!wordsToOutput.contains(word)) {
-						outputSuggestions(word, dict);
+						outputSuggestions(word, ranker, cache);
 						wordsToOutput.add(word);
 					}
 				}
 			}
-			in.close();
 		} catch (FileNotFoundException e) {
 			System.out.println("Can't find file to spell check words.");
+		} catch (IOException e) {
+			System.out.println("Error reading file to spell check words.");
 		}
 	}
 	
 	/**
-	 * Prints potentially misspelled words along with possible corrections.
+	 * Prints potentially misspelled words along with possible corrections,
+	 * the most likely correction first.
 	 * 
 	 * @param badWord The word that is potentially misspelled.
-	 * @param dict The dictionary to use as the correct spellings
-	 *     of English words.
+	 * @param ranker Finds and ranks the corrections.
+	 * @param cache The cache to check before asking the ranker.
 	 */
-	private static void outputSuggestions(String badWord, Collection<String> dict) {
-		
-		/*
-		 * Need to declare suggestions as a reference variable of type
-		 * TreeSet in order to use TreeSet-specific methods.
-		 */
-		TreeSet<String> suggestions = new TreeSet<>();
+	private static void outputSuggestions(String badWord, SuggestionRanker ranker,
+					SuggestionCache cache) {
 		
 		/*
-		 * Trying to reduce the size and narrow down the responsibilities
-		 * of this functionality by splitting this into a second routine.
-		 * Add all the potential correct spellings for each word into
-		 * suggestions.
+		 * The ranker keeps only the best few corrections, already in
+		 * order, so they can be printed just as they come back.  The
+		 * cache saves even that work when the word was already
+		 * corrected in an earlier file.
 		 */
-		suggestions.addAll(corrections(badWord, dict));
+		List<String> suggestions = cache.suggestions(badWord, ranker);
 		
 		if (suggestions.size() == 0) {
 			System.out.println(badWord + ": (no suggestions)");
 		} else {
-			
-			/*
-			 * Adapted Eck's code snippet from 10.4.2 to properly
-			 * print elements separated with commas from a TreeSet
-			 * of Strings.
-			 */
 			System.out.print(badWord + ": ");
-			String firstWord = suggestions.first();  
-			System.out.print(firstWord);
-			for (String word : suggestions.tailSet(firstWord, false)) {
+			System.out.print(suggestions.get(0));
+			for (String word : suggestions.subList(1, suggestions.size())) {
 				System.out.print(", " + word);
 			}
 			System.out.println();
 		}
 	}
 	
-	/**
-	 * Collects all the possible corrections to a misspelled word.
-	 * 
-	 * @param badWord The word that is potentially misspelled.
-	 * @param dict The dictionary to use as the correct spellings
-	 *     of English words.
-	 * @return The collection of possible corrections to the
-	 *     misspelled word.
-	 */
-	private static Collection<String> corrections(String badWord, Collection<String> dict) {
-		
-		Collection<String> corrections = new TreeSet<>();
-		
-		// Variables to hold the five possible corrections the program considers.
-		String deletedLetters;
-		String changedLetters;
-		String insertedLetters;
-		String swappedLetters;
-		String spaceInserted;
-		
-		for (int i = 0; i < badWord.length(); i++) {
-			
-			/*
-			 * Test each character of badWord with i and i + 1
-			 * swapped.  Stops before length() - 1 to avoid an
-			 * ArrayIndexOutOfBoundsException.
-			 */
-			if (i < badWord.length() - 1) {
-				char[] c = badWord.toCharArray();
-				char temp = c[i];
-				c[i] = c[i + 1];
-				c[i + 1] = temp;
-				
-				swappedLetters = new String(c);
-				
-				if (dict.contains(swappedLetters)) {
-					corrections.add(swappedLetters);
-				}
-			}
-			
-			/*
-			 * Check each position that could have a space inserted, testing if the two
-			 * separate words are in the dictionary.
-			 */
-			if (dict.contains(badWord.substring(0,  i)) && dict.contains(badWord.substring(i))) {
-				spaceInserted = badWord.substring(0, i) + ' ' + badWord.substring(i);
-				corrections.add(spaceInserted);
-			}
-			
-			/*
-			 * Check each position with all of the letters a-z for letter deletions,
-			 * changes, and insertions.
-			 */
-			for (char ch = 'a'; ch <= 'z'; ch++) {
-				
-				deletedLetters = badWord.substring(0, i) + badWord.substring(i + 1);
-				if (dict.contains(deletedLetters)) {
-					corrections.add(deletedLetters);
-				}
-				
-				changedLetters = badWord.substring(0, i) + ch + badWord.substring(i + 1);
-				if (dict.contains(changedLetters)) {
-					corrections.add(changedLetters);
-				}
-				
-				insertedLetters = badWord.substring(0, i) + ch + badWord.substring(i);
-				if (dict.contains(insertedLetters)) {
-					corrections.add(insertedLetters);
-					
-				// Also need to check adding each letter to end of badWord.
-				} else if (dict.contains(badWord + ch)) {
-					corrections.add(badWord + ch);
-				}
-			}
-		}
-		
-		return corrections;
-	}
-	
     /**
      * Lets the user select an input file using a standard file
      * selection dialog box.  If the user cancels the dialog
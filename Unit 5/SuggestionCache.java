@@ -0,0 +1,207 @@
+package spellchecker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * A size-bounded cache from a misspelled word to its suggestions.
+ * <p>
+ * The same typos tend to show up again and again across a batch of
+ * documents, and working out corrections is by far the most expensive part
+ * of spell checking a word.  One cache is shared by everything checked in
+ * a run, so each distinct typo is only corrected once.
+ * <p>
+ * When the cache is full, the least recently used entry is evicted.  The
+ * hits, misses and evictions are counted so they can be reported at the
+ * end of a run.  The cache can also be saved to a file and loaded again by
+ * the next run; the file records which dictionary and ranking the
+ * suggestions came from, and is ignored if that no longer matches.
+ * <p>
+ * All methods are synchronized, so one cache can be shared by threads.
+ */
+public class SuggestionCache {
+
+	/** The system property that sets the maximum number of entries. */
+	public static final String SIZE_PROPERTY = "spellchecker.cache.size";
+
+	/**
+	 * The system property that names a file to load the cache from at the
+	 * start of a run and save it to at the end.  Unset means the cache
+	 * only lives for one run.
+	 */
+	public static final String FILE_PROPERTY = "spellchecker.cache.file";
+
+	/** The number of entries kept if SIZE_PROPERTY is not set. */
+	public static final int DEFAULT_SIZE = 10000;
+
+	/** The first line of a saved cache, followed by the signature. */
+	private static final String HEADER = "# suggestion cache for ";
+
+	private final int maxEntries;
+	private final String signature;
+	private final File file;
+
+	/** The entries, from least to most recently used. */
+	private final LinkedHashMap<String, List<String>> entries;
+
+	private long hits;
+	private long misses;
+	private long evictions;
+
+	/**
+	 * Creates an empty cache.
+	 *
+	 * @param maxEntries The most entries to keep.
+	 * @param signature Identifies where the suggestions come from.  A
+	 *     saved cache is only loaded into a cache with the same signature.
+	 * @param file The file to save the cache to, or null to never save it.
+	 */
+	public SuggestionCache(int maxEntries, String signature, File file) {
+		this.maxEntries = maxEntries;
+		this.signature = signature;
+		this.file = file;
+		this.entries = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+				if (size() > SuggestionCache.this.maxEntries) {
+					evictions++;
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Creates the cache for a run, sized by SIZE_PROPERTY, and loads the
+	 * file named by FILE_PROPERTY if there is one.
+	 *
+	 * @param ranker The ranker that suggestions will come from.
+	 * @return The cache.
+	 */
+	public static SuggestionCache fromProperties(SuggestionRanker ranker) {
+
+		int size = Integer.getInteger(SIZE_PROPERTY, DEFAULT_SIZE);
+		String name = System.getProperty(FILE_PROPERTY);
+		SuggestionCache cache = new SuggestionCache(size, ranker.signature(),
+						name == null ? null : new File(name));
+
+		if (cache.file != null && cache.file.exists()) {
+			try {
+				cache.load();
+			} catch (IOException e) {
+				System.err.println("Can't read suggestion cache " + name + ": " + e.getMessage());
+			}
+		}
+		return cache;
+	}
+
+	/**
+	 * Returns the suggestions for <code>badWord</code>, asking
+	 * <code>ranker</code> for them and remembering them if they are not
+	 * already cached.
+	 *
+	 * @param badWord The misspelled word.
+	 * @param ranker The ranker to ask on a miss.
+	 * @return The suggestions, best first, which must not be modified.
+	 */
+	public List<String> suggestions(String badWord, SuggestionRanker ranker) {
+		List<String> suggestions = get(badWord);
+		if (suggestions == null) {
+			suggestions = put(badWord, ranker.suggestions(badWord));
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Looks up <code>badWord</code>, counting a hit or a miss.
+	 *
+	 * @param badWord The misspelled word.
+	 * @return The cached suggestions, or null if there are none.
+	 */
+	public synchronized List<String> get(String badWord) {
+		List<String> suggestions = entries.get(badWord);
+		if (suggestions == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return suggestions;
+	}
+
+	/**
+	 * Remembers the suggestions for <code>badWord</code>, evicting the
+	 * least recently used entry if the cache is full.
+	 *
+	 * @param badWord The misspelled word.
+	 * @param suggestions Its suggestions.
+	 * @return The unmodifiable copy of the suggestions that was cached.
+	 */
+	public synchronized List<String> put(String badWord, Collection<String> suggestions) {
+		List<String> copy = Collections.unmodifiableList(new ArrayList<>(suggestions));
+		entries.put(badWord, copy);
+		return copy;
+	}
+
+	/**
+	 * Returns a one line summary of how well the cache did.
+	 *
+	 * @return The hit, miss and eviction counts.
+	 */
+	public synchronized String statistics() {
+		long lookups = hits + misses;
+		double rate = lookups == 0 ? 0 : 100.0 * hits / lookups;
+		return String.format("Suggestion cache: %d hits, %d misses (%.1f%% hit rate), "
+						+ "%d evictions, %d of %d entries used.",
+						hits, misses, rate, evictions, entries.size(), maxEntries);
+	}
+
+	/**
+	 * Writes the cache to its file, least recently used entry first, so
+	 * that loading it again restores the same order.  Does nothing if the
+	 * cache has no file.
+	 *
+	 * @throws IOException If the file can't be written.
+	 */
+	public synchronized void save() throws IOException {
+		if (file == null) {
+			return;
+		}
+		try (PrintWriter out = new PrintWriter(new OutputStreamWriter(
+						new FileOutputStream(file), StandardCharsets.UTF_8))) {
+			out.println(HEADER + signature);
+			for (Map.Entry<String, List<String>> entry : entries.entrySet()) {
+				out.print(entry.getKey());
+				for (String suggestion : entry.getValue()) {
+					out.print('\t');
+					out.print(suggestion);
+				}
+				out.println();
+			}
+			if (out.checkError()) {
+				throw new IOException("Error while writing " + file + ".");
+			}
+		}
+	}
+
+	/**
+	 * Reads the cache's file, one word and its tab separated suggestions
+	 * per line.  A file saved for a different dictionary is skipped.
+	 */
+	private synchronized void load() throws IOException {
+		try (BufferedReader in = new BufferedReader(new InputStreamReader(
+						new FileInputStream(file), StandardCharsets.UTF_8))) {
+			if (!(HEADER + signature).equals(in.readLine())) {
+				return;
+			}
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.split("\t");
+				entries.put(fields[0], Collections.unmodifiableList(
+								Arrays.asList(fields).subList(1, fields.length)));
+			}
+		}
+		evictions = 0;
+	}
+}
@@ -0,0 +1,262 @@
+package spellchecker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * Turns the corrections a dictionary finds into a short list of
+ * suggestions, best first.
+ * <p>
+ * Each candidate is scored by how likely the typo is and how common the
+ * word is.  Swapped letters and doubled or undoubled letters are cheaper
+ * than an arbitrary change, insertion or deletion, and splitting a word
+ * in two is a little more expensive.  The frequency of a word comes from
+ * an optional corpus count file next to the dictionary: the dictionary's
+ * name with its extension changed to ".counts" (words.counts for
+ * words.txt), holding one word and its count per line.  Without one, all
+ * words count as equally common and the edit alone decides.
+ * <p>
+ * Only the best few candidates are kept, using a heap bounded at that
+ * size, so nothing ever sorts the full candidate list.
+ */
+public class SuggestionRanker {
+
+	/** The system property that sets how many suggestions to keep. */
+	public static final String LIMIT_PROPERTY = "spellchecker.suggestions";
+
+	/** The number of suggestions kept if LIMIT_PROPERTY is not set. */
+	public static final int DEFAULT_LIMIT = 10;
+
+	/*
+	 * The cost of each kind of typo, in edits.  The score of a candidate
+	 * is the log of its count minus EDIT_WEIGHT times its cost, so one
+	 * full edit outweighs a word being about a hundred times as common.
+	 */
+	static final double SWAP_COST = 0.7;
+	static final double DOUBLED_COST = 0.6;
+	static final double CHANGE_COST = 1.0;
+	static final double INSERT_COST = 1.0;
+	static final double DELETE_COST = 1.0;
+	static final double SPLIT_COST = 1.3;
+	static final double EDIT_WEIGHT = 4.6;
+
+	private final WordDictionary dictionary;
+	private final Map<String, Long> counts;
+	private final int limit;
+
+	/**
+	 * Creates a ranker.
+	 *
+	 * @param dictionary The dictionary that finds the corrections.
+	 * @param counts How often each word occurs in some corpus.  Words
+	 *     that are missing count as zero.
+	 * @param limit The most suggestions to return for a word.
+	 */
+	public SuggestionRanker(WordDictionary dictionary, Map<String, Long> counts, int limit) {
+		this.dictionary = dictionary;
+		this.counts = counts;
+		this.limit = limit;
+	}
+
+	/**
+	 * Creates the ranker for a dictionary file, reading the count file
+	 * next to it if there is one and taking the limit from
+	 * LIMIT_PROPERTY.
+	 *
+	 * @param dictionary The dictionary that finds the corrections.
+	 * @param dictionaryFile The file the dictionary was loaded from.
+	 * @return The ranker.
+	 */
+	public static SuggestionRanker forDictionary(WordDictionary dictionary, File dictionaryFile) {
+
+		Map<String, Long> counts = new HashMap<>();
+		File countFile = countFileFor(dictionaryFile);
+		if (countFile.exists()) {
+			try {
+				counts = readCounts(countFile);
+			} catch (IOException e) {
+				System.err.println("Can't read word counts " + countFile + ": " + e.getMessage());
+			}
+		}
+		return new SuggestionRanker(dictionary, counts,
+						Integer.getInteger(LIMIT_PROPERTY, DEFAULT_LIMIT));
+	}
+
+	/**
+	 * Returns the count file that belongs next to a dictionary: the same
+	 * name with its extension replaced by ".counts".
+	 */
+	static File countFileFor(File dictionaryFile) {
+		String name = dictionaryFile.getName();
+		int pos = name.lastIndexOf('.');
+		if (pos > 0) {
+			name = name.substring(0, pos);
+		}
+		return new File(dictionaryFile.getAbsoluteFile().getParentFile(), name + ".counts");
+	}
+
+	/**
+	 * Reads a count file with a word and a count on each line, separated
+	 * by whitespace.  Words are lowercased, and the counts of words that
+	 * are only different in case are added together.
+	 */
+	static Map<String, Long> readCounts(File file) throws IOException {
+		Map<String, Long> counts = new HashMap<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(file))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				String[] fields = line.trim().split("\\s+");
+				if (fields.length == 2) {
+					try {
+						counts.merge(fields[0].toLowerCase(), Long.parseLong(fields[1]), Long::sum);
+					} catch (NumberFormatException e) {
+						// Not a count line; skip it.
+					}
+				}
+			}
+		}
+		return counts;
+	}
+
+	/**
+	 * Returns the dictionary whose corrections are ranked.
+	 *
+	 * @return The dictionary.
+	 */
+	public WordDictionary dictionary() {
+		return dictionary;
+	}
+
+	/**
+	 * Describes everything that affects the suggestions this ranker
+	 * returns, so a saved cache can tell whether it still applies.
+	 *
+	 * @return A one line description.
+	 */
+	public String signature() {
+		int distance = 1;
+		if (dictionary instanceof DeletionIndex) {
+			distance = ((DeletionIndex) dictionary).maxDistance();
+		}
+		return dictionary.size() + " words, distance " + distance
+						+ ", " + counts.size() + " counts, top " + limit;
+	}
+
+	/**
+	 * Finds the corrections for <code>badWord</code> and ranks them.
+	 *
+	 * @param badWord The misspelled word.
+	 * @return At most the limit of suggestions, best first.  Empty if
+	 *     there are none.
+	 */
+	public List<String> suggestions(String badWord) {
+		return rank(badWord, dictionary.corrections(badWord));
+	}
+
+	/**
+	 * Keeps the best <code>limit</code> of <code>candidates</code>.  The
+	 * heap holds the worst kept candidate at its head, so each new one
+	 * only has to beat that one to get in.
+	 *
+	 * @param badWord The misspelled word.
+	 * @param candidates Its possible corrections.
+	 * @return The best candidates, best first.  Ties are broken
+	 *     alphabetically.
+	 */
+	public List<String> rank(String badWord, Collection<String> candidates) {
+
+		PriorityQueue<Scored> best = new PriorityQueue<>(Math.max(1, limit));
+
+		for (String candidate : candidates) {
+			Scored scored = new Scored(candidate, score(badWord, candidate));
+			if (best.size() < limit) {
+				best.add(scored);
+			} else if (limit > 0 && scored.compareTo(best.peek()) > 0) {
+				best.poll();
+				best.add(scored);
+			}
+		}
+
+		String[] ranked = new String[best.size()];
+		for (int i = ranked.length - 1; i >= 0; i--) {
+			ranked[i] = best.poll().word;
+		}
+		return Arrays.asList(ranked);
+	}
+
+	/**
+	 * Scores <code>candidate</code> as a correction for
+	 * <code>badWord</code>.  Higher is better.
+	 */
+	double score(String badWord, String candidate) {
+		Long count = counts.get(candidate);
+		double frequency = Math.log(1 + (count == null ? 0 : count));
+		return frequency - EDIT_WEIGHT * cost(badWord, candidate);
+	}
+
+	/**
+	 * Works out which typo turns <code>candidate</code> into
+	 * <code>badWord</code> and returns its cost.  Candidates more than one
+	 * edit away, which a DeletionIndex can return, cost their plain edit
+	 * distance.
+	 */
+	static double cost(String badWord, String candidate) {
+
+		if (candidate.indexOf(' ') >= 0) {
+			return SPLIT_COST;
+		}
+
+		int n = badWord.length();
+		int m = candidate.length();
+		int i = 0;
+		while (i < n && i < m && badWord.charAt(i) == candidate.charAt(i)) {
+			i++;
+		}
+
+		if (n == m) {
+			if (badWord.regionMatches(i + 1, candidate, i + 1, n - i - 1)) {
+				return CHANGE_COST;
+			}
+			if (i + 1 < n && badWord.charAt(i) == candidate.charAt(i + 1)
+							&& badWord.charAt(i + 1) == candidate.charAt(i)
+							&& badWord.regionMatches(i + 2, candidate, i + 2, n - i - 2)) {
+				return SWAP_COST;
+			}
+		} else if (m == n + 1 && badWord.regionMatches(i, candidate, i + 1, n - i)) {
+			// The typo left out candidate's letter at i.
+			return isDoubled(candidate, i) ? DOUBLED_COST : INSERT_COST;
+		} else if (n == m + 1 && candidate.regionMatches(i, badWord, i + 1, m - i)) {
+			// The typo added the letter at i.
+			return isDoubled(badWord, i) ? DOUBLED_COST : DELETE_COST;
+		}
+
+		int longest = Math.max(n, m);
+		return DeletionIndex.distance(badWord, candidate, longest,
+						new int[3][m + 1]);
+	}
+
+	/** Tests whether the letter at i is the same as one of its neighbors. */
+	private static boolean isDoubled(String word, int i) {
+		char ch = word.charAt(i);
+		return (i > 0 && word.charAt(i - 1) == ch)
+						|| (i + 1 < word.length() && word.charAt(i + 1) == ch);
+	}
+
+	/** A candidate and its score, ordered from worst to best. */
+	private static class Scored implements Comparable<Scored> {
+
+		final String word;
+		final double score;
+
+		Scored(String word, double score) {
+			this.word = word;
+			this.score = score;
+		}
+
+		@Override
+		public int compareTo(Scored other) {
+			int c = Double.compare(score, other.score);
+			return c != 0 ? c : other.word.compareTo(word);
+		}
+	}
+}
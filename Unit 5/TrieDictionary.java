@@ -0,0 +1,189 @@
+package spellchecker;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * A WordDictionary stored as a compact trie.
+ * <p>
+ * The words are sorted once and laid out breadth first in a few parallel
+ * arrays, so the children of every node sit next to each other in label
+ * order.  A node is nothing more than an index into those arrays, which
+ * keeps the whole dictionary in a handful of objects instead of one String
+ * and one hash entry per word.
+ */
+public class TrieDictionary extends AbstractTrieDictionary {
+
+	/** The index of the root node, which represents the empty prefix. */
+	private static final int ROOT = 0;
+
+	/** The character on the edge leading into each node. */
+	private final char[] label;
+
+	/**
+	 * The index of the first child of each node.  Since nodes are numbered
+	 * breadth first, the children of node n end where the children of
+	 * node n + 1 begin, so this array has one more entry than there are
+	 * nodes.
+	 */
+	private final int[] firstChild;
+
+	/** Marks the nodes at which a dictionary word ends. */
+	private final BitSet terminal;
+
+	/** Every label in the trie, in ascending order. */
+	private final char[] alphabet;
+
+	/** The number of distinct words in the trie. */
+	private final int wordCount;
+
+	/**
+	 * Builds a trie containing <code>words</code>.  Duplicates and empty
+	 * words are ignored.  The words are stored exactly as given, so they
+	 * should already be lowercased.
+	 *
+	 * @param words The properly spelled words.
+	 */
+	public TrieDictionary(Collection<? extends CharSequence> words) {
+
+		String[] sorted = new String[words.size()];
+		int count = 0;
+		int totalChars = 0;
+		for (CharSequence word : words) {
+			if (word.length() > 0) {
+				sorted[count++] = word.toString();
+				totalChars += word.length();
+			}
+		}
+		Arrays.sort(sorted, 0, count);
+
+		// Squeeze out the duplicates, which are now next to each other.
+		int distinct = 0;
+		for (int i = 0; i < count; i++) {
+			if (distinct == 0 || !sorted[i].equals(sorted[distinct - 1])) {
+				sorted[distinct++] = sorted[i];
+			}
+		}
+		wordCount = distinct;
+
+		/*
+		 * Every node covers the range of sorted words that share its
+		 * prefix.  Nodes are processed in the order they are created,
+		 * which is breadth first, and each one appends its children to
+		 * the end of the arrays.  There can't be more nodes than there
+		 * are characters in the words, plus the root.
+		 */
+		int capacity = totalChars + 1;
+		char[] labels = new char[capacity];
+		int[] first = new int[capacity + 1];
+		int[] lo = new int[capacity];
+		int[] hi = new int[capacity];
+		int[] depth = new int[capacity];
+		BitSet ends = new BitSet(capacity);
+
+		int nodes = 1;
+		hi[ROOT] = distinct;
+
+		for (int node = 0; node < nodes; node++) {
+			int start = lo[node];
+			int end = hi[node];
+			int d = depth[node];
+
+			// The shortest word in the range is first, and ends here if
+			// it is exactly as long as the prefix.
+			if (start < end && sorted[start].length() == d) {
+				ends.set(node);
+				start++;
+			}
+
+			first[node] = nodes;
+			while (start < end) {
+				char ch = sorted[start].charAt(d);
+				int groupEnd = start + 1;
+				while (groupEnd < end && sorted[groupEnd].charAt(d) == ch) {
+					groupEnd++;
+				}
+				labels[nodes] = ch;
+				lo[nodes] = start;
+				hi[nodes] = groupEnd;
+				depth[nodes] = d + 1;
+				nodes++;
+				start = groupEnd;
+			}
+		}
+		first[nodes] = nodes;
+
+		label = Arrays.copyOf(labels, nodes);
+		firstChild = Arrays.copyOf(first, nodes + 1);
+		terminal = ends;
+
+		BitSet letters = new BitSet();
+		for (int node = 1; node < nodes; node++) {
+			letters.set(label[node]);
+		}
+		alphabet = new char[letters.cardinality()];
+		for (int ch = letters.nextSetBit(0), i = 0; ch >= 0; ch = letters.nextSetBit(ch + 1)) {
+			alphabet[i++] = (char) ch;
+		}
+	}
+
+	/**
+	 * Reads a dictionary file and builds a trie from it.  The words in the
+	 * file should be separated by whitespace, and are lowercased as they
+	 * are read.
+	 *
+	 * @param file The file of properly spelled words.
+	 * @return The trie holding every word in the file.
+	 * @throws FileNotFoundException If the file can't be opened.
+	 */
+	public static TrieDictionary load(File file) throws FileNotFoundException {
+
+		List<String> words = new ArrayList<>();
+
+		Scanner filein = new Scanner(file);
+		while (filein.hasNext()) {
+			words.add(filein.next().toLowerCase());
+		}
+		filein.close();
+
+		return new TrieDictionary(words);
+	}
+
+	@Override
+	public int size() {
+		return wordCount;
+	}
+
+	@Override
+	protected long root() {
+		return ROOT;
+	}
+
+	/**
+	 * Children are stored in label order, so the scan can stop as soon
+	 * as it passes <code>ch</code>.
+	 */
+	@Override
+	protected long child(long node, int depth, char ch) {
+		int n = (int) node;
+		for (int c = firstChild[n]; c < firstChild[n + 1]; c++) {
+			char l = label[c];
+			if (l == ch) {
+				return c;
+			} else if (l > ch) {
+				break;
+			}
+		}
+		return NONE;
+	}
+
+	@Override
+	protected boolean endsWord(long node, int depth) {
+		return terminal.get((int) node);
+	}
+
+	@Override
+	protected char[] alphabet() {
+		return alphabet;
+	}
+}
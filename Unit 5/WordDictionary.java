@@ -0,0 +1,87 @@
+package spellchecker;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.SortedSet;
+import java.util.function.Consumer;
+
+/**
+ * The lookup surface shared by the spell checkers in this package.
+ * <p>
+ * A dictionary only has to answer two questions: is a word spelled
+ * correctly, and what properly spelled words are one edit away from a
+ * word that is not.  Both SpellChecker and Dictionary talk to their
+ * word list through this interface, so the data structure behind it
+ * can be swapped without touching either program.
+ */
+public interface WordDictionary {
+
+	/**
+	 * Opens the fastest available form of a dictionary file.
+	 * <p>
+	 * A compiled image (see DictionaryCompiler) is memory mapped.  For a
+	 * text word list, an up to date image sitting next to it with the
+	 * ".dict" extension is mapped instead, and only when there is none
+	 * are the words read into a TrieDictionary.
+	 * <p>
+	 * If the system property named by DeletionIndex.DISTANCE_PROPERTY is
+	 * set, the dictionary is also indexed for fast corrections.
+	 *
+	 * @param file A text word list or a compiled image.
+	 * @return The dictionary.
+	 * @throws IOException If neither the file nor its image can be read.
+	 */
+	static WordDictionary load(File file) throws IOException {
+
+		WordDictionary dictionary;
+		File image = DictionaryCompiler.imageFileFor(file);
+
+		if (MappedDictionary.isImage(file)) {
+			dictionary = MappedDictionary.open(file);
+		} else if (image.lastModified() >= file.lastModified()
+						&& MappedDictionary.isImage(image)) {
+			dictionary = MappedDictionary.open(image);
+		} else {
+			dictionary = TrieDictionary.load(file);
+		}
+
+		return DeletionIndex.fromProperties(dictionary);
+	}
+
+	/**
+	 * Tests whether <code>word</code> is in the dictionary.  Words are
+	 * compared exactly, so callers are expected to lowercase their input
+	 * the same way the dictionary words were lowercased.
+	 *
+	 * @param word The characters of the word to look up.
+	 * @return True if the word is spelled correctly.
+	 */
+	boolean contains(CharSequence word);
+
+	/**
+	 * Passes every word in the dictionary to <code>action</code>, in
+	 * alphabetical order.
+	 *
+	 * @param action What to do with each word.
+	 */
+	void forEachWord(Consumer<? super String> action);
+
+	/**
+	 * Returns the number of distinct words in the dictionary.
+	 *
+	 * @return The number of words.
+	 */
+	int size();
+
+	/**
+	 * Collects all the possible corrections to a misspelled word.
+	 * The corrections considered are deleting a letter, changing a
+	 * letter, inserting a letter, swapping two neighboring letters, and
+	 * inserting a space so that both halves are dictionary words.
+	 *
+	 * @param badWord The word that is potentially misspelled.
+	 * @return The possible corrections in alphabetical order.  The set
+	 *     is empty if there are none.
+	 */
+	SortedSet<String> corrections(String badWord);
+}
@@ -0,0 +1,188 @@
+package spellchecker;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Splits text into words the same way
+ * <code>Scanner.useDelimiter("[^a-zA-Z]+")</code> followed by
+ * <code>toLowerCase()</code> does, without the regular expressions and
+ * without creating a String per word.
+ * <p>
+ * The input is read into one reusable buffer.  The letters of the current
+ * word are lowercased as they are copied into a second reusable buffer,
+ * and word() returns a CharSequence view of it.  Dictionary lookups take a
+ * CharSequence, so a correctly spelled word never becomes a String at all;
+ * only callers that keep a word, such as a misspelling to report, need to
+ * call toString() on the view.
+ * <p>
+ * Only the ASCII letters a-z and A-Z are part of words; everything else,
+ * including accented letters, separates them, exactly as before.  The view
+ * is overwritten by the next call to next(), and a tokenizer must only be
+ * used by one thread.
+ */
+public class WordTokenizer {
+
+	/** The size of the input buffer. */
+	private static final int BUFFER_SIZE = 8192;
+
+	/** The character source, or null when tokenizing bytes. */
+	private final Reader reader;
+
+	/** The byte source, or null when tokenizing characters. */
+	private final ByteBuffer bytes;
+
+	private final char[] buffer = new char[BUFFER_SIZE];
+	private int position;
+	private int limit;
+
+	/** The current word, already lowercased. */
+	private char[] word = new char[32];
+	private int length;
+
+	/** The line the scan has reached, and the line the word started on. */
+	private int line = 1;
+	private int wordLine;
+
+	private final CharSequence view = new WordView();
+
+	/**
+	 * Creates a tokenizer that reads characters from <code>reader</code>.
+	 * The reader is read in large blocks, so it doesn't need buffering.
+	 *
+	 * @param reader The text to split into words.
+	 */
+	public WordTokenizer(Reader reader) {
+		this.reader = reader;
+		this.bytes = null;
+	}
+
+	/**
+	 * Creates a tokenizer over the remaining bytes of <code>bytes</code>.
+	 * Each byte is one character, which works for ASCII and any encoding
+	 * built on it, since only ASCII letters make up words.
+	 *
+	 * @param bytes The text to split into words.  Its position is
+	 *     advanced as it is read.
+	 */
+	public WordTokenizer(ByteBuffer bytes) {
+		this.reader = null;
+		this.bytes = bytes;
+	}
+
+	/**
+	 * Advances to the next word.
+	 *
+	 * @return True if there is another word, false at the end of input.
+	 * @throws IOException If the reader fails.
+	 */
+	public boolean next() throws IOException {
+
+		length = 0;
+
+		while (true) {
+			if (position == limit && !fill()) {
+				return length > 0;
+			}
+
+			char[] buf = buffer;
+			int i = position;
+			int end = limit;
+			while (i < end) {
+				char ch = buf[i++];
+				char lower = (char) (ch | 0x20);
+				if (lower >= 'a' && lower <= 'z') {
+					if (length == 0) {
+						wordLine = line;
+					}
+					if (length == word.length) {
+						word = Arrays.copyOf(word, length * 2);
+					}
+					word[length++] = lower;
+				} else {
+					if (ch == '\n') {
+						line++;
+					}
+					if (length > 0) {
+						position = i;
+						return true;
+					}
+				}
+			}
+			position = i;
+		}
+	}
+
+	/**
+	 * Returns a view of the current word.  The view changes when next()
+	 * is called again.
+	 *
+	 * @return The current word, lowercased.
+	 */
+	public CharSequence word() {
+		return view;
+	}
+
+	/**
+	 * Returns the line the current word is on, counting from 1.
+	 *
+	 * @return The line number.
+	 */
+	public int line() {
+		return wordLine;
+	}
+
+	/**
+	 * Refills the input buffer.
+	 *
+	 * @return False if there is no more input.
+	 */
+	private boolean fill() throws IOException {
+		int n;
+		if (reader != null) {
+			n = reader.read(buffer, 0, buffer.length);
+		} else {
+			n = Math.min(bytes.remaining(), buffer.length);
+			for (int i = 0; i < n; i++) {
+				buffer[i] = (char) (bytes.get() & 0xFF);
+			}
+			if (n == 0) {
+				n = -1;
+			}
+		}
+		if (n <= 0) {
+			return false;
+		}
+		position = 0;
+		limit = n;
+		return true;
+	}
+
+	/** A read-only window onto the current word. */
+	private class WordView implements CharSequence {
+
+		@Override
+		public int length() {
+			return length;
+		}
+
+		@Override
+		public char charAt(int index) {
+			if (index < 0 || index >= length) {
+				throw new IndexOutOfBoundsException("index " + index + ", length " + length);
+			}
+			return word[index];
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end) {
+			return toString().substring(start, end);
+		}
+
+		@Override
+		public String toString() {
+			return new String(word, 0, length);
+		}
+	}
+}
@@ -0,0 +1,91 @@
+package spellchecker;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how fast corrections are found for misspelled words, for each
+ * kind of dictionary and for typos made from words of several lengths.
+ * <p>
+ * corrections() is the raw lookup every front end starts with,
+ * rankedSuggestions() adds the SuggestionRanker on top, and
+ * dictionaryCorrections() goes through Dictionary.corrections() with its
+ * suggestion cache, which after warmup is almost all hits.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CorrectionsBenchmark {
+
+	/** The number of typos cycled through.  Must be a power of two. */
+	private static final int TYPOS = 1024;
+
+	/** The directory that holds words.txt. */
+	@Param({ "Unit 5" })
+	public String dataDirectory;
+
+	/** The dictionary to look corrections up in. */
+	@Param({ "trie", "mapped", "deletion1", "deletion2" })
+	public String implementation;
+
+	/** The length of the words the typos are made from. */
+	@Param({ "4", "8", "12" })
+	public int typoLength;
+
+	private WordDictionary dictionary;
+	private SuggestionRanker ranker;
+	private SuggestionCache cache;
+	private String[] typos;
+	private int next;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		File words = new File(dataDirectory, "words.txt");
+		WordDictionary trie = TrieDictionary.load(words);
+
+		if (implementation.equals("trie")) {
+			dictionary = trie;
+		} else if (implementation.equals("mapped")) {
+			File image = File.createTempFile("words", ".dict");
+			image.deleteOnExit();
+			DictionaryCompiler.compile(words, image);
+			dictionary = MappedDictionary.open(image);
+		} else if (implementation.equals("deletion1")) {
+			dictionary = new DeletionIndex(trie, 1);
+		} else if (implementation.equals("deletion2")) {
+			dictionary = new DeletionIndex(trie, 2);
+		} else {
+			throw new IllegalArgumentException("Unknown implementation " + implementation + ".");
+		}
+
+		ranker = SuggestionRanker.forDictionary(dictionary, words);
+		cache = new SuggestionCache(TYPOS * 2, ranker.signature(), null);
+		typos = new TypoCorpus(trie).typos(TYPOS, typoLength, trie);
+	}
+
+	@Benchmark
+	public SortedSet<String> corrections() {
+		return dictionary.corrections(nextTypo());
+	}
+
+	@Benchmark
+	public List<String> rankedSuggestions() {
+		return ranker.suggestions(nextTypo());
+	}
+
+	@Benchmark
+	public List<String> dictionaryCorrections() {
+		return Dictionary.corrections(nextTypo(), ranker, cache);
+	}
+
+	private String nextTypo() {
+		String typo = typos[next];
+		next = (next + 1) & (TYPOS - 1);
+		return typo;
+	}
+}
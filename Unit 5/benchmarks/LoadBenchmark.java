@@ -0,0 +1,51 @@
+package spellchecker;
+
+import java.io.*;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures how long it takes to get a dictionary ready to use: reading
+ * words.txt into a trie, mapping a compiled image, and building a
+ * deletion index over a trie that is already loaded.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class LoadBenchmark {
+
+	/** The directory that holds words.txt. */
+	@Param({ "Unit 5" })
+	public String dataDirectory;
+
+	private File words;
+	private File image;
+	private WordDictionary trie;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		words = new File(dataDirectory, "words.txt");
+		image = File.createTempFile("words", ".dict");
+		image.deleteOnExit();
+		DictionaryCompiler.compile(words, image);
+		trie = TrieDictionary.load(words);
+	}
+
+	@Benchmark
+	public WordDictionary loadTrie() throws IOException {
+		return TrieDictionary.load(words);
+	}
+
+	@Benchmark
+	public WordDictionary openMapped() throws IOException {
+		return MappedDictionary.open(image);
+	}
+
+	@Benchmark
+	public WordDictionary buildDeletionIndex() {
+		return new DeletionIndex(trie, 1);
+	}
+}
@@ -0,0 +1,49 @@
+package spellchecker;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs the JMH benchmarks for the spell checker with the GC profiler, so
+ * every result comes with its allocation rate as well as its throughput
+ * or time.
+ * <p>
+ * The benchmarks are in this directory, in package spellchecker so they
+ * can reach the package's own classes.  They need jmh-core and, as an
+ * annotation processor, jmh-generator-annprocess on the class path when
+ * compiling, together with the spell checker sources one directory up.
+ * Run them from the repository root so the default data directory is
+ * found:
+ * <pre>
+ *   java -cp &lt;classes and jmh jars&gt; spellchecker.SpellCheckerBenchmarks
+ *                [&lt;data directory&gt; [&lt;benchmark regexp&gt;]]
+ * </pre>
+ * The data directory holds words.txt and htmlSource.txt, and is
+ * "Unit 5" by default.  A words.counts file there is used for ranking, as
+ * it is by the spell checker itself.  The regexp picks some of the
+ * benchmarks, such as "Corrections".
+ */
+public class SpellCheckerBenchmarks {
+
+	/**
+	 * Runs the benchmarks.
+	 *
+	 * @param args The optional data directory and benchmark regexp.
+	 * @throws RunnerException If JMH can't run the benchmarks.
+	 */
+	public static void main(String[] args) throws RunnerException {
+
+		String dataDirectory = args.length > 0 ? args[0] : "Unit 5";
+		String include = args.length > 1 ? args[1] : "Benchmark";
+
+		Options options = new OptionsBuilder()
+						.include("spellchecker\\..*" + include + ".*")
+						.param("dataDirectory", dataDirectory)
+						.addProfiler(GCProfiler.class)
+						.build();
+		new Runner(options).run();
+	}
+}
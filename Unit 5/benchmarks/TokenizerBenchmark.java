@@ -0,0 +1,85 @@
+package spellchecker;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * Measures splitting a document into words, and checking every word of
+ * it against the dictionary.
+ * <p>
+ * The corpus is either a file in the data directory, or "typos-N": a
+ * synthetic document of 100,000 dictionary words with N percent of them
+ * misspelled.  scanner() is the Scanner loop that WordTokenizer replaced,
+ * kept here to compare against.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TokenizerBenchmark {
+
+	/** The number of words in a synthetic corpus. */
+	private static final int SYNTHETIC_WORDS = 100000;
+
+	/** The directory that holds words.txt and the document files. */
+	@Param({ "Unit 5" })
+	public String dataDirectory;
+
+	/** The document to split. */
+	@Param({ "htmlSource.txt", "typos-0", "typos-5", "typos-20" })
+	public String corpus;
+
+	private WordDictionary dictionary;
+	private String text;
+
+	@Setup(Level.Trial)
+	public void setUp() throws IOException {
+		dictionary = TrieDictionary.load(new File(dataDirectory, "words.txt"));
+		if (corpus.startsWith("typos-")) {
+			double errorRate = Integer.parseInt(corpus.substring(6)) / 100.0;
+			text = new TypoCorpus(dictionary).text(SYNTHETIC_WORDS, errorRate);
+		} else {
+			text = new String(Files.readAllBytes(new File(dataDirectory, corpus).toPath()),
+							StandardCharsets.UTF_8);
+		}
+	}
+
+	@Benchmark
+	public int tokenize() throws IOException {
+		WordTokenizer words = new WordTokenizer(new StringReader(text));
+		int count = 0;
+		while (words.next()) {
+			count += words.word().length();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int scanner() {
+		Scanner in = new Scanner(text);
+		in.useDelimiter("[^a-zA-Z]+");
+		int count = 0;
+		while (in.hasNext()) {
+			count += in.next().toLowerCase().length();
+		}
+		return count;
+	}
+
+	@Benchmark
+	public int check() throws IOException {
+		WordTokenizer words = new WordTokenizer(new StringReader(text));
+		int misspelled = 0;
+		while (words.next()) {
+			if (!dictionary.contains(words.word())) {
+				misspelled++;
+			}
+		}
+		return misspelled;
+	}
+}
@@ -0,0 +1,126 @@
+package spellchecker;
+
+import java.util.*;
+
+/**
+ * Makes synthetic test text for the benchmarks out of the words in a
+ * dictionary, so the results can be compared from run to run.
+ * <p>
+ * Typos are made the same ways the spell checker looks for them: one
+ * letter deleted, changed or inserted, or two neighboring letters swapped.
+ * The random numbers come from a fixed seed, so the same arguments always
+ * give the same corpus.
+ */
+class TypoCorpus {
+
+	private static final long SEED = 1103;
+
+	private final List<String> words = new ArrayList<>();
+	private final Random random = new Random(SEED);
+
+	/**
+	 * Creates a corpus generator.
+	 *
+	 * @param dictionary The dictionary to take words from.
+	 */
+	TypoCorpus(WordDictionary dictionary) {
+		dictionary.forEachWord(word -> {
+			if (isPlain(word)) {
+				words.add(word);
+			}
+		});
+	}
+
+	/**
+	 * Returns misspelled words made from dictionary words of one length.
+	 * A typo that happens to be another real word is skipped, so every
+	 * word returned is really misspelled.
+	 *
+	 * @param count How many typos to make.
+	 * @param length The length of the words to start from.
+	 * @param dictionary The dictionary the typos must not be in.
+	 * @return The typos.
+	 */
+	String[] typos(int count, int length, WordDictionary dictionary) {
+
+		List<String> sameLength = new ArrayList<>();
+		for (String word : words) {
+			if (word.length() == length) {
+				sameLength.add(word);
+			}
+		}
+		if (sameLength.isEmpty()) {
+			throw new IllegalArgumentException("No words of length " + length + ".");
+		}
+
+		String[] typos = new String[count];
+		int made = 0;
+		while (made < count) {
+			String typo = typo(sameLength.get(random.nextInt(sameLength.size())));
+			if (!dictionary.contains(typo)) {
+				typos[made++] = typo;
+			}
+		}
+		return typos;
+	}
+
+	/**
+	 * Returns text made of random dictionary words, about
+	 * <code>errorRate</code> of them with a typo, separated by spaces
+	 * and punctuation and broken into lines.
+	 *
+	 * @param wordCount How many words the text has.
+	 * @param errorRate The fraction of words to misspell, from 0 to 1.
+	 * @return The text.
+	 */
+	String text(int wordCount, double errorRate) {
+		StringBuilder text = new StringBuilder(wordCount * 8);
+		for (int i = 0; i < wordCount; i++) {
+			String word = words.get(random.nextInt(words.size()));
+			if (random.nextDouble() < errorRate) {
+				word = typo(word);
+			}
+			text.append(word);
+			if (i % 12 == 11) {
+				text.append(".\n");
+			} else if (i % 5 == 4) {
+				text.append(", ");
+			} else {
+				text.append(' ');
+			}
+		}
+		return text.toString();
+	}
+
+	/** Makes one random single-edit typo of <code>word</code>. */
+	private String typo(String word) {
+		char letter = (char) ('a' + random.nextInt(26));
+		int n = word.length();
+		switch (n < 2 ? 2 : random.nextInt(4)) {
+		case 0:
+			int i = random.nextInt(n);
+			return word.substring(0, i) + word.substring(i + 1);
+		case 1:
+			i = random.nextInt(n);
+			return word.substring(0, i) + letter + word.substring(i + 1);
+		case 2:
+			i = random.nextInt(n + 1);
+			return word.substring(0, i) + letter + word.substring(i);
+		default:
+			i = random.nextInt(n - 1);
+			return word.substring(0, i) + word.charAt(i + 1) + word.charAt(i)
+							+ word.substring(i + 2);
+		}
+	}
+
+	/** Tests whether a word is made only of the letters a to z. */
+	private static boolean isPlain(String word) {
+		for (int i = 0; i < word.length(); i++) {
+			char ch = word.charAt(i);
+			if (ch < 'a' || ch > 'z') {
+				return false;
+			}
+		}
+		return word.length() > 0;
+	}
+}
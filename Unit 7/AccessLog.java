@@ -0,0 +1,218 @@
+package simplewebserver;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.net.InetAddress;
+import java.time.Instant;
+import java.time.ZoneId;
+import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Logs each response the server sends, and any errors, without making the
+ * threads that answer requests wait for the log.
+ * <p>
+ * Writing to System.out takes a lock and often waits for the console, so
+ * every thread that logs that way slows every other one down.  Here a
+ * thread that logs only puts a small record in a queue.  A thread of the
+ * log's own waits for the first record, lets more pile up for
+ * FLUSH_MILLIS, and then takes them all off the queue, turns them into
+ * lines and writes them with one write and one flush.  So under load the
+ * log thread wakes up a few times a second rather than once per request,
+ * and when the server is idle it doesn't wake up at all.  If the queue
+ * fills up because the log can't keep up, records are dropped rather than
+ * slowing the server down, and the log says how many were lost.  Whatever
+ * is still in the queue when the program exits is written before it
+ * goes.
+ * <p>
+ * A response is logged in the Common Log Format, followed by how many
+ * microseconds it took:
+ * <pre>
+ * 127.0.0.1 - - [17/Oct/2026:09:30:00 +0000] "GET /index.html HTTP/1.1" 200 5120 214
+ * </pre>
+ */
+class AccessLog {
+
+	/** The most records waiting to be written. */
+	private static final int QUEUE_SIZE = 65536;
+
+	/** The most records written at once. */
+	private static final int BATCH_SIZE = 4096;
+
+	/** How long records are collected before they are written. */
+	private static final long FLUSH_MILLIS = 50;
+
+	private static final DateTimeFormatter TIME =
+					DateTimeFormatter.ofPattern("dd/MMM/yyyy:HH:mm:ss Z", Locale.US)
+									.withZone(ZoneId.systemDefault());
+
+	/**
+	 * Something to log: a response, or if request is null, a message.
+	 */
+	private static class Record {
+
+		final long time;
+		final InetAddress client;
+		final Request request;
+		final String message;
+		final int status;
+		final long bytes;
+		final long micros;
+
+		Record(InetAddress client, Request request, String message, int status, long bytes,
+						long micros) {
+			this.time = System.currentTimeMillis();
+			this.client = client;
+			this.request = request;
+			this.message = message;
+			this.status = status;
+			this.bytes = bytes;
+			this.micros = micros;
+		}
+	}
+
+	private final Writer out;
+	private final BlockingQueue<Record> queue = new ArrayBlockingQueue<>(QUEUE_SIZE);
+	private final AtomicLong dropped = new AtomicLong();
+
+	/* Only used while synchronized on the log. */
+	private final List<Record> batch = new ArrayList<>(BATCH_SIZE);
+	private final StringBuilder text = new StringBuilder();
+	private long timeSecond = -1;
+	private String timeText;
+
+	/**
+	 * Creates the log and starts the thread that writes it.
+	 *
+	 * @param out Where the lines go.  It is flushed after each batch.
+	 */
+	AccessLog(Writer out) {
+		this.out = out;
+		Thread writer = new Thread(this::run, "access-log");
+		writer.setDaemon(true);
+		writer.start();
+		Runtime.getRuntime().addShutdownHook(new Thread(this::writeBatch));
+	}
+
+	/**
+	 * Logs a response that has been sent.
+	 *
+	 * @param client The client's address.
+	 * @param request The request that was answered.
+	 * @param status The response's status code, or 0 if it isn't HTTP.
+	 * @param bytes The number of bytes sent.
+	 * @param nanos How long the request took, in nanoseconds.
+	 */
+	void response(InetAddress client, Request request, int status, long bytes, long nanos) {
+		add(new Record(client, request, null, status, bytes, nanos / 1000));
+	}
+
+	/**
+	 * Logs a message, such as an error, on a line of its own.
+	 *
+	 * @param message The message.
+	 */
+	void message(String message) {
+		add(new Record(null, null, message, 0, 0, 0));
+	}
+
+	private void add(Record record) {
+		if (!queue.offer(record)) {
+			dropped.incrementAndGet();
+		}
+	}
+
+	/**
+	 * Writes batches for as long as the program runs.
+	 */
+	private void run() {
+		while (true) {
+			try {
+				Record first = queue.take();
+				synchronized (this) {
+					batch.add(first);    // so the shutdown hook writes it if we exit now
+				}
+				Thread.sleep(FLUSH_MILLIS);
+				writeBatch();
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Writes everything that is waiting in the queue, up to BATCH_SIZE
+	 * records at a time.
+	 */
+	private synchronized void writeBatch() {
+		do {
+			queue.drainTo(batch, BATCH_SIZE - batch.size());
+			text.setLength(0);
+			for (Record record : batch) {
+				format(record);
+			}
+			batch.clear();
+			long lost = dropped.getAndSet(0);
+			if (lost > 0) {
+				text.append("(").append(lost).append(" log records were dropped.)\n");
+			}
+			try {
+				out.write(text.toString());
+				out.flush();
+			} catch (IOException e) {
+				System.out.println("Can't write the access log: " + e);
+			}
+		} while (!queue.isEmpty());
+	}
+
+	/** Appends the line for one record to text. */
+	private void format(Record record) {
+		if (record.request == null) {
+			text.append(record.message).append('\n');
+			return;
+		}
+		long second = record.time / 1000;
+		if (second != timeSecond) {
+			timeText = TIME.format(Instant.ofEpochSecond(second));
+			timeSecond = second;
+		}
+		text.append(record.client.getHostAddress()).append(" - - [").append(timeText).append("] \"");
+		Request request = record.request;
+		appendQuoted(request.command());
+		if (request.fileName() != null) {
+			text.append(' ');
+			appendQuoted(request.fileName());
+			if (request.protocol() != null) {
+				text.append(' ');
+				appendQuoted(request.protocol());
+			}
+		}
+		text.append("\" ");
+		if (record.status > 0) {
+			text.append(record.status);
+		} else {
+			text.append('-');
+		}
+		text.append(' ').append(record.bytes).append(' ').append(record.micros).append('\n');
+	}
+
+	/**
+	 * Appends part of a request line to text, with quotes and backslashes
+	 * escaped and control characters replaced, so that a client can't
+	 * forge lines of the log.
+	 */
+	private void appendQuoted(String part) {
+		for (int i = 0; i < part.length(); i++) {
+			char c = part.charAt(i);
+			if (c == '"' || c == '\\') {
+				text.append('\\');
+			}
+			text.append(c < ' ' ? '?' : c);
+		}
+	}
+}
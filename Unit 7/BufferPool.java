@@ -0,0 +1,63 @@
+package simplewebserver;
+
+import java.nio.ByteBuffer;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Buffers of one size that are handed out and given back, so that each new
+ * connection doesn't have to allocate and clear a buffer of its own.
+ * <p>
+ * Buffers are made when none are free, so take() never waits.  A buffer
+ * that is given back is kept for the next connection, unless the pool
+ * already has as many free buffers as it keeps, which stops a burst of
+ * connections from holding memory for ever.
+ */
+class BufferPool {
+
+	private final int bufferSize;
+	private final int maxFree;
+	private final Queue<ByteBuffer> free = new ConcurrentLinkedQueue<>();
+	private final AtomicInteger freeCount = new AtomicInteger();
+
+	/**
+	 * Creates an empty pool.
+	 *
+	 * @param bufferSize The size of each buffer, in bytes.
+	 * @param maxFree The most free buffers that are kept.
+	 */
+	BufferPool(int bufferSize, int maxFree) {
+		this.bufferSize = bufferSize;
+		this.maxFree = maxFree;
+	}
+
+	/**
+	 * Takes a buffer from the pool, or makes a new one.
+	 *
+	 * @return An empty heap buffer, which should be given back with give()
+	 *     when it is no longer needed.
+	 */
+	ByteBuffer take() {
+		ByteBuffer buffer = free.poll();
+		if (buffer == null) {
+			return ByteBuffer.allocate(bufferSize);
+		}
+		freeCount.decrementAndGet();
+		buffer.clear();
+		return buffer;
+	}
+
+	/**
+	 * Gives a buffer back to the pool.  It must not be used afterwards.
+	 *
+	 * @param buffer A buffer that came from take().
+	 */
+	void give(ByteBuffer buffer) {
+		if (freeCount.incrementAndGet() <= maxFree) {
+			free.add(buffer);
+		} else {
+			freeCount.decrementAndGet();
+		}
+	}
+}
@@ -0,0 +1,146 @@
+package simplewebserver;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A range of bytes of a file, from a request's Range header.
+ * <p>
+ * A Range header such as "bytes=0-499, 1000-, -200" asks for the first
+ * 500 bytes, everything from byte 1000 on, and the last 200 bytes.  Ranges
+ * that overlap or touch are joined, so a client can't make the server send
+ * the same bytes many times over, and they are sent in order.
+ */
+class ByteRange {
+
+	/**
+	 * The most ranges sent in one response.  A request for more is answered
+	 * with the whole file.
+	 */
+	static final int MAX_RANGES = 32;
+
+	private final long start;
+	private final long end;
+
+	/**
+	 * Creates a range.
+	 *
+	 * @param start The position of the first byte.
+	 * @param end The position just after the last byte.
+	 */
+	ByteRange(long start, long end) {
+		this.start = start;
+		this.end = end;
+	}
+
+	/** @return The position of the first byte. */
+	long start() {
+		return start;
+	}
+
+	/** @return The position just after the last byte. */
+	long end() {
+		return end;
+	}
+
+	/** @return The number of bytes in the range. */
+	long length() {
+		return end - start;
+	}
+
+	/**
+	 * Returns the range as it is written in a Content-Range header, such as
+	 * "bytes 0-499/1234".
+	 *
+	 * @param fileLength The length of the whole file.
+	 * @return The value for the Content-Range header.
+	 */
+	String contentRange(long fileLength) {
+		return "bytes " + start + "-" + (end - 1) + "/" + fileLength;
+	}
+
+	/**
+	 * Reads the ranges of a Range header that fall inside a file.
+	 *
+	 * @param header The value of the Range header.
+	 * @param fileLength The length of the file.
+	 * @return The ranges, joined and in order; an empty list if none of them
+	 *     is inside the file; or null if the header should be ignored,
+	 *     because it isn't in bytes, doesn't make sense, or asks for more
+	 *     than MAX_RANGES ranges.
+	 */
+	static List<ByteRange> parse(String header, long fileLength) {
+
+		int equals = header.indexOf('=');
+		if (equals < 0 || !header.substring(0, equals).trim().equalsIgnoreCase("bytes")) {
+			return null;
+		}
+
+		List<ByteRange> ranges = new ArrayList<>();
+		for (String spec : header.substring(equals + 1).split(",")) {
+			spec = spec.trim();
+			if (spec.isEmpty()) {
+				continue;
+			}
+			int dash = spec.indexOf('-');
+			if (dash < 0) {
+				return null;
+			}
+			long first = parseNumber(spec.substring(0, dash).trim());
+			long last = parseNumber(spec.substring(dash + 1).trim());
+
+			if (dash == 0) {    // "-n", the last n bytes
+				if (last < 0) {
+					return null;
+				}
+				if (last > 0 && fileLength > 0) {
+					ranges.add(new ByteRange(Math.max(0, fileLength - last), fileLength));
+				}
+			} else {            // "first-last" or "first-"
+				if (first < 0 || (dash < spec.length() - 1 && (last < 0 || last < first))) {
+					return null;
+				}
+				if (first < fileLength) {
+					long end = dash == spec.length() - 1 ? fileLength : Math.min(last, fileLength - 1) + 1;
+					ranges.add(new ByteRange(first, end));
+				}
+			}
+		}
+
+		ranges.sort(Comparator.comparingLong(ByteRange::start));
+		List<ByteRange> joined = new ArrayList<>();
+		for (ByteRange range : ranges) {
+			ByteRange previous = joined.isEmpty() ? null : joined.get(joined.size() - 1);
+			if (previous != null && range.start <= previous.end) {
+				joined.set(joined.size() - 1,
+								new ByteRange(previous.start, Math.max(previous.end, range.end)));
+			} else {
+				joined.add(range);
+			}
+		}
+		return joined.size() > MAX_RANGES ? null : joined;
+	}
+
+	/**
+	 * Reads a number of bytes.
+	 *
+	 * @return The number, Long.MAX_VALUE if it is too big for a long, or -1
+	 *     if it isn't a number.
+	 */
+	private static long parseNumber(String digits) {
+		if (digits.isEmpty()) {
+			return -1;
+		}
+		for (int i = 0; i < digits.length(); i++) {
+			if (digits.charAt(i) < '0' || digits.charAt(i) > '9') {
+				return -1;
+			}
+		}
+		try {
+			return Long.parseLong(digits);
+		} catch (NumberFormatException e) {
+			return Long.MAX_VALUE;
+		}
+	}
+}
@@ -0,0 +1,133 @@
+package simplewebserver;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.ByteBuffer;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+
+/**
+ * Chooses a Content-Encoding from a request's Accept-Encoding header, and
+ * compresses file contents into it.
+ * <p>
+ * "gzip" and "deflate" are supported.  "deflate" means the zlib format, as
+ * HTTP defines it.  Contents are compressed with a Deflater that reads
+ * straight from the cached buffer, so a mapped file isn't copied onto the
+ * heap first.
+ */
+class Compression {
+
+	static final String GZIP = "gzip";
+	static final String DEFLATE = "deflate";
+
+	/** Files shorter than this are never compressed; it wouldn't pay. */
+	static final int MIN_LENGTH = 256;
+
+	/** The gzip header: magic number, deflate, no flags, time or OS. */
+	private static final byte[] GZIP_HEADER = { 0x1f, (byte) 0x8b, 8, 0, 0, 0, 0, 0, 0, (byte) 0xff };
+
+	private static final int CHUNK_SIZE = 64 * 1024;
+
+	private Compression() {
+	}
+
+	/**
+	 * Chooses the encoding the client likes best, preferring gzip when it
+	 * likes both as much.  An encoding with "q=0" is refused, and "*"
+	 * stands for any encoding the header doesn't name.
+	 *
+	 * @param acceptEncoding The Accept-Encoding header, or null.
+	 * @return GZIP, DEFLATE, or null to send the file as it is.
+	 */
+	static String choose(String acceptEncoding) {
+		if (acceptEncoding == null) {
+			return null;
+		}
+		double gzip = -1;
+		double deflate = -1;
+		double any = -1;
+		for (String part : acceptEncoding.split(",")) {
+			String[] fields = part.split(";");
+			String coding = fields[0].trim().toLowerCase();
+			double q = 1;
+			for (int i = 1; i < fields.length; i++) {
+				String parameter = fields[i].trim();
+				if (parameter.startsWith("q=") || parameter.startsWith("Q=")) {
+					try {
+						q = Double.parseDouble(parameter.substring(2));
+					} catch (NumberFormatException e) {
+						q = 0;
+					}
+				}
+			}
+			if (coding.equals("gzip") || coding.equals("x-gzip")) {
+				gzip = q;
+			} else if (coding.equals("deflate")) {
+				deflate = q;
+			} else if (coding.equals("*")) {
+				any = q;
+			}
+		}
+		if (gzip < 0) {
+			gzip = any;
+		}
+		if (deflate < 0) {
+			deflate = any;
+		}
+		if (gzip > 0 && gzip >= deflate) {
+			return GZIP;
+		} else if (deflate > 0) {
+			return DEFLATE;
+		} else {
+			return null;
+		}
+	}
+
+	/**
+	 * Compresses the bytes of a buffer, from its position to its limit,
+	 * without moving its position.
+	 *
+	 * @param content The bytes to compress.
+	 * @param encoding GZIP or DEFLATE.
+	 * @return A direct buffer holding the compressed bytes.
+	 */
+	static ByteBuffer compress(ByteBuffer content, String encoding) {
+
+		boolean gzip = encoding.equals(GZIP);
+		ByteArrayOutputStream out = new ByteArrayOutputStream(content.remaining() / 4 + 64);
+		if (gzip) {
+			out.write(GZIP_HEADER, 0, GZIP_HEADER.length);
+		}
+
+		Deflater deflater = new Deflater(Deflater.DEFAULT_COMPRESSION, gzip);
+		try {
+			deflater.setInput(content.duplicate());
+			deflater.finish();
+			byte[] chunk = new byte[CHUNK_SIZE];
+			while (!deflater.finished()) {
+				int n = deflater.deflate(chunk);
+				out.write(chunk, 0, n);
+			}
+		} finally {
+			deflater.end();
+		}
+
+		if (gzip) {
+			CRC32 crc = new CRC32();
+			crc.update(content.duplicate());
+			writeIntLE(out, (int) crc.getValue());
+			writeIntLE(out, content.remaining());
+		}
+
+		byte[] bytes = out.toByteArray();
+		ByteBuffer compressed = ByteBuffer.allocateDirect(bytes.length);
+		compressed.put(bytes).flip();
+		return compressed;
+	}
+
+	/** Writes the four bytes of an int, least significant first. */
+	private static void writeIntLE(ByteArrayOutputStream out, int value) {
+		for (int i = 0; i < 4; i++) {
+			out.write(value >>> (8 * i));
+		}
+	}
+}
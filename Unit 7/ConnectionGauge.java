@@ -0,0 +1,43 @@
+package simplewebserver;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Counts the connections that are open right now, and remembers the most
+ * that have been open at once.  Every engine opens a connection when it
+ * accepts a socket and closes it when the socket is closed, from whatever
+ * threads it uses.
+ */
+class ConnectionGauge {
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger peak = new AtomicInteger();
+
+	/**
+	 * Counts a newly accepted connection.
+	 */
+	void opened() {
+		int now = active.incrementAndGet();
+		int most = peak.get();
+		while (now > most && !peak.compareAndSet(most, now)) {
+			most = peak.get();
+		}
+	}
+
+	/**
+	 * Counts a connection that has been closed.
+	 */
+	void closed() {
+		active.decrementAndGet();
+	}
+
+	/** @return The number of connections open now. */
+	int active() {
+		return active.get();
+	}
+
+	/** @return The most connections that have been open at once. */
+	int peak() {
+		return peak.get();
+	}
+}
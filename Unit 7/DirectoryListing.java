@@ -0,0 +1,148 @@
+package simplewebserver;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The names, sizes and modification times of the files in a directory, as
+ * they were when the directory was read, ready to be shown a page at a
+ * time in any order.
+ * <p>
+ * The directory is read with a DirectoryStream, and each file's attributes
+ * are read once, together, so a directory of 100,000 files costs one pass
+ * and no File objects.  Each order the listing is asked for is sorted once
+ * and kept, so later pages in the same order only copy out their items.
+ * Subdirectories always come before files.
+ */
+class DirectoryListing {
+
+	/** The ways a listing can be sorted. */
+	static final String[] SORT_KEYS = { "name", "size", "modified" };
+
+	/** One file or subdirectory. */
+	static class Item {
+
+		private final String name;
+		private final boolean directory;
+		private final long size;
+		private final long lastModified;
+
+		private Item(String name, boolean directory, long size, long lastModified) {
+			this.name = name;
+			this.directory = directory;
+			this.size = size;
+			this.lastModified = lastModified;
+		}
+
+		/** @return The file's name, without its directory. */
+		String name() {
+			return name;
+		}
+
+		/** @return True if it is a directory. */
+		boolean isDirectory() {
+			return directory;
+		}
+
+		/** @return The file's length in bytes. */
+		long size() {
+			return size;
+		}
+
+		/** @return The file's modification time, in milliseconds. */
+		long lastModified() {
+			return lastModified;
+		}
+	}
+
+	private final Item[] items;
+
+	/** The items in each order that has been asked for, by sort and order. */
+	private final Map<String, Item[]> sorted = new HashMap<>();
+
+	private DirectoryListing(Item[] items) {
+		this.items = items;
+	}
+
+	/**
+	 * Reads a directory.  A file that disappears while the directory is
+	 * being read is left out.
+	 *
+	 * @param directory The directory to read.
+	 * @return The listing.
+	 * @throws IOException If the directory can't be read.
+	 */
+	static DirectoryListing read(Path directory) throws IOException {
+		List<Item> items = new ArrayList<>();
+		try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory)) {
+			for (Path path : stream) {
+				BasicFileAttributes attributes;
+				try {
+					attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				} catch (IOException e) {
+					continue;
+				}
+				items.add(new Item(path.getFileName().toString(), attributes.isDirectory(),
+								attributes.size(), attributes.lastModifiedTime().toMillis()));
+			}
+		}
+		return new DirectoryListing(items.toArray(new Item[0]));
+	}
+
+	/** @return The number of files and subdirectories. */
+	int size() {
+		return items.length;
+	}
+
+	/**
+	 * Returns some of the items in an order.
+	 *
+	 * @param sort One of SORT_KEYS; anything else sorts by name.
+	 * @param descending True for the largest, newest or last name first.
+	 * @param from The index of the first item to return.
+	 * @param count The most items to return.
+	 * @return The items, which may be fewer than <code>count</code>.
+	 */
+	Item[] page(String sort, boolean descending, int from, int count) {
+		Item[] inOrder = sorted(sort, descending);
+		int to = (int) Math.min((long) from + count, inOrder.length);
+		return from >= to ? new Item[0] : Arrays.copyOfRange(inOrder, from, to);
+	}
+
+	/**
+	 * Returns all the items in an order, sorting them the first time.
+	 */
+	private synchronized Item[] sorted(String sort, boolean descending) {
+		String key = sort + (descending ? " desc" : " asc");
+		Item[] inOrder = sorted.get(key);
+		if (inOrder == null) {
+			Comparator<Item> byKey;
+			if (sort.equals("size")) {
+				byKey = Comparator.comparingLong(Item::size);
+			} else if (sort.equals("modified")) {
+				byKey = Comparator.comparingLong(Item::lastModified);
+			} else {
+				byKey = Comparator.comparing(Item::name);
+			}
+			if (!sort.equals("name")) {
+				byKey = byKey.thenComparing(Item::name);
+			}
+			if (descending) {
+				byKey = byKey.reversed();
+			}
+			inOrder = items.clone();
+			Arrays.sort(inOrder, Comparator.comparing((Item item) -> !item.directory).thenComparing(byKey));
+			sorted.put(key, inOrder);
+		}
+		return inOrder;
+	}
+}
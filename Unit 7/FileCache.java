@@ -0,0 +1,667 @@
+package simplewebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.time.Instant;
+import java.time.ZoneOffset;
+import java.time.format.DateTimeFormatter;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the contents of recently served files in memory, so that a file
+ * that is asked for again is sent without opening or reading it.
+ * <p>
+ * Files are found by their path with "." and ".." taken out.  A small file
+ * is copied into a direct ByteBuffer, which a channel can write without
+ * copying it again; a larger one is memory-mapped, so its pages are shared
+ * with the operating system's own cache.  Files bigger than a quarter of
+ * the cache are never cached, and are sent straight from disk as before.
+ * When the cache holds more bytes than its size, the files that were used
+ * least recently are dropped.
+ * <p>
+ * A cached file can also hold compressed copies of itself, one for each
+ * Content-Encoding, which are made the first time a client asks for them
+ * and count towards the cache's size.  If the file has a ".gz" sibling,
+ * such as "style.css.gz" next to "style.css", it is read with the file and
+ * used as its gzip copy instead.
+ * <p>
+ * The directory of every cached file is watched with a WatchService, and a
+ * file is dropped as soon as it, or its ".gz" sibling, is changed, created
+ * or deleted.  If a directory can't be watched, its files are checked
+ * instead: each time one is used, its size and modification time are
+ * compared with the ones it was read with.
+ * <p>
+ * The cache also keeps DirectoryListings, up to MAX_LISTED_ITEMS files in
+ * all, and drops a directory's listing when anything in it changes.  Only
+ * watched directories have their listings kept.  A directory stops being
+ * watched once neither its files nor its listing are cached, so the
+ * watches, which the operating system limits, don't pile up.
+ */
+class FileCache {
+
+	/** The most files and subdirectories kept in directory listings. */
+	static final int MAX_LISTED_ITEMS = 1000000;
+
+	/** Files up to this size are copied into a direct buffer. */
+	static final int SMALL_FILE_LIMIT = 64 * 1024;
+
+	/**
+	 * The format of Last-Modified dates.  RFC_1123_DATE_TIME would leave
+	 * out the day's leading zero, which HTTP requires.
+	 */
+	static final DateTimeFormatter HTTP_DATE = DateTimeFormatter
+					.ofPattern("EEE, dd MMM yyyy HH:mm:ss 'GMT'", Locale.US).withZone(ZoneOffset.UTC);
+
+	/**
+	 * A compressed copy of a cached file.
+	 */
+	static class Variant {
+
+		private final ByteBuffer content;
+		private final String eTag;
+		private final byte[] eTagHeader;
+
+		private Variant(ByteBuffer content, String eTag) {
+			this.content = content;
+			this.eTag = eTag;
+			this.eTagHeader = ResponseHead.encode("ETag: " + eTag + "\r\n");
+		}
+
+		/** @return The compressed bytes, ready to be written. */
+		ByteBuffer content() {
+			return content.duplicate();
+		}
+
+		/** @return The number of compressed bytes. */
+		long length() {
+			return content.capacity();
+		}
+
+		/** @return The entity tag of the compressed copy, with its quotes. */
+		String eTag() {
+			return eTag;
+		}
+
+		/** @return The encoded ETag header line, which must not be changed. */
+		byte[] eTagHeader() {
+			return eTagHeader;
+		}
+	}
+
+	/**
+	 * One cached file.  The content must not be read directly, since
+	 * every response shares it; content() gives a view of its own to each
+	 * caller.
+	 */
+	static class Entry {
+
+		private final Path path;
+		private final ByteBuffer content;
+		private final long lastModified;
+		private final String eTag;
+		private final String lastModifiedDate;
+		private final byte[] eTagHeader;
+		private final byte[] lastModifiedHeader;
+		private final boolean watched;
+		private final boolean precompressed;
+
+		/* The compressed copies made so far, guarded by the cache. */
+		private Variant gzip;
+		private Variant deflate;
+
+		private Entry(Path path, ByteBuffer content, long lastModified, boolean watched,
+						Variant precompressed) {
+			this.path = path;
+			this.content = content;
+			this.lastModified = lastModified;
+			this.eTag = FileCache.eTag(content.capacity(), lastModified);
+			this.lastModifiedDate = httpDate(lastModified);
+			this.eTagHeader = ResponseHead.encode("ETag: " + eTag + "\r\n");
+			this.lastModifiedHeader = ResponseHead.encode("Last-Modified: " + lastModifiedDate + "\r\n");
+			this.watched = watched;
+			this.precompressed = precompressed != null;
+			this.gzip = precompressed;
+		}
+
+		/**
+		 * @return True if the file has a ".gz" sibling, so a compressed
+		 *     copy can be sent whatever its type.
+		 */
+		boolean isPrecompressed() {
+			return precompressed;
+		}
+
+		/** @return The file's contents, ready to be written. */
+		ByteBuffer content() {
+			return content.duplicate();
+		}
+
+		/** @return The file's length in bytes. */
+		long length() {
+			return content.capacity();
+		}
+
+		/** @return The file's modification time, in milliseconds. */
+		long lastModified() {
+			return lastModified;
+		}
+
+		/** @return The entity tag for the Etag header, with its quotes. */
+		String eTag() {
+			return eTag;
+		}
+
+		/** @return The encoded ETag header line, which must not be changed. */
+		byte[] eTagHeader() {
+			return eTagHeader;
+		}
+
+		/**
+		 * @return The encoded Last-Modified header line, which must not be
+		 *     changed.
+		 */
+		byte[] lastModifiedHeader() {
+			return lastModifiedHeader;
+		}
+
+		/**
+		 * @return The bytes the entry takes up, with its compressed copies.
+		 */
+		private long size() {
+			long size = length();
+			if (gzip != null) {
+				size += gzip.length();
+			}
+			if (deflate != null) {
+				size += deflate.length();
+			}
+			return size;
+		}
+
+		/**
+		 * Tests whether the file on disk is still the one that was read.
+		 * This is only needed for files whose directory isn't watched.
+		 */
+		private boolean isCurrent() {
+			if (watched) {
+				return true;
+			}
+			try {
+				BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+				return attributes.size() == length()
+								&& attributes.lastModifiedTime().toMillis() == lastModified;
+			} catch (IOException e) {
+				return false;
+			}
+		}
+	}
+
+	private final long maxBytes;
+	private final long maxFileBytes;
+	private final WatchService watcher;
+
+	/** The entries, from the least recently used to the most. */
+	private final LinkedHashMap<Path, Entry> entries = new LinkedHashMap<>(64, 0.75f, true);
+	private long bytes;
+
+	/** The directory listings, from the least recently used to the most. */
+	private final LinkedHashMap<Path, DirectoryListing> listings = new LinkedHashMap<>(16, 0.75f, true);
+	private long listedItems;
+
+	/**
+	 * A watched directory, and how many cached files, listings and loads
+	 * that are under way need it watched.  When nothing needs it any more,
+	 * its key is cancelled, so the watches don't pile up.
+	 */
+	private static class Watch {
+
+		final Path directory;
+		final WatchKey key;
+		int uses;
+
+		Watch(Path directory, WatchKey key) {
+			this.directory = directory;
+			this.key = key;
+		}
+	}
+
+	/** The watched directories, and the same by key for the watcher. */
+	private final Map<Path, Watch> watches = new HashMap<>();
+	private final Map<WatchKey, Watch> watchesByKey = new HashMap<>();
+
+	/**
+	 * Counts the files that have been dropped because they changed.  A
+	 * file that was being read while one changed isn't cached, since it may
+	 * have been read just before the change.
+	 */
+	private final AtomicLong changes = new AtomicLong();
+
+	/**
+	 * Creates a cache and starts the thread that watches for changes.
+	 *
+	 * @param maxBytes The most bytes of file content to keep.
+	 */
+	FileCache(long maxBytes) {
+		this.maxBytes = maxBytes;
+		this.maxFileBytes = maxBytes / 4;
+
+		WatchService service = null;
+		try {
+			service = FileSystems.getDefault().newWatchService();
+		} catch (IOException | UnsupportedOperationException e) {
+			System.out.println("Can't watch files for changes; checking them on each use instead.");
+		}
+		watcher = service;
+		if (watcher != null) {
+			Thread thread = new Thread(this::watch, "file-cache-watcher");
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Returns a file from the cache, reading it first if it isn't there.
+	 *
+	 * @param file The file to look up.
+	 * @return The cached file, or null if it isn't a readable regular file
+	 *     or is too big to cache.
+	 */
+	Entry get(Path file) {
+		Path path = file.toAbsolutePath().normalize();
+		Entry entry;
+		synchronized (this) {
+			entry = entries.get(path);
+		}
+		if (entry != null && entry.isCurrent()) {
+			return entry;
+		}
+		try {
+			return load(path);
+		} catch (IOException | UnsupportedOperationException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Reads a file and caches it, if there's room for it.
+	 */
+	private Entry load(Path path) throws IOException {
+
+		long changesBefore = changes.get();
+		Watch watch = watch(path.getParent());    // before reading, so no change is missed
+		try {
+			return load(path, changesBefore, watch != null);
+		} finally {
+			if (watch != null) {
+				synchronized (this) {
+					release(watch);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Reads a file and caches it, while its directory is kept watched.
+	 */
+	private Entry load(Path path, long changesBefore, boolean watched) throws IOException {
+
+		BasicFileAttributes attributes = Files.readAttributes(path, BasicFileAttributes.class);
+		if (!attributes.isRegularFile() || attributes.size() > maxFileBytes
+						|| attributes.size() > Integer.MAX_VALUE) {
+			return null;    // a buffer can't hold more than 2 GB
+		}
+		long length = attributes.size();
+		long lastModified = attributes.lastModifiedTime().toMillis();
+
+		ByteBuffer content = read(path, length);
+		if (content == null) {
+			return null;
+		}
+
+		Variant precompressed = null;
+		Path sibling = path.resolveSibling(path.getFileName() + ".gz");
+		try {
+			BasicFileAttributes siblingAttributes = Files.readAttributes(sibling, BasicFileAttributes.class);
+			if (siblingAttributes.isRegularFile() && siblingAttributes.size() <= maxFileBytes) {
+				ByteBuffer compressed = read(sibling, siblingAttributes.size());
+				if (compressed != null) {
+					precompressed = new Variant(compressed, eTag(siblingAttributes.size(),
+									siblingAttributes.lastModifiedTime().toMillis()));
+				}
+			}
+		} catch (IOException e) {
+			// There is no sibling, or it can't be read, so gzip is done here.
+		}
+
+		Entry entry = new Entry(path, content, lastModified, watched, precompressed);
+		synchronized (this) {
+			if (changes.get() == changesBefore || !watched) {
+				Entry old = entries.put(path, entry);
+				if (old != null) {
+					bytes -= old.size();
+					removed(old);
+				}
+				bytes += entry.size();
+				if (watched) {
+					use(path.getParent());
+				}
+				evict();
+			}
+		}
+		return entry;
+	}
+
+	/**
+	 * Reads a file into a direct buffer, or maps it if it is large.
+	 *
+	 * @return The contents, or null if the file got shorter while it was
+	 *     being read.
+	 */
+	private static ByteBuffer read(Path path, long length) throws IOException {
+		try (FileChannel in = FileChannel.open(path, StandardOpenOption.READ)) {
+			if (length > SMALL_FILE_LIMIT) {
+				return in.map(FileChannel.MapMode.READ_ONLY, 0, length);
+			}
+			ByteBuffer content = ByteBuffer.allocateDirect((int) length);
+			while (content.hasRemaining()) {
+				if (in.read(content) < 0) {
+					return null;
+				}
+			}
+			content.flip();
+			return content;
+		}
+	}
+
+	/**
+	 * Returns a compressed copy of a cached file, compressing it the first
+	 * time it is asked for.  Two threads may both compress a file that
+	 * neither has found compressed, but only one copy is kept.
+	 *
+	 * @param entry The cached file.
+	 * @param encoding Compression.GZIP or Compression.DEFLATE.
+	 * @param compress False to only return a copy from a ".gz" sibling.
+	 * @return The compressed copy, or null if there isn't one.
+	 */
+	Variant variant(Entry entry, String encoding, boolean compress) {
+		boolean gzip = encoding.equals(Compression.GZIP);
+		synchronized (this) {
+			Variant variant = gzip ? entry.gzip : entry.deflate;
+			if (variant != null || !compress) {
+				return variant;
+			}
+		}
+
+		String tag = entry.eTag.substring(0, entry.eTag.length() - 1) + "-" + encoding + "\"";
+		Variant made = new Variant(Compression.compress(entry.content, encoding), tag);
+
+		synchronized (this) {
+			Variant variant = gzip ? entry.gzip : entry.deflate;
+			if (variant != null) {
+				return variant;
+			}
+			if (gzip) {
+				entry.gzip = made;
+			} else {
+				entry.deflate = made;
+			}
+			if (entries.get(entry.path) == entry) {
+				bytes += made.length();
+				evict();
+			}
+		}
+		return made;
+	}
+
+	/**
+	 * Returns the listing of a directory, reading it first if it isn't
+	 * cached.
+	 *
+	 * @param directory The directory.
+	 * @return The listing.
+	 * @throws IOException If the directory can't be read.
+	 */
+	DirectoryListing listing(Path directory) throws IOException {
+		Path path = directory.toAbsolutePath().normalize();
+		synchronized (this) {
+			DirectoryListing listing = listings.get(path);
+			if (listing != null) {
+				return listing;
+			}
+		}
+
+		long changesBefore = changes.get();
+		Watch watch = watch(path);
+		try {
+			DirectoryListing listing = DirectoryListing.read(path);
+			synchronized (this) {
+				if (watch != null && changes.get() == changesBefore) {
+					DirectoryListing old = listings.put(path, listing);
+					if (old != null) {
+						listedItems -= old.size();
+					} else {
+						use(path);
+					}
+					listedItems += listing.size();
+					Iterator<Map.Entry<Path, DirectoryListing>> iter = listings.entrySet().iterator();
+					while (listedItems > MAX_LISTED_ITEMS && iter.hasNext()) {
+						Map.Entry<Path, DirectoryListing> evicted = iter.next();
+						listedItems -= evicted.getValue().size();
+						iter.remove();
+						unuse(evicted.getKey());
+					}
+				}
+			}
+			return listing;
+		} finally {
+			if (watch != null) {
+				synchronized (this) {
+					release(watch);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops the least recently used files until the cache fits in its
+	 * size.  Must be called while synchronized on the cache.
+	 */
+	private void evict() {
+		Iterator<Entry> iter = entries.values().iterator();
+		while (bytes > maxBytes && iter.hasNext()) {
+			Entry entry = iter.next();
+			bytes -= entry.size();
+			iter.remove();
+			removed(entry);
+		}
+	}
+
+	/**
+	 * Starts watching a directory, if it isn't watched already, and counts
+	 * one more use of the watch.  The caller must release() it.
+	 *
+	 * @return The watch, or null if the directory can't be watched.
+	 */
+	private synchronized Watch watch(Path directory) {
+		if (watcher == null || directory == null) {
+			return null;
+		}
+		Watch watch = watches.get(directory);
+		if (watch == null) {
+			try {
+				WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+								StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+				watch = new Watch(directory, key);
+				watches.put(directory, watch);
+				watchesByKey.put(key, watch);
+			} catch (IOException | UnsupportedOperationException e) {
+				return null;
+			}
+		}
+		watch.uses++;
+		return watch;
+	}
+
+	/**
+	 * Counts one more use of a directory's watch, for a file or listing
+	 * that is being cached.  Must be called while synchronized on the
+	 * cache.
+	 */
+	private void use(Path directory) {
+		Watch watch = watches.get(directory);
+		if (watch != null) {
+			watch.uses++;
+		}
+	}
+
+	/**
+	 * Counts one use fewer of a directory's watch, for a file or listing
+	 * that has been dropped.  Must be called while synchronized on the
+	 * cache.
+	 */
+	private void unuse(Path directory) {
+		Watch watch = watches.get(directory);
+		if (watch != null) {
+			release(watch);
+		}
+	}
+
+	/**
+	 * Counts one use fewer of a watch, and stops watching its directory if
+	 * nothing needs it any more.  Must be called while synchronized on the
+	 * cache.
+	 */
+	private void release(Watch watch) {
+		if (--watch.uses == 0) {
+			forget(watch);
+		}
+	}
+
+	/**
+	 * Stops watching a directory.  Must be called while synchronized on
+	 * the cache.
+	 */
+	private void forget(Watch watch) {
+		watch.key.cancel();
+		if (watches.get(watch.directory) == watch) {
+			watches.remove(watch.directory);
+		}
+		watchesByKey.remove(watch.key);
+	}
+
+	/**
+	 * Lets go of the watch a file that has left the cache needed.  Must be
+	 * called while synchronized on the cache.
+	 */
+	private void removed(Entry entry) {
+		if (entry.watched) {
+			unuse(entry.path.getParent());
+		}
+	}
+
+	/**
+	 * Drops the files that change, until the program ends.  This runs on
+	 * its own thread.
+	 */
+	private void watch() {
+		while (true) {
+			WatchKey key;
+			try {
+				key = watcher.take();
+			} catch (InterruptedException | ClosedWatchServiceException e) {
+				return;
+			}
+			synchronized (this) {
+				Watch watch = watchesByKey.get(key);
+				if (watch != null) {
+					Path directory = watch.directory;
+					dropListing(directory);
+					for (WatchEvent<?> event : key.pollEvents()) {
+						if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+							dropDirectory(directory);
+						} else {
+							drop(directory.resolve((Path) event.context()));
+						}
+					}
+					if (!key.reset() && watchesByKey.get(key) == watch) {
+						// The directory is gone, or its files were all dropped.
+						forget(watch);
+						dropListing(directory);
+						dropDirectory(directory);
+					}
+				}
+			}
+		}
+	}
+
+	/**
+	 * Drops one file, or the file a ".gz" sibling belongs to.  Must be
+	 * called while synchronized on the cache.
+	 */
+	private void drop(Path path) {
+		changes.incrementAndGet();
+		String name = path.getFileName().toString();
+		if (name.endsWith(".gz")) {
+			drop(path.resolveSibling(name.substring(0, name.length() - 3)));
+		}
+		Entry old = entries.remove(path);
+		if (old != null) {
+			bytes -= old.size();
+			removed(old);
+		}
+	}
+
+	/**
+	 * Drops a directory's listing.  Must be called while synchronized on
+	 * the cache.
+	 */
+	private void dropListing(Path directory) {
+		changes.incrementAndGet();
+		DirectoryListing old = listings.remove(directory);
+		if (old != null) {
+			listedItems -= old.size();
+			unuse(directory);
+		}
+	}
+
+	/**
+	 * Drops every file in a directory, when the events for it have been
+	 * lost.  Must be called while synchronized on the cache.
+	 */
+	private void dropDirectory(Path directory) {
+		changes.incrementAndGet();
+		Iterator<Entry> iter = entries.values().iterator();
+		while (iter.hasNext()) {
+			Entry entry = iter.next();
+			if (directory.equals(entry.path.getParent())) {
+				bytes -= entry.size();
+				iter.remove();
+				removed(entry);
+			}
+		}
+	}
+
+	/**
+	 * Makes an entity tag from a file's length and modification time, the
+	 * way many servers do, so it changes whenever the file is rewritten.
+	 */
+	static String eTag(long length, long lastModified) {
+		return "\"" + Long.toHexString(lastModified) + "-" + Long.toHexString(length) + "\"";
+	}
+
+	/**
+	 * Formats a time in milliseconds as an HTTP date, such as "Sun, 06 Nov
+	 * 1994 08:49:37 GMT".
+	 */
+	static String httpDate(long millis) {
+		return HTTP_DATE.format(Instant.ofEpochMilli(millis));
+	}
+}
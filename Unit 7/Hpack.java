@@ -0,0 +1,432 @@
+package simplewebserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * HPACK, the header compression of HTTP/2 (RFC 7541).
+ * <p>
+ * Each end of a connection keeps a table of headers it has seen: a static
+ * table of 61 common headers that never changes, followed by a dynamic
+ * table of recent ones, newest first, that is limited to 4096 bytes by
+ * default.  A header that is in the table is sent as its index, usually
+ * one byte, and any other header is sent as a literal that may be added
+ * to the table, so repeated headers such as Content-Type cost almost
+ * nothing after the first response.  Literal strings are Huffman encoded
+ * when that makes them shorter.
+ * <p>
+ * The decoder reads a client's request headers and the encoder writes the
+ * server's response headers, each with its own table.  Header blocks must
+ * be decoded and encoded in the order they are sent, since each one can
+ * change the table the next one refers to.  Names and values are Strings
+ * with one char for each byte.
+ */
+class Hpack {
+
+	/** The size of the dynamic table unless the other end asks for less. */
+	static final int DEFAULT_TABLE_SIZE = 4096;
+
+	/** The static table, from RFC 7541, appendix A.  Entry i is index i + 1. */
+	private static final String[][] STATIC_TABLE = {
+		{ ":authority", "" },
+		{ ":method", "GET" },
+		{ ":method", "POST" },
+		{ ":path", "/" },
+		{ ":path", "/index.html" },
+		{ ":scheme", "http" },
+		{ ":scheme", "https" },
+		{ ":status", "200" },
+		{ ":status", "204" },
+		{ ":status", "206" },
+		{ ":status", "304" },
+		{ ":status", "400" },
+		{ ":status", "404" },
+		{ ":status", "500" },
+		{ "accept-charset", "" },
+		{ "accept-encoding", "gzip, deflate" },
+		{ "accept-language", "" },
+		{ "accept-ranges", "" },
+		{ "accept", "" },
+		{ "access-control-allow-origin", "" },
+		{ "age", "" },
+		{ "allow", "" },
+		{ "authorization", "" },
+		{ "cache-control", "" },
+		{ "content-disposition", "" },
+		{ "content-encoding", "" },
+		{ "content-language", "" },
+		{ "content-length", "" },
+		{ "content-location", "" },
+		{ "content-range", "" },
+		{ "content-type", "" },
+		{ "cookie", "" },
+		{ "date", "" },
+		{ "etag", "" },
+		{ "expect", "" },
+		{ "expires", "" },
+		{ "from", "" },
+		{ "host", "" },
+		{ "if-match", "" },
+		{ "if-modified-since", "" },
+		{ "if-none-match", "" },
+		{ "if-range", "" },
+		{ "if-unmodified-since", "" },
+		{ "last-modified", "" },
+		{ "link", "" },
+		{ "location", "" },
+		{ "max-forwards", "" },
+		{ "proxy-authenticate", "" },
+		{ "proxy-authorization", "" },
+		{ "range", "" },
+		{ "referer", "" },
+		{ "refresh", "" },
+		{ "retry-after", "" },
+		{ "server", "" },
+		{ "set-cookie", "" },
+		{ "strict-transport-security", "" },
+		{ "transfer-encoding", "" },
+		{ "user-agent", "" },
+		{ "vary", "" },
+		{ "via", "" },
+		{ "www-authenticate", "" }
+	};
+
+	/** The index of each name and value in the static table, by "name\0value". */
+	private static final Map<String, Integer> staticHeaders = new HashMap<>();
+
+	/** The first index of each name in the static table. */
+	private static final Map<String, Integer> staticNames = new HashMap<>();
+
+	static {
+		for (int i = STATIC_TABLE.length - 1; i >= 0; i--) {
+			staticHeaders.put(STATIC_TABLE[i][0] + '\0' + STATIC_TABLE[i][1], i + 1);
+			staticNames.put(STATIC_TABLE[i][0], i + 1);
+		}
+	}
+
+	/**
+	 * The headers whose values are different in nearly every response, so
+	 * adding them to the table would only push out headers that repeat.
+	 */
+	private static final String[] UNINDEXED_NAMES = {
+		"content-length", "content-range", "date", "etag", "last-modified"
+	};
+
+	/**
+	 * The static table followed by one end's dynamic table.
+	 */
+	private static class Table {
+
+		/** The dynamic table, oldest first. */
+		private final List<String[]> entries = new ArrayList<>();
+		private int size;
+		private int maxSize = DEFAULT_TABLE_SIZE;
+
+		/**
+		 * Returns the header at an index.
+		 *
+		 * @throws IOException If there is no header at the index.
+		 */
+		String[] get(int index) throws IOException {
+			if (index >= 1 && index <= STATIC_TABLE.length) {
+				return STATIC_TABLE[index - 1];
+			}
+			int age = index - STATIC_TABLE.length;
+			if (age < 1 || age > entries.size()) {
+				throw new IOException("There is no header at index " + index + ".");
+			}
+			return entries.get(entries.size() - age);
+		}
+
+		/**
+		 * Returns the index of a header with this name and value, or 0 if
+		 * there isn't one.
+		 */
+		int indexOf(String name, String value) {
+			Integer index = staticHeaders.get(name + '\0' + value);
+			if (index != null) {
+				return index;
+			}
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				String[] entry = entries.get(i);
+				if (entry[0].equals(name) && entry[1].equals(value)) {
+					return STATIC_TABLE.length + entries.size() - i;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Returns the index of a header with this name, or 0 if there
+		 * isn't one.
+		 */
+		int indexOfName(String name) {
+			Integer index = staticNames.get(name);
+			if (index != null) {
+				return index;
+			}
+			for (int i = entries.size() - 1; i >= 0; i--) {
+				if (entries.get(i)[0].equals(name)) {
+					return STATIC_TABLE.length + entries.size() - i;
+				}
+			}
+			return 0;
+		}
+
+		/**
+		 * Adds a header to the dynamic table, making room by dropping the
+		 * oldest ones.  A header bigger than the whole table empties it and
+		 * isn't added.
+		 */
+		void add(String name, String value) {
+			int entrySize = entrySize(name, value);
+			while (size + entrySize > maxSize && !entries.isEmpty()) {
+				evict();
+			}
+			if (entrySize <= maxSize) {
+				entries.add(new String[] { name, value });
+				size += entrySize;
+			}
+		}
+
+		/** Changes the size of the dynamic table, dropping what no longer fits. */
+		void setMaxSize(int maxSize) {
+			this.maxSize = maxSize;
+			while (size > maxSize) {
+				evict();
+			}
+		}
+
+		private void evict() {
+			String[] oldest = entries.remove(0);
+			size -= entrySize(oldest[0], oldest[1]);
+		}
+	}
+
+	/**
+	 * Returns the size a header counts for, in the dynamic table and in
+	 * the limit on the size of a header list.
+	 */
+	static int entrySize(String name, String value) {
+		return name.length() + value.length() + 32;
+	}
+
+	/**
+	 * Reads header blocks.
+	 */
+	static class Decoder {
+
+		private final Table table = new Table();
+		private byte[] bytes;
+		private int position;
+
+		/**
+		 * Decodes a whole header block.
+		 *
+		 * @param block The block, from a HEADERS frame and any CONTINUATION
+		 *     frames after it.
+		 * @param length The length of the block.
+		 * @return The headers in order, each as { name, value }.
+		 * @throws IOException If the block can't be decoded, which leaves
+		 *     the table unusable, so the connection must be closed.
+		 */
+		List<String[]> decode(byte[] block, int length) throws IOException {
+			List<String[]> headers = new ArrayList<>();
+			bytes = block;
+			position = 0;
+			try {
+				while (position < length) {
+					int b = bytes[position] & 0xff;
+					if (b >= 0x80) {
+						// Indexed header.
+						int index = readInt(7, length);
+						if (index == 0) {
+							throw new IOException("Header index 0.");
+						}
+						headers.add(table.get(index));
+					} else if (b >= 0x40) {
+						// Literal header, added to the table.
+						String[] header = readLiteral(6, length);
+						table.add(header[0], header[1]);
+						headers.add(header);
+					} else if (b >= 0x20) {
+						// Dynamic table size update, only before the first header.
+						int maxSize = readInt(5, length);
+						if (!headers.isEmpty() || maxSize > DEFAULT_TABLE_SIZE) {
+							throw new IOException("Bad dynamic table size update.");
+						}
+						table.setMaxSize(maxSize);
+					} else {
+						// Literal header, not indexed or never indexed.
+						headers.add(readLiteral(4, length));
+					}
+				}
+			} finally {
+				bytes = null;
+			}
+			return headers;
+		}
+
+		/** Reads a literal header, whose name may be an index. */
+		private String[] readLiteral(int prefixBits, int length) throws IOException {
+			int index = readInt(prefixBits, length);
+			String name = index == 0 ? readString(length) : table.get(index)[0];
+			return new String[] { name, readString(length) };
+		}
+
+		/**
+		 * Reads an integer whose first byte has prefixBits bits of it (RFC
+		 * 7541, section 5.1).
+		 */
+		private int readInt(int prefixBits, int length) throws IOException {
+			int mask = (1 << prefixBits) - 1;
+			int value = bytes[position++] & mask;
+			if (value < mask) {
+				return value;
+			}
+			for (int shift = 0; shift <= 21; shift += 7) {
+				if (position >= length) {
+					throw new IOException("Header block ends in an integer.");
+				}
+				int b = bytes[position++];
+				value += (b & 0x7f) << shift;
+				if ((b & 0x80) == 0) {
+					return value;
+				}
+			}
+			throw new IOException("Integer in header block is too big.");
+		}
+
+		/** Reads a string, which may be Huffman encoded. */
+		private String readString(int length) throws IOException {
+			if (position >= length) {
+				throw new IOException("Header block ends before a string.");
+			}
+			boolean huffman = (bytes[position] & 0x80) != 0;
+			int stringLength = readInt(7, length);
+			if (stringLength > length - position) {
+				throw new IOException("String runs past the end of the header block.");
+			}
+			int start = position;
+			position += stringLength;
+			if (huffman) {
+				return Huffman.decode(bytes, start, position);
+			}
+			return new String(bytes, start, stringLength, StandardCharsets.ISO_8859_1);
+		}
+	}
+
+	/**
+	 * Writes header blocks.
+	 */
+	static class Encoder {
+
+		private final Table table = new Table();
+		private boolean sizeChanged;
+		private int smallestSize;
+
+		/**
+		 * Limits the dynamic table to what the other end's
+		 * SETTINGS_HEADER_TABLE_SIZE allows.  The next header block says so
+		 * before its first header.
+		 *
+		 * @param limit The other end's setting.
+		 */
+		void setMaxTableSize(long limit) {
+			int maxSize = (int) Math.min(limit, DEFAULT_TABLE_SIZE);
+			if (!sizeChanged || maxSize < smallestSize) {
+				smallestSize = maxSize;
+			}
+			sizeChanged = true;
+			table.setMaxSize(maxSize);
+		}
+
+		/**
+		 * Encodes a header block.
+		 *
+		 * @param headers The headers, each as { name, value }, with names in
+		 *     lowercase.
+		 * @param out Where the block goes.
+		 */
+		void encode(List<String[]> headers, ByteArrayOutputStream out) {
+			if (sizeChanged) {
+				// If the table shrank and grew again since the last block, the
+				// other end has to be told about both.
+				if (smallestSize < table.maxSize) {
+					writeInt(out, smallestSize, 5, 0x20);
+				}
+				writeInt(out, table.maxSize, 5, 0x20);
+				sizeChanged = false;
+			}
+			for (String[] header : headers) {
+				String name = header[0];
+				String value = header[1];
+				int index = table.indexOf(name, value);
+				if (index > 0) {
+					writeInt(out, index, 7, 0x80);
+					continue;
+				}
+				int nameIndex = table.indexOfName(name);
+				boolean indexed = isIndexed(name);
+				if (indexed) {
+					writeInt(out, nameIndex, 6, 0x40);
+				} else {
+					writeInt(out, nameIndex, 4, 0x00);
+				}
+				if (nameIndex == 0) {
+					writeString(out, name);
+				}
+				writeString(out, value);
+				if (indexed) {
+					table.add(name, value);
+				}
+			}
+		}
+
+		private static boolean isIndexed(String name) {
+			for (String unindexed : UNINDEXED_NAMES) {
+				if (unindexed.equals(name)) {
+					return false;
+				}
+			}
+			return true;
+		}
+
+		/**
+		 * Writes an integer with prefixBits bits of it in the first byte,
+		 * after the bits of <code>flags</code>.
+		 */
+		private static void writeInt(ByteArrayOutputStream out, int value, int prefixBits, int flags) {
+			int mask = (1 << prefixBits) - 1;
+			if (value < mask) {
+				out.write(flags | value);
+				return;
+			}
+			out.write(flags | mask);
+			value -= mask;
+			while (value >= 0x80) {
+				out.write((value & 0x7f) | 0x80);
+				value >>>= 7;
+			}
+			out.write(value);
+		}
+
+		/** Writes a string, Huffman encoded if that is shorter. */
+		private static void writeString(ByteArrayOutputStream out, String text) {
+			int huffmanLength = Huffman.encodedLength(text);
+			if (huffmanLength < text.length()) {
+				writeInt(out, huffmanLength, 7, 0x80);
+				Huffman.encode(text, out);
+			} else {
+				writeInt(out, text.length(), 7, 0x00);
+				byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+				out.write(bytes, 0, bytes.length);
+			}
+		}
+	}
+}
@@ -0,0 +1,973 @@
+package simplewebserver;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.SequenceInputStream;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Base64;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One HTTP/2 connection over plain TCP, which is called h2c (RFC 9113).
+ * <p>
+ * A client can start HTTP/2 in two ways.  If it already knows the server
+ * speaks it, it opens the connection with the HTTP/2 preface, "PRI *
+ * HTTP/2.0" and so on, whose first word the HTTP/1.1 parser reads as a
+ * command like "index".  Otherwise it sends an HTTP/1.1 request with
+ * "Upgrade: h2c" and an HTTP2-Settings header, the server answers "101
+ * Switching Protocols", and the response to that request is sent as
+ * stream 1 of the new connection.  Either way the engine that read the
+ * first request hands the socket over to serve(), which keeps it until
+ * the connection ends.
+ * <p>
+ * On an HTTP/2 connection each request is a stream of its own, and many
+ * streams can be answered at once, so a browser gets all the files of a
+ * page over one connection instead of opening several.  The thread that
+ * calls serve() only reads frames.  Each request is answered on a virtual
+ * thread of its own, by the same RequestHandler as HTTP/1.1 requests, so
+ * files, directory listings, caching, compression and ranges all work the
+ * same.  The response comes back as HTTP/1.1 text; its status line and
+ * headers are turned into a HEADERS frame, compressed with HPACK, and the
+ * rest is sent as DATA frames.  Frames from different streams are written
+ * one at a time, so a big file doesn't hold up a small one for longer than
+ * a frame.
+ * <p>
+ * The client limits how much a stream, and the whole connection, may send
+ * before it says it is ready for more with a WINDOW_UPDATE (flow control).
+ * A stream that has used up its window waits until the client opens it
+ * again, or gives up after the idle timeout.  The server doesn't read
+ * request bodies, so whatever a client sends in DATA frames is thrown away
+ * and its window opened again straight away.
+ * <p>
+ * Frames that break the protocol end the connection with GOAWAY and an
+ * error code.  A connection with no streams open is closed after the idle
+ * timeout.
+ */
+class Http2Connection {
+
+	/** The protocol of the requests read from HTTP/2 streams. */
+	static final String PROTOCOL = "HTTP/2.0";
+
+	/** The connection preface, which the client sends first. */
+	private static final byte[] PREFACE =
+					"PRI * HTTP/2.0\r\n\r\nSM\r\n\r\n".getBytes(StandardCharsets.ISO_8859_1);
+
+	/** The part of the preface that the HTTP/1.1 parser reads: "PRI ". */
+	private static final int PREFACE_COMMAND_LENGTH = 4;
+
+	/* Frame types. */
+	private static final int DATA = 0x0;
+	private static final int HEADERS = 0x1;
+	private static final int PRIORITY = 0x2;
+	private static final int RST_STREAM = 0x3;
+	private static final int SETTINGS = 0x4;
+	private static final int PUSH_PROMISE = 0x5;
+	private static final int PING = 0x6;
+	private static final int GOAWAY = 0x7;
+	private static final int WINDOW_UPDATE = 0x8;
+	private static final int CONTINUATION = 0x9;
+
+	/* Frame flags. */
+	private static final int END_STREAM = 0x1;
+	private static final int ACK = 0x1;
+	private static final int END_HEADERS = 0x4;
+	private static final int PADDED = 0x8;
+	private static final int PRIORITY_FLAG = 0x20;
+
+	/* Settings. */
+	private static final int SETTINGS_HEADER_TABLE_SIZE = 0x1;
+	private static final int SETTINGS_ENABLE_PUSH = 0x2;
+	private static final int SETTINGS_MAX_CONCURRENT_STREAMS = 0x3;
+	private static final int SETTINGS_INITIAL_WINDOW_SIZE = 0x4;
+	private static final int SETTINGS_MAX_FRAME_SIZE = 0x5;
+	private static final int SETTINGS_MAX_HEADER_LIST_SIZE = 0x6;
+
+	/* Error codes. */
+	private static final int NO_ERROR = 0x0;
+	private static final int PROTOCOL_ERROR = 0x1;
+	private static final int INTERNAL_ERROR = 0x2;
+	private static final int FLOW_CONTROL_ERROR = 0x3;
+	private static final int STREAM_CLOSED = 0x5;
+	private static final int FRAME_SIZE_ERROR = 0x6;
+	private static final int REFUSED_STREAM = 0x7;
+	private static final int CANCEL = 0x8;
+	private static final int COMPRESSION_ERROR = 0x9;
+
+	/**
+	 * The largest frame payload, both ways.  It is the default, which every
+	 * client must accept, so there is no need to ask for more.
+	 */
+	private static final int MAX_FRAME_SIZE = 16384;
+
+	/** The most streams a client may have open at once. */
+	private static final int MAX_CONCURRENT_STREAMS = 100;
+
+	/** The largest header list accepted, the same as for HTTP/1.1. */
+	private static final int MAX_HEADER_LIST_SIZE = RequestParser.MAX_HEADER_BYTES;
+
+	/** The largest compressed header block read before giving up. */
+	private static final int MAX_HEADER_BLOCK_SIZE = 4 * MAX_HEADER_LIST_SIZE;
+
+	/** The flow control window that streams and connections start with. */
+	private static final int DEFAULT_WINDOW_SIZE = 65535;
+
+	/** The largest a flow control window may be. */
+	private static final long MAX_WINDOW_SIZE = Integer.MAX_VALUE;
+
+	/** The headers that only mean something to an HTTP/1.1 connection. */
+	private static final String[] CONNECTION_HEADERS = {
+		"connection", "keep-alive", "proxy-connection", "transfer-encoding", "upgrade"
+	};
+
+	/**
+	 * A connection error: something that breaks the protocol badly enough
+	 * that the connection has to be closed.
+	 */
+	private static class ConnectionError extends IOException {
+
+		private static final long serialVersionUID = 1L;
+
+		final int code;
+
+		ConnectionError(int code, String message) {
+			super(message);
+			this.code = code;
+		}
+	}
+
+	private final Socket socket;
+	private final RequestHandler handler;
+	private final InetAddress client;
+	private final int idleTimeout;
+	private DataInputStream in;
+	private OutputStream out;
+
+	/* Only used by the thread that reads frames. */
+	private final Hpack.Decoder decoder = new Hpack.Decoder();
+	private final byte[] payload = new byte[MAX_FRAME_SIZE];
+	private final ByteArrayOutputStream headerBlock = new ByteArrayOutputStream();
+	private int headerStream;
+	private int lastStreamId;
+
+	/* Only used while holding the lock on out. */
+	private final Hpack.Encoder encoder = new Hpack.Encoder();
+	private final byte[] frameHeader = new byte[9];
+	private final byte[] copyBuffer = new byte[MAX_FRAME_SIZE];
+
+	/* Guarded by this. */
+	private final Map<Integer, Stream> streams = new HashMap<>();
+	private long connectionWindow = DEFAULT_WINDOW_SIZE;
+	private long initialWindow = DEFAULT_WINDOW_SIZE;
+	private boolean closed;
+
+	/**
+	 * Creates the connection.  Nothing happens until serve() is called.
+	 *
+	 * @param socket The connection to the client, in blocking mode.
+	 * @param handler Works out the response to each request.
+	 * @param idleTimeout How many milliseconds the connection may be idle
+	 *     before it is closed.
+	 */
+	Http2Connection(Socket socket, RequestHandler handler, int idleTimeout) {
+		this.socket = socket;
+		this.handler = handler;
+		this.client = socket.getInetAddress();
+		this.idleTimeout = idleTimeout;
+	}
+
+	/**
+	 * Tests whether a request read by an HTTP/1.1 engine starts HTTP/2, so
+	 * that the connection should be given to serve().
+	 *
+	 * @param request The request.
+	 * @param first True if it is the first request on the connection,
+	 *     which is the only place the preface can be.
+	 * @return True for the start of the preface, or a GET that asks to
+	 *     upgrade to h2c.
+	 */
+	static boolean startsHttp2(Request request, boolean first) {
+		if (first && request.command().equals("PRI")) {
+			return true;
+		}
+		if (!request.isComplete() || !request.command().equalsIgnoreCase("get")
+						|| !"HTTP/1.1".equals(request.protocol())) {
+			return false;
+		}
+		String connection = request.header("connection");
+		return Request.hasToken(request.header("upgrade"), "h2c")
+						&& request.header("http2-settings") != null
+						&& Request.hasToken(connection, "upgrade")
+						&& Request.hasToken(connection, "http2-settings");
+	}
+
+	/**
+	 * Speaks HTTP/2 with the client until the connection ends.  The socket
+	 * is left for the caller to close.
+	 *
+	 * @param first The request that startsHttp2() accepted.  Its headers
+	 *     must stay readable until the connection ends.
+	 * @param early Any bytes that arrived after that request and haven't
+	 *     been used, or null.
+	 * @throws IOException If the connection fails.
+	 */
+	void serve(Request first, ByteBuffer early) throws IOException {
+		InputStream input = socket.getInputStream();
+		if (early != null && early.hasRemaining()) {
+			byte[] bytes = new byte[early.remaining()];
+			early.get(bytes);
+			input = new SequenceInputStream(new ByteArrayInputStream(bytes), input);
+		}
+		in = new DataInputStream(new BufferedInputStream(input, MAX_FRAME_SIZE + 9));
+		out = new BufferedOutputStream(socket.getOutputStream(), MAX_FRAME_SIZE + 9);
+		socket.setSoTimeout(idleTimeout);
+
+		boolean upgrade = !first.command().equals("PRI");
+		if (upgrade) {
+			byte[] settings = Base64.getUrlDecoder().decode(first.header("http2-settings").trim());
+			applySettings(settings, settings.length);
+			out.write("HTTP/1.1 101 Switching Protocols\r\nConnection: Upgrade\r\nUpgrade: h2c\r\n\r\n"
+							.getBytes(StandardCharsets.ISO_8859_1));
+		}
+		writeSettings();
+		if (upgrade) {
+			// The request that asked for the upgrade is answered as stream 1,
+			// which the client has already finished sending.
+			lastStreamId = 1;
+			startStream(1, first);
+		}
+
+		try {
+			readPreface(upgrade ? 0 : PREFACE_COMMAND_LENGTH);
+			readFrames();
+			waitForStreams();
+		} catch (ConnectionError e) {
+			goAway(e.code, e.getMessage());
+		} finally {
+			synchronized (this) {
+				closed = true;
+				notifyAll();
+			}
+		}
+	}
+
+	/**
+	 * Reads the rest of the client's preface, which must come before its
+	 * first frame.
+	 *
+	 * @param from How much of the preface has been read already.
+	 */
+	private void readPreface(int from) throws IOException {
+		byte[] rest = new byte[PREFACE.length - from];
+		in.readFully(rest);
+		for (int i = 0; i < rest.length; i++) {
+			if (rest[i] != PREFACE[from + i]) {
+				throw new ConnectionError(PROTOCOL_ERROR, "Bad connection preface.");
+			}
+		}
+	}
+
+	/**
+	 * Reads frames and acts on them until the client closes the connection
+	 * or says goodbye, or the connection has been idle for too long.
+	 *
+	 * @throws ConnectionError If the client breaks the protocol.
+	 */
+	private void readFrames() throws IOException {
+		boolean settingsSeen = false;
+		while (true) {
+			int firstByte;
+			try {
+				firstByte = in.read();
+			} catch (SocketTimeoutException e) {
+				synchronized (this) {
+					if (!streams.isEmpty()) {
+						continue;
+					}
+				}
+				goAway(NO_ERROR, null);
+				return;
+			}
+			if (firstByte < 0) {
+				return;
+			}
+			int length = (firstByte << 16) | in.readUnsignedShort();
+			int type = in.readUnsignedByte();
+			int flags = in.readUnsignedByte();
+			int streamId = in.readInt() & 0x7fffffff;
+			if (length > MAX_FRAME_SIZE) {
+				throw new ConnectionError(FRAME_SIZE_ERROR, "Frame of " + length + " bytes.");
+			}
+			in.readFully(payload, 0, length);
+
+			if (!settingsSeen && type != SETTINGS) {
+				throw new ConnectionError(PROTOCOL_ERROR, "The first frame wasn't SETTINGS.");
+			}
+			if (headerStream != 0 && (type != CONTINUATION || streamId != headerStream)) {
+				throw new ConnectionError(PROTOCOL_ERROR, "Header block was interrupted.");
+			}
+
+			switch (type) {
+			case DATA:
+				readData(streamId, flags, length);
+				break;
+			case HEADERS:
+				readHeaders(streamId, flags, length);
+				break;
+			case PRIORITY:
+				if (length != 5) {
+					throw new ConnectionError(FRAME_SIZE_ERROR, "PRIORITY frame of " + length + " bytes.");
+				}
+				break;
+			case RST_STREAM:
+				if (streamId == 0 || length != 4) {
+					throw new ConnectionError(PROTOCOL_ERROR, "Bad RST_STREAM frame.");
+				}
+				synchronized (this) {
+					Stream stream = streams.get(streamId);
+					if (stream != null) {
+						stream.reset = true;
+						notifyAll();
+					}
+				}
+				break;
+			case SETTINGS:
+				if (streamId != 0) {
+					throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS frame on a stream.");
+				}
+				if ((flags & ACK) != 0) {
+					if (length != 0) {
+						throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS ACK with a payload.");
+					}
+				} else {
+					applySettings(payload, length);
+					writeFrame(SETTINGS, ACK, 0, payload, 0, 0);
+				}
+				settingsSeen = true;
+				break;
+			case PUSH_PROMISE:
+				throw new ConnectionError(PROTOCOL_ERROR, "Clients can't push.");
+			case PING:
+				if (streamId != 0 || length != 8) {
+					throw new ConnectionError(FRAME_SIZE_ERROR, "Bad PING frame.");
+				}
+				if ((flags & ACK) == 0) {
+					writeFrame(PING, ACK, 0, payload, 0, 8);
+				}
+				break;
+			case GOAWAY:
+				return;
+			case WINDOW_UPDATE:
+				readWindowUpdate(streamId, length);
+				break;
+			case CONTINUATION:
+				if (headerStream == 0) {
+					throw new ConnectionError(PROTOCOL_ERROR, "CONTINUATION without HEADERS.");
+				}
+				addToHeaderBlock(payload, 0, length);
+				if ((flags & END_HEADERS) != 0) {
+					endHeaderBlock();
+				}
+				break;
+			default:
+				// Frames of unknown types are ignored.
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Throws away a DATA frame, and lets the client send as much again.
+	 */
+	private void readData(int streamId, int flags, int length) throws IOException {
+		if (streamId == 0) {
+			throw new ConnectionError(PROTOCOL_ERROR, "DATA frame on stream 0.");
+		}
+		if (length == 0) {
+			return;
+		}
+		writeWindowUpdate(0, length);
+		boolean open;
+		synchronized (this) {
+			open = streams.containsKey(streamId);
+		}
+		if (open && (flags & END_STREAM) == 0) {
+			writeWindowUpdate(streamId, length);
+		}
+	}
+
+	/**
+	 * Starts collecting a header block from a HEADERS frame.
+	 */
+	private void readHeaders(int streamId, int flags, int length) throws IOException {
+		if (streamId == 0 || (streamId & 1) == 0) {
+			throw new ConnectionError(PROTOCOL_ERROR, "HEADERS frame on stream " + streamId + ".");
+		}
+		int start = 0;
+		int end = length;
+		if ((flags & PADDED) != 0) {
+			if (length < 1) {
+				throw new ConnectionError(PROTOCOL_ERROR, "Padded HEADERS frame is empty.");
+			}
+			start = 1;
+			end -= payload[0] & 0xff;
+		}
+		if ((flags & PRIORITY_FLAG) != 0) {
+			start += 5;
+		}
+		if (start > end) {
+			throw new ConnectionError(PROTOCOL_ERROR, "HEADERS frame is too short.");
+		}
+		headerStream = streamId;
+		headerBlock.reset();
+		addToHeaderBlock(payload, start, end - start);
+		if ((flags & END_HEADERS) != 0) {
+			endHeaderBlock();
+		}
+	}
+
+	private void addToHeaderBlock(byte[] bytes, int start, int length) throws IOException {
+		if (headerBlock.size() + length > MAX_HEADER_BLOCK_SIZE) {
+			throw new ConnectionError(PROTOCOL_ERROR, "Header block is too large.");
+		}
+		headerBlock.write(bytes, start, length);
+	}
+
+	/**
+	 * Decodes a header block that is complete, and starts a stream for it
+	 * if it is a new request.  Trailers after a request body are ignored.
+	 */
+	private void endHeaderBlock() throws IOException {
+		int streamId = headerStream;
+		headerStream = 0;
+		List<String[]> headers;
+		try {
+			headers = decoder.decode(headerBlock.toByteArray(), headerBlock.size());
+		} catch (IOException e) {
+			throw new ConnectionError(COMPRESSION_ERROR, e.getMessage());
+		}
+		if (streamId <= lastStreamId) {
+			synchronized (this) {
+				if (streams.containsKey(streamId)) {
+					return;
+				}
+			}
+			throw new ConnectionError(STREAM_CLOSED, "HEADERS frame on closed stream " + streamId + ".");
+		}
+		lastStreamId = streamId;
+		boolean refused;
+		synchronized (this) {
+			refused = streams.size() >= MAX_CONCURRENT_STREAMS;
+		}
+		if (refused) {
+			writeReset(streamId, REFUSED_STREAM);
+			return;
+		}
+		startStream(streamId, toRequest(headers));
+	}
+
+	/**
+	 * Turns the headers of an HTTP/2 request into a Request, as if the
+	 * HTTP/1.1 parser had read it.  A request counts as complete once its
+	 * headers are, since any body it has is thrown away.
+	 *
+	 * @param headers The decoded headers.
+	 * @return The request.
+	 */
+	private static Request toRequest(List<String[]> headers) {
+		String method = null;
+		String path = null;
+		String authority = null;
+		boolean malformed = false;
+		boolean regular = false;
+		boolean host = false;
+		int size = 0;
+
+		ByteArrayOutputStream head = new ByteArrayOutputStream();
+		int[] fields = new int[4 * (headers.size() + 1)];
+		int count = 0;
+		for (String[] header : headers) {
+			String name = header[0];
+			String value = header[1];
+			size += Hpack.entrySize(name, value);
+			if (name.startsWith(":")) {
+				if (regular) {
+					malformed = true;
+				} else if (name.equals(":method")) {
+					method = value;
+				} else if (name.equals(":path")) {
+					path = value;
+				} else if (name.equals(":authority")) {
+					authority = value;
+				} else if (!name.equals(":scheme")) {
+					malformed = true;
+				}
+				continue;
+			}
+			regular = true;
+			if (!name.equals(name.toLowerCase()) || isConnectionHeader(name)) {
+				malformed = true;
+			}
+			host |= name.equals("host");
+			count = addField(head, fields, count, name, value);
+		}
+		if (authority != null && !host) {
+			count = addField(head, fields, count, "host", authority);
+		}
+		if (method == null || path == null || path.isEmpty()) {
+			malformed = true;
+		}
+
+		boolean uriTooLong = path != null && path.length() > RequestParser.MAX_REQUEST_LINE_LENGTH;
+		boolean tooLarge = size > MAX_HEADER_LIST_SIZE || count > RequestParser.MAX_HEADERS;
+		String command = method == null ? "" : method;
+		String fileName = path == null ? null
+						: new String(path.getBytes(StandardCharsets.ISO_8859_1), StandardCharsets.UTF_8);
+		return new Request(command, fileName, PROTOCOL, head.toByteArray(), fields, count,
+						!malformed && !uriTooLong && !tooLarge, uriTooLong, tooLarge,
+						malformed);
+	}
+
+	/**
+	 * Adds a header to the bytes a Request reads its headers from.
+	 *
+	 * @return The new number of headers.
+	 */
+	private static int addField(ByteArrayOutputStream head, int[] fields, int count, String name,
+					String value) {
+		byte[] nameBytes = name.getBytes(StandardCharsets.ISO_8859_1);
+		byte[] valueBytes = value.getBytes(StandardCharsets.ISO_8859_1);
+		int f = 4 * count;
+		fields[f] = head.size();
+		head.write(nameBytes, 0, nameBytes.length);
+		fields[f + 1] = head.size();
+		fields[f + 2] = head.size();
+		head.write(valueBytes, 0, valueBytes.length);
+		fields[f + 3] = head.size();
+		return count + 1;
+	}
+
+	private static boolean isConnectionHeader(String name) {
+		for (String connectionHeader : CONNECTION_HEADERS) {
+			if (connectionHeader.equals(name)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	/**
+	 * Opens a window a little wider, or rejects the update.
+	 */
+	private void readWindowUpdate(int streamId, int length) throws IOException {
+		if (length != 4) {
+			throw new ConnectionError(FRAME_SIZE_ERROR, "WINDOW_UPDATE frame of " + length + " bytes.");
+		}
+		int increment = (((payload[0] & 0x7f) << 24) | ((payload[1] & 0xff) << 16)
+						| ((payload[2] & 0xff) << 8) | (payload[3] & 0xff));
+		int resetCode = 0;
+		synchronized (this) {
+			if (streamId == 0) {
+				if (increment == 0) {
+					throw new ConnectionError(PROTOCOL_ERROR, "WINDOW_UPDATE of 0.");
+				}
+				connectionWindow += increment;
+				if (connectionWindow > MAX_WINDOW_SIZE) {
+					throw new ConnectionError(FLOW_CONTROL_ERROR, "Connection window too large.");
+				}
+			} else {
+				Stream stream = streams.get(streamId);
+				if (stream == null) {
+					return;
+				}
+				stream.window += increment;
+				if (increment == 0) {
+					resetCode = PROTOCOL_ERROR;
+				} else if (stream.window > MAX_WINDOW_SIZE) {
+					resetCode = FLOW_CONTROL_ERROR;
+				}
+				if (resetCode != 0) {
+					stream.reset = true;
+				}
+			}
+			notifyAll();
+		}
+		if (resetCode != 0) {
+			writeReset(streamId, resetCode);
+		}
+	}
+
+	/**
+	 * Applies the client's settings, from a SETTINGS frame or the
+	 * HTTP2-Settings header of an upgrade.
+	 */
+	private void applySettings(byte[] settings, int length) throws IOException {
+		if (length % 6 != 0) {
+			throw new ConnectionError(FRAME_SIZE_ERROR, "SETTINGS of " + length + " bytes.");
+		}
+		for (int i = 0; i < length; i += 6) {
+			int id = ((settings[i] & 0xff) << 8) | (settings[i + 1] & 0xff);
+			long value = ((settings[i + 2] & 0xffL) << 24) | ((settings[i + 3] & 0xff) << 16)
+							| ((settings[i + 4] & 0xff) << 8) | (settings[i + 5] & 0xff);
+			switch (id) {
+			case SETTINGS_HEADER_TABLE_SIZE:
+				synchronized (out) {
+					encoder.setMaxTableSize(value);
+				}
+				break;
+			case SETTINGS_ENABLE_PUSH:
+				if (value > 1) {
+					throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS_ENABLE_PUSH of " + value + ".");
+				}
+				break;
+			case SETTINGS_INITIAL_WINDOW_SIZE:
+				if (value > MAX_WINDOW_SIZE) {
+					throw new ConnectionError(FLOW_CONTROL_ERROR, "Initial window too large.");
+				}
+				synchronized (this) {
+					// Open streams' windows change by as much as the setting did.
+					for (Stream stream : streams.values()) {
+						stream.window += value - initialWindow;
+					}
+					initialWindow = value;
+					notifyAll();
+				}
+				break;
+			case SETTINGS_MAX_FRAME_SIZE:
+				if (value < MAX_FRAME_SIZE || value > 0xffffff) {
+					throw new ConnectionError(PROTOCOL_ERROR, "SETTINGS_MAX_FRAME_SIZE of " + value + ".");
+				}
+				break;
+			default:
+				// The other settings don't matter to a server that
+				// doesn't push, and unknown ones are ignored.
+				break;
+			}
+		}
+	}
+
+	/**
+	 * Waits for the streams that are still open to finish, for up to the
+	 * idle timeout.
+	 */
+	private synchronized void waitForStreams() {
+		long deadline = System.currentTimeMillis() + idleTimeout;
+		while (!streams.isEmpty()) {
+			long wait = deadline - System.currentTimeMillis();
+			if (wait <= 0) {
+				return;
+			}
+			try {
+				wait(wait);
+			} catch (InterruptedException e) {
+				return;
+			}
+		}
+	}
+
+	/**
+	 * Starts answering a request on a virtual thread of its own.
+	 */
+	private void startStream(int streamId, Request request) {
+		Stream stream = new Stream(streamId, request);
+		synchronized (this) {
+			stream.window = initialWindow;
+			streams.put(streamId, stream);
+		}
+		Thread.ofVirtual().name("h2-stream-" + streamId).start(stream::respond);
+	}
+
+	/**
+	 * One request and its response.  The response is written to the stream
+	 * as if it were the socket of an HTTP/1.1 connection: the status line
+	 * and headers become a HEADERS frame, and the rest becomes DATA frames,
+	 * as big as the flow control windows allow.
+	 */
+	private class Stream implements WritableByteChannel {
+
+		final int id;
+		final Request request;
+
+		/* Guarded by Http2Connection.this. */
+		long window;
+		boolean reset;
+
+		/* Only used by the stream's own thread. */
+		private final ByteArrayOutputStream head = new ByteArrayOutputStream(256);
+		private int lineLength;
+		private boolean headSent;
+
+		Stream(int id, Request request) {
+			this.id = id;
+			this.request = request;
+		}
+
+		/**
+		 * Works out the response and sends it.
+		 */
+		void respond() {
+			long started = System.nanoTime();
+			Response response = handler.handle(request, client, true);
+			try {
+				if (response.status() == 0) {
+					// The reply to "index" isn't HTTP, so it is all body.
+					List<String[]> headers = new ArrayList<>();
+					headers.add(new String[] { ":status", "200" });
+					headers.add(new String[] { "content-type", "text/plain" });
+					writeHeaders(id, headers);
+					headSent = true;
+				}
+				response.writeTo(this);
+				if (!headSent) {
+					throw new IOException("The response had no end of headers.");
+				}
+				writeFrame(DATA, END_STREAM, id, copyBuffer, 0, 0);
+				handler.sent(request, response, client, started);
+			} catch (IOException e) {
+				boolean wasReset;
+				synchronized (Http2Connection.this) {
+					wasReset = reset || closed;
+				}
+				if (!wasReset) {
+					handler.error(client + " stream " + id + " " + e);
+					try {
+						writeReset(id, INTERNAL_ERROR);
+					} catch (IOException ignored) {
+					}
+				}
+			} finally {
+				response.close();
+				synchronized (Http2Connection.this) {
+					streams.remove(id);
+					Http2Connection.this.notifyAll();
+				}
+			}
+		}
+
+		/**
+		 * Takes bytes of the HTTP/1.1 response.  It waits until the flow
+		 * control windows let it send them, so it always takes them all.
+		 */
+		@Override
+		public int write(ByteBuffer src) throws IOException {
+			int taken = 0;
+			while (!headSent && src.hasRemaining()) {
+				int b = src.get();
+				head.write(b);
+				taken++;
+				if (b != '\n') {
+					lineLength += b == '\r' ? 0 : 1;
+				} else if (lineLength > 0) {
+					lineLength = 0;
+				} else {
+					// A blank line ends the headers.
+					writeHeaders(id, toHeaders(head.toByteArray()));
+					headSent = true;
+				}
+			}
+			while (src.hasRemaining()) {
+				int n = reserve(src.remaining());
+				writeData(src, n);
+				taken += n;
+			}
+			return taken;
+		}
+
+		/**
+		 * Waits until the stream and the connection may both send at least
+		 * a byte, and takes up to <code>wanted</code> bytes of their
+		 * windows.
+		 *
+		 * @return How many bytes may be sent, no more than a frame.
+		 * @throws IOException If the stream is reset, the connection closes,
+		 *     or the client keeps the window shut for the idle timeout.
+		 */
+		private int reserve(int wanted) throws IOException {
+			synchronized (Http2Connection.this) {
+				long deadline = System.currentTimeMillis() + idleTimeout;
+				while (!reset && !closed) {
+					long n = Math.min(Math.min(wanted, MAX_FRAME_SIZE), Math.min(window, connectionWindow));
+					if (n > 0) {
+						window -= n;
+						connectionWindow -= n;
+						return (int) n;
+					}
+					long wait = deadline - System.currentTimeMillis();
+					if (wait <= 0) {
+						break;
+					}
+					try {
+						Http2Connection.this.wait(wait);
+					} catch (InterruptedException e) {
+						throw new IOException("Interrupted while waiting for the window.");
+					}
+				}
+				if (reset || closed) {
+					throw new IOException("The stream was closed.");
+				}
+				reset = true;
+			}
+			writeReset(id, CANCEL);
+			throw new IOException("The client's flow control window stayed shut.");
+		}
+
+		/** Sends n bytes of a buffer as a DATA frame. */
+		private void writeData(ByteBuffer src, int n) throws IOException {
+			synchronized (out) {
+				if (src.hasArray()) {
+					writeFrame(DATA, 0, id, src.array(), src.arrayOffset() + src.position(), n);
+					src.position(src.position() + n);
+				} else {
+					src.get(copyBuffer, 0, n);
+					writeFrame(DATA, 0, id, copyBuffer, 0, n);
+				}
+			}
+		}
+
+		@Override
+		public boolean isOpen() {
+			return true;
+		}
+
+		@Override
+		public void close() {
+		}
+	}
+
+	/**
+	 * Turns the status line and headers of an HTTP/1.1 response into the
+	 * headers of an HTTP/2 response: ":status", then the rest with their
+	 * names in lowercase, leaving out the ones that are only about the
+	 * HTTP/1.1 connection.
+	 */
+	private static List<String[]> toHeaders(byte[] head) throws IOException {
+		String[] lines = new String(head, StandardCharsets.ISO_8859_1).split("\r?\n");
+		if (lines.length == 0 || lines[0].length() < 12 || !lines[0].startsWith("HTTP/")) {
+			throw new IOException("Bad status line in response.");
+		}
+		List<String[]> headers = new ArrayList<>(lines.length);
+		headers.add(new String[] { ":status", lines[0].substring(9, 12) });
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon <= 0) {
+				continue;
+			}
+			String name = lines[i].substring(0, colon).trim().toLowerCase();
+			if (!isConnectionHeader(name)) {
+				headers.add(new String[] { name, lines[i].substring(colon + 1).trim() });
+			}
+		}
+		return headers;
+	}
+
+	/** Sends the server's settings, which must be its first frame. */
+	private void writeSettings() throws IOException {
+		byte[] settings = new byte[18];
+		putSetting(settings, 0, SETTINGS_MAX_CONCURRENT_STREAMS, MAX_CONCURRENT_STREAMS);
+		putSetting(settings, 6, SETTINGS_MAX_FRAME_SIZE, MAX_FRAME_SIZE);
+		putSetting(settings, 12, SETTINGS_MAX_HEADER_LIST_SIZE, MAX_HEADER_LIST_SIZE);
+		writeFrame(SETTINGS, 0, 0, settings, 0, settings.length);
+	}
+
+	private static void putSetting(byte[] settings, int at, int id, int value) {
+		settings[at] = (byte) (id >>> 8);
+		settings[at + 1] = (byte) id;
+		settings[at + 2] = (byte) (value >>> 24);
+		settings[at + 3] = (byte) (value >>> 16);
+		settings[at + 4] = (byte) (value >>> 8);
+		settings[at + 5] = (byte) value;
+	}
+
+	/**
+	 * Encodes and sends the headers of a response, in a HEADERS frame and
+	 * as many CONTINUATION frames as it takes.  Encoding and sending happen
+	 * together, since the client decodes header blocks in the order they
+	 * arrive.
+	 */
+	private void writeHeaders(int streamId, List<String[]> headers) throws IOException {
+		synchronized (out) {
+			ByteArrayOutputStream block = new ByteArrayOutputStream(256);
+			encoder.encode(headers, block);
+			byte[] bytes = block.toByteArray();
+			int type = HEADERS;
+			int offset = 0;
+			do {
+				int n = Math.min(bytes.length - offset, MAX_FRAME_SIZE);
+				int flags = offset + n == bytes.length ? END_HEADERS : 0;
+				writeFrame(type, flags, streamId, bytes, offset, n);
+				type = CONTINUATION;
+				offset += n;
+			} while (offset < bytes.length);
+		}
+	}
+
+	private void writeWindowUpdate(int streamId, int increment) throws IOException {
+		byte[] bytes = { (byte) (increment >>> 24), (byte) (increment >>> 16),
+						(byte) (increment >>> 8), (byte) increment };
+		writeFrame(WINDOW_UPDATE, 0, streamId, bytes, 0, 4);
+	}
+
+	private void writeReset(int streamId, int code) throws IOException {
+		byte[] bytes = { (byte) (code >>> 24), (byte) (code >>> 16), (byte) (code >>> 8), (byte) code };
+		writeFrame(RST_STREAM, 0, streamId, bytes, 0, 4);
+	}
+
+	/**
+	 * Tells the client the connection is closing, and which streams were
+	 * or will be answered.
+	 *
+	 * @param code The error code, or NO_ERROR.
+	 * @param message What went wrong, or null.
+	 */
+	private void goAway(int code, String message) {
+		byte[] debug = message == null ? new byte[0] : message.getBytes(StandardCharsets.UTF_8);
+		byte[] bytes = new byte[8 + debug.length];
+		for (int i = 0; i < 4; i++) {
+			bytes[i] = (byte) (lastStreamId >>> (24 - 8 * i));
+			bytes[4 + i] = (byte) (code >>> (24 - 8 * i));
+		}
+		System.arraycopy(debug, 0, bytes, 8, debug.length);
+		try {
+			writeFrame(GOAWAY, 0, 0, bytes, 0, bytes.length);
+		} catch (IOException e) {
+		}
+		if (code != NO_ERROR) {
+			handler.error(client + " HTTP/2 " + message);
+		}
+	}
+
+	/**
+	 * Sends one frame.  Frames are sent whole, one at a time, and flushed
+	 * straight away, since the client may be waiting for any of them.
+	 */
+	private void writeFrame(int type, int flags, int streamId, byte[] bytes, int offset, int length)
+					throws IOException {
+		synchronized (out) {
+			frameHeader[0] = (byte) (length >>> 16);
+			frameHeader[1] = (byte) (length >>> 8);
+			frameHeader[2] = (byte) length;
+			frameHeader[3] = (byte) type;
+			frameHeader[4] = (byte) flags;
+			frameHeader[5] = (byte) (streamId >>> 24);
+			frameHeader[6] = (byte) (streamId >>> 16);
+			frameHeader[7] = (byte) (streamId >>> 8);
+			frameHeader[8] = (byte) streamId;
+			out.write(frameHeader);
+			out.write(bytes, offset, length);
+			out.flush();
+		}
+	}
+}
@@ -0,0 +1,121 @@
+package simplewebserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts how long requests took, in microseconds, closely enough to tell
+ * the median, the 99th percentile or any other from the counts.
+ * <p>
+ * It works the way HdrHistogram does.  Values below 128 each have a bucket
+ * of their own.  Above that, each power of two is split into 64 buckets of
+ * equal width, so a value is never counted more than about 1.6% away from
+ * where it really is, and the buckets from a microsecond to 19 hours fit
+ * in about 2,000 longs.  Recording a value only increments a bucket, so
+ * any number of threads can record at once without waiting for each
+ * other.
+ * <p>
+ * It is public so that the load test in testwebserver can count its
+ * latencies the same way the server does.
+ */
+public class LatencyHistogram {
+
+	/** Each power of two is split into 2 to the power of this buckets. */
+	private static final int SUB_BUCKET_BITS = 6;
+	private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+
+	/** The largest value counted as it is; larger values count as this. */
+	static final long MAX_VALUE = (1L << 36) - 1;
+
+	private final AtomicLongArray counts = new AtomicLongArray(indexOf(MAX_VALUE) + 1);
+	private final LongAdder sum = new LongAdder();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * Counts one value.
+	 *
+	 * @param micros The value, in microseconds.
+	 */
+	public void record(long micros) {
+		long value = Math.max(0, Math.min(micros, MAX_VALUE));
+		counts.incrementAndGet(indexOf(value));
+		sum.add(value);
+		long most = max.get();
+		while (value > most && !max.compareAndSet(most, value)) {
+			most = max.get();
+		}
+	}
+
+	/** @return The total of all the values counted, in microseconds. */
+	public long sum() {
+		return sum.sum();
+	}
+
+	/** @return The largest value counted, in microseconds. */
+	public long max() {
+		return max.get();
+	}
+
+	/**
+	 * Finds the values at some quantiles, with one pass over the buckets.
+	 * Values that are recorded meanwhile may or may not be included.
+	 *
+	 * @param quantiles The quantiles, between 0 and 1, such as 0.99 for the
+	 *     99th percentile, in increasing order.
+	 * @param total An array of one element, which is set to the number of
+	 *     values that the answer is based on.
+	 * @return For each quantile, the largest value that could be in its
+	 *     bucket, or 0 if nothing has been counted.
+	 */
+	public long[] valuesAt(double[] quantiles, long[] total) {
+		long[] snapshot = new long[counts.length()];
+		long count = 0;
+		for (int i = 0; i < snapshot.length; i++) {
+			snapshot[i] = counts.get(i);
+			count += snapshot[i];
+		}
+		total[0] = count;
+
+		long[] values = new long[quantiles.length];
+		if (count == 0) {
+			return values;
+		}
+		long most = max();
+		int bucket = 0;
+		long seen = snapshot[0];
+		for (int q = 0; q < quantiles.length; q++) {
+			long rank = Math.max(1, (long) Math.ceil(quantiles[q] * count));
+			while (seen < rank && bucket < snapshot.length - 1) {
+				bucket++;
+				seen += snapshot[bucket];
+			}
+			values[q] = Math.min(highestIn(bucket), most);
+		}
+		return values;
+	}
+
+	/**
+	 * Returns the bucket a value is counted in.  The buckets are numbered
+	 * in order of the values they hold, without gaps.
+	 */
+	static int indexOf(long value) {
+		if (value < SUB_BUCKETS) {
+			return (int) value;
+		}
+		int shift = 63 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+		return (shift + 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+	}
+
+	/**
+	 * Returns the largest value that is counted in a bucket.
+	 */
+	static long highestIn(int index) {
+		if (index < SUB_BUCKETS) {
+			return index;
+		}
+		int shift = index / SUB_BUCKETS - 1;
+		long mantissa = index % SUB_BUCKETS + SUB_BUCKETS;
+		return ((mantissa + 1) << shift) - 1;
+	}
+}
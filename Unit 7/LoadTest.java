@@ -0,0 +1,777 @@
+package testwebserver;
+
+import java.io.BufferedReader;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Locale;
+import java.util.PriorityQueue;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import simplewebserver.LatencyHistogram;
+import simplewebserver.SimpleWebServer;
+
+/**
+ * Puts SimpleWebServer under load and measures how fast it answers.  It is
+ * run with
+ * <pre>
+ * java testwebserver.TestWebServer load [name=value ...]
+ * </pre>
+ * It opens a number of connections to the server and sends requests on
+ * each of them for a while: a mix of "index", GET requests for files named
+ * in a manifest, and requests that fail, which are a GET for a file that
+ * doesn't exist, a command the server doesn't know and a request for a
+ * protocol it doesn't speak.  GETs use HTTP/1.1 keep-alive, and a
+ * connection is opened again whenever the server closes it.  At the end it
+ * prints the throughput and the percentiles of the latency.
+ * <p>
+ * With rate=0 each connection sends its next request as soon as the last
+ * response has arrived, a closed loop, which shows the most the server can
+ * do for that many clients.  With a rate, requests are sent on a fixed
+ * schedule whatever the server is doing, an open loop, spread evenly over
+ * the connections.  A closed loop hides stalls: while the server is stuck,
+ * its clients send nothing, so only the requests that were waiting are
+ * counted as slow, although every request that should have been sent
+ * meanwhile would have waited too.  This is called coordinated omission.
+ * So in an open loop the latency of a request is counted from when the
+ * schedule says it should have been sent, not from when its connection
+ * was free to send it.  The time from actually sending it is reported
+ * separately, as the service time.
+ * <p>
+ * The options are:
+ * <pre>
+ * host=localhost     The server.
+ * port=50500         The server's port.
+ * connections=10     How many connections are open at once.
+ * io=virtual         "virtual" for a virtual thread per connection, or
+ *                    "nio" for one thread with a selector.
+ * duration=10        How many seconds are measured.
+ * warmup=2           How many seconds of requests go first, uncounted.
+ * rate=0             Requests per second over all connections, or 0 for
+ *                    a closed loop.
+ * timeout=10         How many seconds to wait for a response.
+ * mix=get:90,index:5,error:5
+ *                    How often each kind of request is sent.
+ * manifest=FILE      The paths to GET, one per line.  By default, the
+ *                    files the server lists for "index".
+ * local=false        If true, starts SimpleWebServer in this program
+ *                    first, with its access log in a temporary file.  Its
+ *                    settings are the usual simplewebserver.* system
+ *                    properties.
+ * </pre>
+ */
+class LoadTest {
+
+	/** The quantiles of the latency that are reported. */
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/** The size of the buffer responses are read into. */
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	/** How long to wait for a server started by local=true to listen. */
+	private static final long STARTUP_MILLIS = 10000;
+
+	/** How often the NIO driver looks for responses that timed out. */
+	private static final long TIMEOUT_CHECK_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+	/** A request that can be sent, already turned into bytes. */
+	private static class Target {
+
+		final byte[] bytes;
+		final boolean http;
+
+		Target(String request, boolean http) {
+			this.bytes = request.getBytes(StandardCharsets.ISO_8859_1);
+			this.http = http;
+		}
+	}
+
+	private String host = "localhost";
+	private int port = 50500;
+	private int connections = 10;
+	private String io = "virtual";
+	private double durationSeconds = 10;
+	private double warmupSeconds = 2;
+	private double rate = 0;
+	private int timeoutMillis = 10000;
+	private String mix = "get:90,index:5,error:5";
+	private String manifest;
+	private boolean local;
+
+	private InetSocketAddress address;
+	private Target[] gets;
+	private Target[] errors;
+	private Target index;
+	private int getWeight;
+	private int indexWeight;
+	private int errorWeight;
+
+	/* The System.nanoTime() when requests start, are counted and end. */
+	private long start;
+	private long measureFrom;
+	private long end;
+
+	private final LatencyHistogram latency = new LatencyHistogram();
+	private final LatencyHistogram serviceTime = new LatencyHistogram();
+	private final AtomicLongArray statuses = new AtomicLongArray(600);
+	private final LongAdder completed = new LongAdder();
+	private final LongAdder failed = new LongAdder();
+	private final LongAdder timedOut = new LongAdder();
+	private final LongAdder bytesReceived = new LongAdder();
+	private volatile String lastError;
+
+	/**
+	 * Runs a load test and prints what it found.
+	 *
+	 * @param args The options, as name=value.
+	 */
+	static void run(String[] args) {
+		LoadTest test = new LoadTest();
+		for (String arg : args) {
+			if (!test.option(arg)) {
+				System.out.println("Can't understand the option \"" + arg + "\".");
+				System.out.println("Usage: java testwebserver.TestWebServer load [name=value ...]");
+				System.out.println("The options are described in LoadTest.java.");
+				return;
+			}
+		}
+		try {
+			test.prepare();
+		} catch (IOException e) {
+			System.out.println("Can't prepare the load test: " + e.getMessage());
+			return;
+		}
+		try {
+			test.execute();
+		} catch (IOException | InterruptedException e) {
+			System.out.println("Can't finish the load test: " + e);
+			return;
+		}
+		test.report();
+	}
+
+	/**
+	 * Sets one option.
+	 *
+	 * @return False if it isn't an option, or its value is no good.
+	 */
+	private boolean option(String arg) {
+		int equals = arg.indexOf('=');
+		if (equals < 0) {
+			return false;
+		}
+		String name = arg.substring(0, equals);
+		String value = arg.substring(equals + 1);
+		try {
+			switch (name) {
+			case "host":
+				host = value;
+				return true;
+			case "port":
+				port = Integer.parseInt(value);
+				return true;
+			case "connections":
+				connections = Integer.parseInt(value);
+				return connections > 0;
+			case "io":
+				io = value;
+				return io.equals("virtual") || io.equals("nio");
+			case "duration":
+				durationSeconds = Double.parseDouble(value);
+				return durationSeconds > 0;
+			case "warmup":
+				warmupSeconds = Double.parseDouble(value);
+				return warmupSeconds >= 0;
+			case "rate":
+				rate = Double.parseDouble(value);
+				return rate >= 0;
+			case "timeout":
+				timeoutMillis = (int) (Double.parseDouble(value) * 1000);
+				return timeoutMillis > 0;
+			case "mix":
+				mix = value;
+				return true;
+			case "manifest":
+				manifest = value;
+				return true;
+			case "local":
+				local = Boolean.parseBoolean(value);
+				return true;
+			default:
+				return false;
+			}
+		} catch (NumberFormatException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Starts the server if it is local, and makes the requests that will be
+	 * sent.
+	 */
+	private void prepare() throws IOException {
+		for (String part : mix.split(",")) {
+			String[] kindAndWeight = part.split(":");
+			int weight;
+			try {
+				weight = kindAndWeight.length == 2 ? Integer.parseInt(kindAndWeight[1].trim()) : -1;
+			} catch (NumberFormatException e) {
+				weight = -1;
+			}
+			String kind = kindAndWeight[0].trim();
+			if (weight < 0) {
+				throw new IOException("The mix should look like get:90,index:5,error:5.");
+			} else if (kind.equals("get")) {
+				getWeight = weight;
+			} else if (kind.equals("index")) {
+				indexWeight = weight;
+			} else if (kind.equals("error")) {
+				errorWeight = weight;
+			} else {
+				throw new IOException("Unknown kind of request \"" + kind + "\" in the mix.");
+			}
+		}
+		if (getWeight + indexWeight + errorWeight == 0) {
+			throw new IOException("The mix has no requests in it.");
+		}
+
+		if (local) {
+			startServer();
+		}
+		address = new InetSocketAddress(host, port);
+		index = new Target("index\r\n", false);
+
+		List<String> paths = manifest != null ? readManifest() : listFiles();
+		if (paths.isEmpty() && getWeight > 0) {
+			throw new IOException("There are no files to GET.");
+		}
+		gets = new Target[paths.size()];
+		for (int i = 0; i < gets.length; i++) {
+			gets[i] = new Target(get(paths.get(i), "HTTP/1.1"), true);
+		}
+		errors = new Target[] {
+			new Target(get("/no-such-file", "HTTP/1.1"), true),  // 404
+			new Target("TEST\r\n", true),  // 501
+			new Target(get("/", "HTTP/9.9"), true)  // 400
+		};
+	}
+
+	/** Returns a GET request for a path. */
+	private String get(String path, String protocol) {
+		return "GET " + path + " " + protocol + "\r\nHost: " + host + "\r\n\r\n";
+	}
+
+	/**
+	 * Reads the paths from the manifest.  Blank lines and lines starting
+	 * with "#" are skipped.
+	 */
+	private List<String> readManifest() throws IOException {
+		List<String> paths = new ArrayList<>();
+		try (BufferedReader in = new BufferedReader(new FileReader(manifest))) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				line = line.trim();
+				if (!line.isEmpty() && !line.startsWith("#")) {
+					paths.add(line.startsWith("/") ? line : "/" + line);
+				}
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Asks the server for its list of files.  Names with spaces in them are
+	 * left out, since the server doesn't decode %20.
+	 */
+	private List<String> listFiles() throws IOException {
+		List<String> paths = new ArrayList<>();
+		try (Socket socket = new Socket()) {
+			socket.connect(address, timeoutMillis);
+			socket.setSoTimeout(timeoutMillis);
+			socket.getOutputStream().write(index.bytes);
+			BufferedReader in = new BufferedReader(new InputStreamReader(
+							socket.getInputStream(), StandardCharsets.UTF_8));
+			String line;
+			while ((line = in.readLine()) != null) {
+				if (!line.isEmpty() && line.indexOf(' ') < 0) {
+					paths.add("/" + line);
+				}
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * Starts SimpleWebServer on a thread of this program, and waits until
+	 * it is listening.
+	 */
+	private void startServer() throws IOException {
+		if (System.getProperty("simplewebserver.port") != null) {
+			port = Integer.getInteger("simplewebserver.port", port);
+		} else {
+			System.setProperty("simplewebserver.port", Integer.toString(port));
+		}
+		if (System.getProperty("simplewebserver.accessLog") == null) {
+			File log = File.createTempFile("access", ".log");
+			log.deleteOnExit();
+			System.setProperty("simplewebserver.accessLog", log.getPath());
+		}
+		Thread server = new Thread(() -> SimpleWebServer.main(new String[0]), "server");
+		server.setDaemon(true);
+		server.start();
+
+		long deadline = System.currentTimeMillis() + STARTUP_MILLIS;
+		while (true) {
+			try (Socket socket = new Socket()) {
+				socket.connect(new InetSocketAddress(host, port), 1000);
+				return;
+			} catch (IOException e) {
+				if (!server.isAlive() || System.currentTimeMillis() > deadline) {
+					throw new IOException("The server didn't start listening on port " + port + ".");
+				}
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException ie) {
+					throw new IOException("Interrupted while the server started.");
+				}
+			}
+		}
+	}
+
+	/**
+	 * Sends requests until the end of the test, and waits for the last
+	 * responses.
+	 */
+	private void execute() throws IOException, InterruptedException {
+		System.out.printf(Locale.ROOT, "Sending requests to %s:%d for %.0f s after %.0f s of warm-up...%n",
+						host, port, durationSeconds, warmupSeconds);
+		start = System.nanoTime();
+		measureFrom = start + (long) (warmupSeconds * 1e9);
+		end = measureFrom + (long) (durationSeconds * 1e9);
+		if (io.equals("nio")) {
+			runSelector();
+		} else {
+			Thread[] threads = new Thread[connections];
+			for (int i = 0; i < connections; i++) {
+				int number = i;
+				threads[i] = Thread.ofVirtual().name("load-", i).start(() -> runConnection(number));
+			}
+			for (Thread thread : threads) {
+				thread.join();
+			}
+		}
+	}
+
+	/**
+	 * Chooses the next request to send, by the weights in the mix.
+	 */
+	private Target choose(SplittableRandom random) {
+		int n = random.nextInt(getWeight + indexWeight + errorWeight);
+		if (n < getWeight) {
+			return gets[random.nextInt(gets.length)];
+		} else if (n < getWeight + indexWeight) {
+			return index;
+		} else {
+			return errors[random.nextInt(errors.length)];
+		}
+	}
+
+	/**
+	 * Returns when a request should be sent.  In an open loop the requests
+	 * are spread evenly over time and over the connections; in a closed
+	 * loop the answer is now.
+	 *
+	 * @param connection The connection's number.
+	 * @param count The number of requests already sent on it.
+	 */
+	private long scheduled(int connection, long count) {
+		if (rate <= 0) {
+			return System.nanoTime();
+		}
+		return start + (long) ((connection + (double) count * connections) * 1e9 / rate);
+	}
+
+	/**
+	 * Counts a response that has arrived, unless it was sent in the
+	 * warm-up.
+	 *
+	 * @param intended When the request should have been sent.
+	 * @param sent When it was sent.
+	 * @param reader The reader that read the response.
+	 */
+	private void finished(long intended, long sent, ResponseReader reader) {
+		if (intended < measureFrom) {
+			return;
+		}
+		long now = System.nanoTime();
+		latency.record((now - intended) / 1000);
+		serviceTime.record((now - sent) / 1000);
+		completed.increment();
+		bytesReceived.add(reader.bytes());
+		if (reader.status() < statuses.length()) {
+			statuses.incrementAndGet(reader.status());
+		}
+	}
+
+	/**
+	 * Counts a request that didn't get a response, unless it was sent in
+	 * the warm-up.
+	 */
+	private void failed(long intended, IOException e) {
+		if (intended < measureFrom) {
+			return;
+		}
+		if (e instanceof SocketTimeoutException) {
+			timedOut.increment();
+		} else {
+			failed.increment();
+		}
+		lastError = e.toString();
+	}
+
+	/**
+	 * Sends requests on one connection, on a thread of its own, and waits
+	 * for each response before sending the next.
+	 *
+	 * @param number The connection's number, from 0.
+	 */
+	private void runConnection(int number) {
+		SplittableRandom random = new SplittableRandom(number);
+		ResponseReader reader = new ResponseReader();
+		byte[] buffer = new byte[BUFFER_SIZE];
+		Socket socket = null;
+		for (long count = 0; ; count++) {
+			long intended = scheduled(number, count);
+			if (intended >= end) {
+				break;
+			}
+			long wait;
+			while ((wait = intended - System.nanoTime()) > 0) {
+				LockSupport.parkNanos(wait);
+			}
+			long sent = System.nanoTime();
+			Target target = choose(random);
+			reader.start(target.http);
+			try {
+				if (socket == null) {
+					socket = new Socket();
+					socket.setTcpNoDelay(true);
+					socket.connect(address, timeoutMillis);
+					socket.setSoTimeout(timeoutMillis);
+				}
+				OutputStream out = socket.getOutputStream();
+				out.write(target.bytes);
+				InputStream in = socket.getInputStream();
+				boolean closed = false;
+				while (true) {
+					int n = in.read(buffer);
+					if (n < 0) {
+						if (!reader.endOfInput()) {
+							throw new EOFException("The server closed the connection too soon.");
+						}
+						closed = true;
+						break;
+					}
+					if (reader.feed(ByteBuffer.wrap(buffer, 0, n))) {
+						break;
+					}
+				}
+				finished(intended, sent, reader);
+				if (closed || reader.closes()) {
+					socket.close();
+					socket = null;
+				}
+			} catch (IOException e) {
+				failed(intended, e);
+				socket = close(socket);
+			}
+		}
+		close(socket);
+	}
+
+	/** Closes a socket, if there is one, and returns null. */
+	private static Socket close(Socket socket) {
+		if (socket != null) {
+			try {
+				socket.close();
+			} catch (IOException e) {
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * One connection of the NIO driver, and the request it is sending.
+	 */
+	private class Client {
+
+		final int number;
+		final SplittableRandom random;
+		final ResponseReader reader = new ResponseReader();
+		SocketChannel channel;
+		SelectionKey key;
+		ByteBuffer request;
+		long count = -1;
+		long intended;
+		long sent;
+		boolean busy;
+
+		Client(int number) {
+			this.number = number;
+			this.random = new SplittableRandom(number);
+		}
+
+		/**
+		 * Works out when the next request should be sent.
+		 *
+		 * @return False if that is after the end of the test.
+		 */
+		boolean next() {
+			count++;
+			intended = scheduled(number, count);
+			return intended < end;
+		}
+
+		/**
+		 * Sends the request, opening a connection first if there isn't one.
+		 *
+		 * @return True if it failed straight away.
+		 */
+		boolean send(Selector selector) {
+			busy = true;
+			sent = System.nanoTime();
+			Target target = choose(random);
+			reader.start(target.http);
+			request = ByteBuffer.wrap(target.bytes);
+			try {
+				if (channel == null) {
+					channel = SocketChannel.open();
+					channel.configureBlocking(false);
+					channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+					key = channel.register(selector, SelectionKey.OP_CONNECT, this);
+					if (channel.connect(address)) {
+						write();
+					}
+				} else {
+					write();
+				}
+				return false;
+			} catch (IOException e) {
+				return fail(e);
+			}
+		}
+
+		/**
+		 * Does whatever the channel is ready for.
+		 *
+		 * @param buffer A buffer to read into.
+		 * @return True if the response is complete or the request failed.
+		 */
+		boolean ready(ByteBuffer buffer) {
+			try {
+				if (key.isConnectable()) {
+					channel.finishConnect();
+					write();
+				} else if (key.isWritable()) {
+					write();
+				} else if (key.isReadable()) {
+					while (true) {
+						buffer.clear();
+						int n = channel.read(buffer);
+						if (n < 0) {
+							if (!reader.endOfInput()) {
+								throw new EOFException("The server closed the connection too soon.");
+							}
+							finished(intended, sent, reader);
+							close();
+							busy = false;
+							return true;
+						} else if (n == 0) {
+							return false;
+						}
+						buffer.flip();
+						if (reader.feed(buffer)) {
+							finished(intended, sent, reader);
+							if (reader.closes()) {
+								close();
+							}
+							busy = false;
+							return true;
+						}
+					}
+				}
+				return false;
+			} catch (IOException e) {
+				return fail(e);
+			}
+		}
+
+		/** Writes as much of the request as the channel will take. */
+		private void write() throws IOException {
+			channel.write(request);
+			key.interestOps(request.hasRemaining() ? SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+		}
+
+		/** Counts the request as failed and closes the connection. */
+		boolean fail(IOException e) {
+			failed(intended, e);
+			close();
+			busy = false;
+			return true;
+		}
+
+		void close() {
+			if (channel != null) {
+				try {
+					channel.close();
+				} catch (IOException e) {
+				}
+			}
+			channel = null;
+			key = null;
+		}
+	}
+
+	/**
+	 * Sends requests on all the connections from this thread, with a
+	 * selector.  The selector waits in whole milliseconds, so in an open
+	 * loop a request can go up to a millisecond after its time.
+	 */
+	private void runSelector() throws IOException {
+		Selector selector = Selector.open();
+		PriorityQueue<Client> waiting = new PriorityQueue<>(connections,
+						Comparator.comparingLong((Client client) -> client.intended));
+		List<Client> clients = new ArrayList<>();
+		for (int i = 0; i < connections; i++) {
+			Client client = new Client(i);
+			clients.add(client);
+			if (client.next()) {
+				waiting.add(client);
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+		List<Client> done = new ArrayList<>();
+		long timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		long nextTimeoutCheck = System.nanoTime() + TIMEOUT_CHECK_NANOS;
+		int busy = 0;
+
+		while (!waiting.isEmpty() || busy > 0) {
+			long now = System.nanoTime();
+			while (!waiting.isEmpty() && waiting.peek().intended <= now) {
+				Client client = waiting.poll();
+				busy++;
+				if (client.send(selector)) {
+					done.add(client);
+				}
+			}
+
+			if (now >= nextTimeoutCheck) {
+				for (Client client : clients) {
+					if (client.busy && now - client.sent > timeoutNanos) {
+						client.fail(new SocketTimeoutException("No response in " + timeoutMillis + " ms."));
+						done.add(client);
+					}
+				}
+				nextTimeoutCheck = now + TIMEOUT_CHECK_NANOS;
+			}
+
+			if (done.isEmpty()) {
+				long until = waiting.isEmpty() ? nextTimeoutCheck
+								: Math.min(waiting.peek().intended, nextTimeoutCheck);
+				long millis = (until - now + 999_999) / 1_000_000;
+				if (millis > 0) {
+					selector.select(millis);
+				} else {
+					selector.selectNow();
+				}
+				for (SelectionKey key : selector.selectedKeys()) {
+					Client client = (Client) key.attachment();
+					if (key.isValid() && client.ready(buffer)) {
+						done.add(client);
+					}
+				}
+				selector.selectedKeys().clear();
+			}
+
+			for (Client client : done) {
+				busy--;
+				if (client.next()) {
+					waiting.add(client);
+				} else {
+					client.close();
+				}
+			}
+			done.clear();
+		}
+		selector.close();
+	}
+
+	/**
+	 * Prints the throughput, the responses by status code, and the
+	 * percentiles of the latency.
+	 */
+	private void report() {
+		double seconds = (end - measureFrom) / 1e9;
+		System.out.println();
+		System.out.printf(Locale.ROOT, "%d connections on %s, %s.%n", connections,
+						io.equals("nio") ? "one NIO thread" : "virtual threads",
+						rate > 0 ? String.format(Locale.ROOT, "open loop at %.0f requests/s", rate)
+										: "closed loop");
+		System.out.printf(Locale.ROOT, "Requests:      %d completed, %d failed, %d timed out%n",
+						completed.sum(), failed.sum(), timedOut.sum());
+		System.out.printf(Locale.ROOT, "Throughput:    %.1f requests/s, %.2f MB/s%n",
+						completed.sum() / seconds, bytesReceived.sum() / seconds / 1e6);
+		StringBuilder responses = new StringBuilder("Responses:    ");
+		for (int code = 0; code < statuses.length(); code++) {
+			long count = statuses.get(code);
+			if (count > 0) {
+				responses.append(' ').append(code == 0 ? "index" : Integer.toString(code))
+								.append(": ").append(count);
+			}
+		}
+		System.out.println(responses);
+		if (lastError != null) {
+			System.out.println("Last error:    " + lastError);
+		}
+		if (rate > 0) {
+			printPercentiles("Latency from the scheduled time (ms):", latency);
+			printPercentiles("Service time from sending (ms):", serviceTime);
+			if (completed.sum() < 0.95 * rate * seconds) {
+				System.out.println("Fewer requests were answered than were scheduled, so the server"
+								+ " (or this client) fell behind.");
+			}
+		} else {
+			printPercentiles("Latency (ms):", latency);
+		}
+	}
+
+	private static void printPercentiles(String title, LatencyHistogram histogram) {
+		long[] total = new long[1];
+		long[] values = histogram.valuesAt(QUANTILES, total);
+		System.out.println(title);
+		System.out.printf(Locale.ROOT,
+						"    p50 %.3f   p90 %.3f   p99 %.3f   p99.9 %.3f   max %.3f%n",
+						values[0] / 1e3, values[1] / 1e3, values[2] / 1e3, values[3] / 1e3,
+						histogram.max() / 1e3);
+	}
+}
@@ -0,0 +1,190 @@
+package simplewebserver;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The table of MIME types the server sends files with, looked up by file
+ * extension.
+ * <p>
+ * The server knows a few common types of its own.  More can be read from a
+ * file in the format of the mime.types file that comes with Apache and
+ * many Unix systems: each line is a type followed by its extensions, such
+ * as "text/html  html htm", and anything after a '#' is a comment.  A type
+ * in the file replaces the server's own type for the same extension.
+ * <p>
+ * Once it is made, a table never changes, so every thread can use it
+ * without locking.  Looking up a file's type makes no new objects, and the
+ * "Content-Type" header line for each type is encoded once, when the
+ * table is made, so a response can copy it instead of building it.
+ */
+class MimeTypes {
+
+	/**
+	 * The type of a file whose extension isn't in the table.  It is made
+	 * up; it will probably make the browser offer to save the file.
+	 */
+	static final String UNKNOWN = "x-application/x-unknown";
+
+	/** The server's own types, as extension and type pairs. */
+	private static final String[][] BUILT_IN = {
+			{ "txt", "text/plain" },
+			{ "html", "text/html" },
+			{ "htm", "text/html" },
+			{ "css", "text/css" },
+			{ "js", "text/javascript" },
+			{ "java", "text/x-java" },
+			{ "jpeg", "image/jpeg" },
+			{ "jpg", "image/jpeg" },
+			{ "png", "image/png" },
+			{ "gif", "image/gif" },
+			{ "ico", "image/x-icon" },
+			{ "class", "application/java-vm" },
+			{ "jar", "application/java-archive" },
+			{ "zip", "application/zip" },
+			{ "xml", "application/xml" },
+			{ "xhtml", "application/xhtml+xml" },
+	};
+
+	/*
+	 * The extensions, in lower case, and their types, in a hash table with
+	 * open addressing.  Its size is a power of two at least twice the
+	 * number of extensions, so a lookup finds an empty slot quickly when
+	 * the extension isn't there.  A file name's extension is hashed and
+	 * compared where it is, so looking it up makes no new Strings.
+	 */
+	private final String[] extensions;
+	private final String[] types;
+	private final Map<String, byte[]> contentTypeHeaders;
+
+	private MimeTypes(Map<String, String> types) {
+		int size = Integer.highestOneBit(Math.max(1, types.size()) * 2) * 2;
+		this.extensions = new String[size];
+		this.types = new String[size];
+		for (Map.Entry<String, String> entry : types.entrySet()) {
+			String extension = lowerCase(entry.getKey());
+			int slot = hash(extension, 0, extension.length()) & (size - 1);
+			while (extensions[slot] != null && !extensions[slot].equals(extension)) {
+				slot = (slot + 1) & (size - 1);
+			}
+			extensions[slot] = extension;
+			this.types[slot] = entry.getValue();
+		}
+		Map<String, byte[]> headers = new HashMap<>();
+		for (String type : types.values()) {
+			headers.put(type, ResponseHead.encode("Content-Type: " + type + "\r\n"));
+		}
+		headers.put(UNKNOWN, ResponseHead.encode("Content-Type: " + UNKNOWN + "\r\n"));
+		this.contentTypeHeaders = Map.copyOf(headers);
+	}
+
+	/**
+	 * Makes a table of only the server's own types.
+	 *
+	 * @return The table.
+	 */
+	static MimeTypes builtIn() {
+		return new MimeTypes(builtInTypes());
+	}
+
+	/**
+	 * Makes a table of the server's own types and the ones in a
+	 * mime.types file.
+	 *
+	 * @param file The file to read.
+	 * @return The table.
+	 * @throws IOException If the file can't be read.
+	 */
+	static MimeTypes read(Path file) throws IOException {
+		Map<String, String> types = builtInTypes();
+		try (BufferedReader in = Files.newBufferedReader(file, StandardCharsets.ISO_8859_1)) {
+			String line;
+			while ((line = in.readLine()) != null) {
+				int hash = line.indexOf('#');
+				if (hash >= 0) {
+					line = line.substring(0, hash);
+				}
+				String[] words = line.trim().split("\\s+");
+				if (words.length < 2 || words[0].indexOf('/') < 0) {
+					continue;    // a blank line, or a type without extensions
+				}
+				for (int i = 1; i < words.length; i++) {
+					types.put(lowerCase(words[i]), words[0]);
+				}
+			}
+		}
+		return new MimeTypes(types);
+	}
+
+	private static Map<String, String> builtInTypes() {
+		Map<String, String> types = new HashMap<>();
+		for (String[] pair : BUILT_IN) {
+			types.put(pair[0], pair[1]);
+		}
+		return types;
+	}
+
+	/**
+	 * Returns the MIME type of a file.
+	 *
+	 * @param fileName The file's name, whose extension decides its type.
+	 * @return The type, or UNKNOWN.
+	 */
+	String type(String fileName) {
+		int pos = fileName.lastIndexOf('.');
+		if (pos < 0) {
+			return UNKNOWN;    // no file extension in name
+		}
+		int start = pos + 1;
+		int length = fileName.length() - start;
+		int slot = hash(fileName, start, fileName.length()) & (extensions.length - 1);
+		while (extensions[slot] != null) {
+			if (extensions[slot].length() == length
+							&& fileName.regionMatches(true, start, extensions[slot], 0, length)) {
+				return types[slot];
+			}
+			slot = (slot + 1) & (extensions.length - 1);
+		}
+		return UNKNOWN;
+	}
+
+	/**
+	 * Hashes part of a string as if it were in lower case.
+	 */
+	private static int hash(String text, int start, int end) {
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			hash = 31 * hash + Character.toLowerCase(text.charAt(i));
+		}
+		return hash ^ (hash >>> 16);
+	}
+
+	/**
+	 * Lowers the case of a string one character at a time, the same way
+	 * hash() does.
+	 */
+	private static String lowerCase(String text) {
+		char[] chars = text.toCharArray();
+		for (int i = 0; i < chars.length; i++) {
+			chars[i] = Character.toLowerCase(chars[i]);
+		}
+		return new String(chars);
+	}
+
+	/**
+	 * Returns the encoded "Content-Type" header line for a type.  It
+	 * belongs to the table, so it must not be changed.
+	 *
+	 * @param type A type returned by type().
+	 * @return The header line, ending with CRLF.
+	 */
+	byte[] contentTypeHeader(String type) {
+		byte[] header = contentTypeHeaders.get(type);
+		return header != null ? header : ResponseHead.encode("Content-Type: " + type + "\r\n");
+	}
+}
@@ -0,0 +1,197 @@
+package simplewebserver;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One command read from a client: "index", or an HTTP "GET
+ * &lt;file-name&gt; &lt;protocol&gt;" request with its headers, or some
+ * other word that the server doesn't support.
+ * <p>
+ * A request can also be incomplete, if the client closed its side of the
+ * connection before sending all of it; too long, if the request line or
+ * the headers were longer than the server accepts; or malformed, if a GET
+ * request line didn't have three words or a header had no name.
+ * <p>
+ * The headers are left in the RequestParser's array, with where each name
+ * and value is, and a value only becomes a String when it is asked for.
+ * So header() only works until the parser is reset for the next request
+ * on the connection, which the engines don't do until the response has
+ * been sent.
+ */
+class Request {
+
+	private final String command;
+	private final String fileName;
+	private final String protocol;
+	private final byte[] head;
+	private final int[] fields;
+	private final int headerCount;
+	private final boolean complete;
+	private final boolean uriTooLong;
+	private final boolean headersTooLarge;
+	private final boolean malformed;
+
+	/**
+	 * Creates a request.
+	 *
+	 * @param command The first word, or "" if there was none.
+	 * @param fileName The second word, or null if there was none.
+	 * @param protocol The third word, or null if there was none.
+	 * @param head The bytes the headers were read from.
+	 * @param fields For each header, the positions in <code>head</code>
+	 *     where its name starts and ends and its value starts and ends.
+	 * @param headerCount The number of headers.
+	 * @param complete Whether the whole request was read.
+	 * @param uriTooLong Whether reading stopped because the request line
+	 *     was too long.
+	 * @param headersTooLarge Whether reading stopped because there were too
+	 *     many bytes or lines of headers.
+	 * @param malformed Whether reading stopped because the request didn't
+	 *     make sense.
+	 */
+	Request(String command, String fileName, String protocol, byte[] head, int[] fields,
+					int headerCount, boolean complete, boolean uriTooLong,
+					boolean headersTooLarge, boolean malformed) {
+		this.command = command;
+		this.fileName = fileName;
+		this.protocol = protocol;
+		this.head = head;
+		this.fields = fields;
+		this.headerCount = headerCount;
+		this.complete = complete;
+		this.uriTooLong = uriTooLong;
+		this.headersTooLarge = headersTooLarge;
+		this.malformed = malformed;
+	}
+
+	/** @return The command, such as "index" or "GET", or "". */
+	String command() {
+		return command;
+	}
+
+	/** @return The requested file name, or null. */
+	String fileName() {
+		return fileName;
+	}
+
+	/** @return The protocol, such as "HTTP/1.1", or null. */
+	String protocol() {
+		return protocol;
+	}
+
+	/**
+	 * Returns the value of a header.  If the request has the header more
+	 * than once, the values are joined with commas.
+	 *
+	 * @param name The header's name, in lowercase.
+	 * @return The header's value, or null if the request doesn't have it.
+	 */
+	String header(String name) {
+		String value = null;
+		for (int f = 0; f < 4 * headerCount; f += 4) {
+			if (nameEquals(head, fields[f], fields[f + 1], name)) {
+				String next = new String(head, fields[f + 2], fields[f + 3] - fields[f + 2],
+								StandardCharsets.UTF_8);
+				value = value == null ? next : value + ", " + next;
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Tests whether a header name in some bytes is a name, ignoring the
+	 * case of the bytes.
+	 *
+	 * @param bytes The bytes holding the name.
+	 * @param start Where the name starts.
+	 * @param end Where the name ends.
+	 * @param name The name to compare with, in lowercase.
+	 * @return True if they are the same.
+	 */
+	static boolean nameEquals(byte[] bytes, int start, int end, String name) {
+		if (end - start != name.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			int b = bytes[i];
+			if (b >= 'A' && b <= 'Z') {
+				b += 'a' - 'A';
+			}
+			if (b != name.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/** @return True if the whole request was read. */
+	boolean isComplete() {
+		return complete;
+	}
+
+	/** @return True if the request line was longer than the server accepts. */
+	boolean isUriTooLong() {
+		return uriTooLong;
+	}
+
+	/** @return True if the headers were more than the server accepts. */
+	boolean isHeadersTooLarge() {
+		return headersTooLarge;
+	}
+
+	/** @return True if the request didn't make sense. */
+	boolean isMalformed() {
+		return malformed;
+	}
+
+	/**
+	 * Tests whether the client wants to keep the connection open for
+	 * another request.  HTTP/1.1 keeps connections open unless the client
+	 * says "Connection: close", and HTTP/1.0 closes them unless it says
+	 * "Connection: keep-alive".  A body sent with Transfer-Encoding can't
+	 * be skipped, so the connection is never kept after one.
+	 *
+	 * @return True if the connection may be kept open.
+	 */
+	boolean keepAlive() {
+		if (!complete || !command.equalsIgnoreCase("get")
+						|| header("transfer-encoding") != null) {
+			return false;
+		}
+		String connection = header("connection");
+		if (protocol.equalsIgnoreCase("HTTP/1.1")) {
+			return !hasToken(connection, "close");
+		} else {
+			return hasToken(connection, "keep-alive");
+		}
+	}
+
+	/**
+	 * Tests whether a comma separated header value contains a token,
+	 * ignoring case.
+	 */
+	static boolean hasToken(String value, String token) {
+		if (value == null) {
+			return false;
+		}
+		int start = 0;
+		while (start <= value.length()) {
+			int end = value.indexOf(',', start);
+			if (end < 0) {
+				end = value.length();
+			}
+			int next = end + 1;
+			while (start < end && value.charAt(start) <= ' ') {
+				start++;
+			}
+			while (end > start && value.charAt(end - 1) <= ' ') {
+				end--;
+			}
+			if (end - start == token.length() && value.regionMatches(true, start, token, 0, end - start)) {
+				return true;
+			}
+			start = next;
+		}
+		return false;
+	}
+}
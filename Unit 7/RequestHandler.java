@@ -0,0 +1,740 @@
+package simplewebserver;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Works out the response to a request.  This is the part of the server
+ * that doesn't care how connections are accepted or how bytes are read and
+ * written, so every engine in the server shares it.
+ * <p>
+ * Each response is counted in the ServerMetrics and logged to the
+ * AccessLog once the engine has sent it.  A GET of the metrics path, such
+ * as "/admin/metrics", is answered with the metrics in the Prometheus text
+ * format, whether or not a file by that name exists.  If no errors are
+ * encountered, a "200 OK" response is made.  Errors 400, 403, 404, 414,
+ * 416, 431, 500, 501, and 503 are implemented according to their
+ * descriptions.  If the requested file is a directory, an HTML directory
+ * listing response is made, LISTING_PAGE_SIZE files at a time.  The
+ * "page", "sort" and "order" query parameters choose which page, and in
+ * what order.  Any query on a file's name is ignored.
+ * <p>
+ * Every HTTP response has a Connection header, and a Content-Length
+ * unless it is a "304 Not Modified", so the client can tell where it ends
+ * and whether it can send another request on the same connection.  The
+ * connection is kept if the client wants it kept, the engine allows
+ * another request, and the request was understood well enough to know
+ * where the next one starts.  Responses to the "index" command and to
+ * unsupported commands still end by closing the connection.
+ * <p>
+ * Requests that came over HTTP/2 have the protocol "HTTP/2.0".  They are
+ * answered the same way, and Http2Connection turns each response into
+ * frames, leaving out the Connection header.
+ * <p>
+ * A file's Content-Type comes from the MimeTypes table.  The headers of a
+ * file response are put together as bytes in a ResponseHead, from lines
+ * that were encoded once, since that is done for nearly every request.
+ * <p>
+ * Files are served from a FileCache when there is one, so a file that is
+ * asked for often isn't opened every time.  Each file is sent with an ETag
+ * and a Last-Modified header, and a client that already has the file, as
+ * it shows with If-None-Match or If-Modified-Since, gets "304 Not
+ * Modified" without the file.
+ * <p>
+ * Cached text files are sent compressed to clients that accept gzip or
+ * deflate.  Each file is compressed once and kept in the cache, so later
+ * requests cost no more than uncompressed ones.  Files that aren't cached
+ * are always sent as they are.
+ * <p>
+ * A request with a Range header gets just the bytes it asks for, as a
+ * "206 Partial Content" response, so a client can resume a download or
+ * fetch pieces of a file in parallel.  Several ranges are sent as a
+ * multipart/byteranges body.  If-Range makes the client get the whole file
+ * instead if it has changed.  Ranges are always of the file as it is,
+ * never of a compressed copy.
+ */
+class RequestHandler {
+
+	/** The most files shown on one page of a directory listing. */
+	static final int LISTING_PAGE_SIZE = 500;
+
+	private final String rootDirectory;
+	private final MimeTypes mimeTypes;
+	private final FileCache cache;
+	private final ServerMetrics metrics;
+	private final String metricsPath;
+	private final AccessLog log;
+
+	/**
+	 * Creates a handler that serves files from a directory.
+	 *
+	 * @param rootDirectory The directory that requested file names are
+	 *     relative to.
+	 * @param mimeTypes The types files are sent with.
+	 * @param cache The cache to serve files from, or null to read every
+	 *     file from disk.
+	 * @param metrics Counts the responses that are sent.
+	 * @param metricsPath The path that answers with the metrics.
+	 * @param log Where responses and errors are logged.
+	 */
+	RequestHandler(String rootDirectory, MimeTypes mimeTypes, FileCache cache,
+					ServerMetrics metrics, String metricsPath, AccessLog log) {
+		this.rootDirectory = rootDirectory;
+		this.mimeTypes = mimeTypes;
+		this.cache = cache;
+		this.metrics = metrics;
+		this.metricsPath = metricsPath;
+		this.log = log;
+	}
+
+	/**
+	 * Returns the response to one request.  This never throws; any error
+	 * becomes a "500 Internal Server Error" response.
+	 *
+	 * @param request The request read from the client.
+	 * @param client The client's address, for error messages.
+	 * @param mayKeepAlive False if the connection has to be closed after
+	 *     this response whatever the client wants, for example because it
+	 *     has had as many requests as the engine allows.
+	 * @return The response to send.
+	 */
+	Response handle(Request request, InetAddress client, boolean mayKeepAlive) {
+
+		String command = request.command();
+		boolean keepAlive = mayKeepAlive && request.keepAlive();
+
+		try {
+			if (request.isUriTooLong()) {
+				return errorResponse(414, false);
+			}
+			if (request.isHeadersTooLarge()) {
+				return errorResponse(431, false);
+			}
+			if (request.isMalformed()) {
+				return errorResponse(400, false);
+			}
+			if (!request.isComplete()) {
+				throw new NoSuchElementException("Incomplete request.");
+			}
+
+			if (command.equalsIgnoreCase("index")) {
+				return indexResponse(new File(rootDirectory));
+			} else if (!command.equalsIgnoreCase("get")) {
+				return errorResponse(501, false);
+			}
+
+			String fileName = request.fileName();
+			String protocol = request.protocol();
+			String query = "";
+			int questionMark = fileName.indexOf('?');
+			if (questionMark >= 0) {
+				query = fileName.substring(questionMark + 1);
+				fileName = fileName.substring(0, questionMark);
+			}
+
+			if (!protocol.equalsIgnoreCase("HTTP/1.1") &&
+						!protocol.equalsIgnoreCase("HTTP/1.0") &&
+						!protocol.equals(Http2Connection.PROTOCOL)) {
+				return errorResponse(400, false);
+			}
+
+			if (fileName.equals(metricsPath)) {
+				return metricsResponse(keepAlive);
+			}
+
+			File file = new File(rootDirectory + fileName);
+
+			FileCache.Entry cached = cache == null ? null : cache.get(file.toPath());
+			if (cached != null) {
+				return fileResponse(request, file, cached, keepAlive);
+			} else if (file.isDirectory()) {
+				return directoryListing(file, fileName, parseQuery(query), keepAlive);
+			} else if (file.exists() && file.canRead()) {
+				return fileResponse(request, file, null, keepAlive);
+			} else if (file.exists()) {
+				return errorResponse(403, keepAlive);
+			} else {
+				return errorResponse(404, keepAlive);
+			}
+
+		} catch (Exception e) {
+			log.message("ERROR " + client + " " + command + " " + e);
+			return errorResponse(500, false);
+		}
+	}
+
+	/**
+	 * Counts and logs a response that has been sent.  Every engine calls
+	 * this when it has written the last byte of a response.
+	 *
+	 * @param request The request that was answered.
+	 * @param response The response that was sent.
+	 * @param client The client's address.
+	 * @param started The System.nanoTime() when the request had been read.
+	 */
+	void sent(Request request, Response response, InetAddress client, long started) {
+		long nanos = System.nanoTime() - started;
+		metrics.record(response.status(), response.bytesSent(), nanos);
+		log.response(client, request, response.status(), response.bytesSent(), nanos);
+	}
+
+	/**
+	 * Logs an error that happened outside of handle(), such as a
+	 * connection failing while a response was sent.
+	 *
+	 * @param message What went wrong.
+	 */
+	void error(String message) {
+		log.message("ERROR " + message);
+	}
+
+	/**
+	 * Returns the response for a file that can be sent: the file itself, or
+	 * "304 Not Modified" if the client's copy is still good, or the ranges
+	 * of it the client asked for.  A cached file is compressed if the client
+	 * accepts an encoding and the file is text, or has a ".gz" sibling.
+	 *
+	 * @param request The request for the file.
+	 * @param file The file.
+	 * @param cached The file from the cache, or null if it wasn't cached.
+	 * @param keepAlive True if the connection stays open afterwards.
+	 * @return The response.
+	 */
+	private Response fileResponse(Request request, File file, FileCache.Entry cached,
+					boolean keepAlive) {
+
+		String mimeType = mimeTypes.type(file.getName());
+		String range = request.header("range");
+		long length;
+		long lastModified;
+		String eTag;
+
+		/* The ETag, Last-Modified, Vary and Content-Encoding lines, which
+		 * every answer to the request has, whatever its status.
+		 */
+		byte[][] validators = new byte[4][];
+		FileCache.Variant variant = null;
+		if (cached != null) {
+			length = cached.length();
+			lastModified = cached.lastModified();
+			eTag = cached.eTag();
+			validators[0] = cached.eTagHeader();
+			validators[1] = cached.lastModifiedHeader();
+
+			boolean compressible = isCompressible(mimeType) && length >= Compression.MIN_LENGTH;
+			if (compressible || cached.isPrecompressed()) {
+				validators[2] = ResponseHead.VARY_ACCEPT_ENCODING;
+				String encoding = Compression.choose(request.header("accept-encoding"));
+				if (encoding != null && range == null) {
+					variant = cache.variant(cached, encoding, compressible);
+				}
+				if (variant != null && variant.length() < length) {
+					length = variant.length();
+					eTag = variant.eTag();
+					validators[0] = variant.eTagHeader();
+					validators[3] = encoding.equals(Compression.GZIP) ? ResponseHead.GZIP
+									: ResponseHead.DEFLATE;
+				} else {
+					variant = null;    // compressing it didn't make it smaller
+				}
+			}
+		} else {
+			length = file.length();
+			lastModified = file.lastModified();
+			eTag = FileCache.eTag(length, lastModified);
+			validators[0] = ResponseHead.encode("ETag: " + eTag + "\r\n");
+			validators[1] = ResponseHead.encode("Last-Modified: "
+							+ FileCache.httpDate(lastModified) + "\r\n");
+		}
+
+		if (isNotModified(request, eTag, lastModified)) {
+			ResponseHead head = new ResponseHead(request.protocol(), 304, keepAlive);
+			addAll(head, validators);
+			return new Response(keepAlive).add(head);
+		}
+
+		if (range != null && isRangeCurrent(request, eTag, lastModified)) {
+			List<ByteRange> ranges = ByteRange.parse(range, length);
+			if (ranges != null) {
+				return rangeResponse(request, file, cached, ranges, length, mimeType,
+								validators, keepAlive);
+			}
+		}
+
+		ResponseHead head = new ResponseHead(request.protocol(), 200, keepAlive)
+						.add(mimeTypes.contentTypeHeader(mimeType))
+						.contentLength(length)
+						.add(ResponseHead.ACCEPT_RANGES);
+		addAll(head, validators);
+		if (variant != null) {
+			return Response.buffer(head, variant.content(), keepAlive);
+		} else if (cached != null) {
+			return Response.buffer(head, cached.content(), keepAlive);
+		} else {
+			return Response.file(head, file, keepAlive);
+		}
+	}
+
+	/**
+	 * Adds header lines to a head, skipping any that are null.
+	 */
+	private static void addAll(ResponseHead head, byte[][] lines) {
+		for (byte[] line : lines) {
+			if (line != null) {
+				head.add(line);
+			}
+		}
+	}
+
+	/**
+	 * Returns a "206 Partial Content" response with some ranges of a file,
+	 * or "416 Range Not Satisfiable" if there are none.
+	 *
+	 * @param request The request for the file.
+	 * @param file The file.
+	 * @param cached The file from the cache, or null if it wasn't cached.
+	 * @param ranges The ranges to send, in order.
+	 * @param length The length of the file.
+	 * @param mimeType The file's MIME type.
+	 * @param headers The other header lines to send, such as the ETag,
+	 *     or nulls.
+	 * @param keepAlive True if the connection stays open afterwards.
+	 * @return The response.
+	 */
+	private Response rangeResponse(Request request, File file, FileCache.Entry cached,
+					List<ByteRange> ranges, long length, String mimeType, byte[][] headers,
+					boolean keepAlive) {
+
+		if (ranges.isEmpty()) {
+			return errorResponse(416, "Content-Range: bytes */" + length + "\r\n", keepAlive);
+		}
+
+		ResponseHead head = new ResponseHead(request.protocol(), 206, keepAlive);
+		addAll(head, headers);
+		Response response = new Response(keepAlive);
+
+		if (ranges.size() == 1) {
+			ByteRange range = ranges.get(0);
+			response.add(head.add(mimeTypes.contentTypeHeader(mimeType))
+							.add("Content-Range", range.contentRange(length))
+							.contentLength(range.length()));
+			addRange(response, file, cached, range);
+			return response;
+		}
+
+		/* Work out the parts' headers first, since the Content-Length has to
+		 * count them.  They are all ASCII, so a character is a byte.
+		 */
+		String boundary = "SimpleWebServer-" + Long.toHexString(ThreadLocalRandom.current().nextLong());
+		List<String> partHeads = new ArrayList<>(ranges.size());
+		long contentLength = 0;
+		for (ByteRange range : ranges) {
+			String partHead = (partHeads.isEmpty() ? "" : "\r\n") + "--" + boundary + "\r\n"
+							+ "Content-Type: " + mimeType + "\r\n"
+							+ "Content-Range: " + range.contentRange(length) + "\r\n"
+							+ "\r\n";
+			partHeads.add(partHead);
+			contentLength += partHead.length() + range.length();
+		}
+		String tail = "\r\n--" + boundary + "--\r\n";
+		contentLength += tail.length();
+
+		response.add(head.add("Content-Type", "multipart/byteranges; boundary=" + boundary)
+						.contentLength(contentLength));
+		for (int i = 0; i < ranges.size(); i++) {
+			response.add(partHeads.get(i));
+			addRange(response, file, cached, ranges.get(i));
+		}
+		response.add(tail);
+		return response;
+	}
+
+	/**
+	 * Adds one range of a file to a response, from the cache if it's there.
+	 */
+	private static void addRange(Response response, File file, FileCache.Entry cached,
+					ByteRange range) {
+		if (cached != null) {
+			ByteBuffer bytes = cached.content();
+			bytes.position((int) range.start());
+			bytes.limit((int) range.end());
+			response.add(bytes);
+		} else {
+			response.add(file, range.start(), range.end());
+		}
+	}
+
+	/**
+	 * Tests whether the client's copy of a file is the same as the one on
+	 * the server.  If-None-Match is used if the request has it, since it is
+	 * exact; otherwise If-Modified-Since, to the second.
+	 *
+	 * @param request The request, with the client's conditional headers.
+	 * @param eTag The file's entity tag.
+	 * @param lastModified The file's modification time, in milliseconds.
+	 * @return True if the file doesn't have to be sent.
+	 */
+	private static boolean isNotModified(Request request, String eTag, long lastModified) {
+		String ifNoneMatch = request.header("if-none-match");
+		if (ifNoneMatch != null) {
+			for (String tag : ifNoneMatch.split(",")) {
+				tag = tag.trim();
+				if (tag.startsWith("W/")) {
+					tag = tag.substring(2);
+				}
+				if (tag.equals(eTag) || tag.equals("*")) {
+					return true;
+				}
+			}
+			return false;
+		}
+		String ifModifiedSince = request.header("if-modified-since");
+		if (ifModifiedSince != null) {
+			Long since = parseDate(ifModifiedSince);
+			return since != null && lastModified / 1000 <= since / 1000;
+		}
+		return false;
+	}
+
+	/**
+	 * Tests whether a Range request should get its ranges, which it should
+	 * unless its If-Range header names a different version of the file.
+	 * An entity tag must match exactly, and a date must be the file's
+	 * Last-Modified date.
+	 *
+	 * @param request The request, with its If-Range header if it has one.
+	 * @param eTag The file's entity tag.
+	 * @param lastModified The file's modification time, in milliseconds.
+	 * @return True to send the ranges, false to send the whole file.
+	 */
+	private static boolean isRangeCurrent(Request request, String eTag, long lastModified) {
+		String ifRange = request.header("if-range");
+		if (ifRange == null) {
+			return true;
+		}
+		ifRange = ifRange.trim();
+		if (ifRange.startsWith("\"") || ifRange.startsWith("W/")) {
+			return ifRange.equals(eTag);
+		}
+		Long date = parseDate(ifRange);
+		return date != null && date / 1000 == lastModified / 1000;
+	}
+
+	/**
+	 * Reads an HTTP date.
+	 *
+	 * @return The time in milliseconds, or null if it isn't a date; a date
+	 *     we can't read is ignored.
+	 */
+	private static Long parseDate(String date) {
+		try {
+			return ZonedDateTime.parse(date, DateTimeFormatter.RFC_1123_DATE_TIME)
+							.toInstant().toEpochMilli();
+		} catch (DateTimeParseException e) {
+			return null;
+		}
+	}
+
+	/**
+	 * Returns the Connection header line for a response.
+	 */
+	private static String connectionHeader(boolean keepAlive) {
+		return keepAlive ? "Connection: keep-alive\r\n" : "Connection: close\r\n";
+	}
+
+	/**
+	 * Returns an HTML response with the headers that frame it.
+	 *
+	 * @param statusLine The status line, without its line ending.
+	 * @param headers Any other header lines to send, or "".
+	 * @param body The HTML to send.
+	 * @param keepAlive True if the connection stays open afterwards.
+	 * @return The response.
+	 */
+	private static Response htmlResponse(String statusLine, String headers, String body,
+					boolean keepAlive) {
+		return Response.text(statusLine + "\r\n"
+						+ connectionHeader(keepAlive)
+						+ headers
+						+ "Content-Type: text/html\r\n"
+						+ "Content-Length: " + body.getBytes(Charset.defaultCharset()).length + "\r\n"
+						+ "\r\n"
+						+ body, keepAlive);
+	}
+
+	/**
+	 * Returns the server's metrics, in the Prometheus text format.
+	 */
+	private Response metricsResponse(boolean keepAlive) {
+		String body = metrics.prometheus();
+		return Response.text("HTTP/1.1 200 OK\r\n"
+						+ connectionHeader(keepAlive)
+						+ "Content-Type: text/plain; version=0.0.4\r\n"
+						+ "Content-Length: " + body.length() + "\r\n"
+						+ "Cache-Control: no-cache\r\n"
+						+ "\r\n"
+						+ body, keepAlive);
+	}
+
+	/**
+	 * Tests whether files of a MIME type are worth compressing.  Text is;
+	 * images and archives are compressed already.
+	 *
+	 * @param mimeType A type from MimeTypes.
+	 * @return True for text types.
+	 */
+	static boolean isCompressible(String mimeType) {
+		return mimeType.startsWith("text/") || mimeType.endsWith("xml");
+	}
+
+	/**
+	 * Returns an HTML error response.
+	 *
+	 * @param errorCode An int matching one of the implemented error codes.
+	 * @param keepAlive True if the connection stays open afterwards.
+	 * @return The error response.
+	 */
+	static Response errorResponse(int errorCode, boolean keepAlive) {
+		return errorResponse(errorCode, "", keepAlive);
+	}
+
+	/**
+	 * Returns an HTML error response with some extra headers.
+	 *
+	 * @param errorCode An int matching one of the implemented error codes.
+	 * @param headers Header lines to add, each ending with CRLF.
+	 * @param keepAlive True if the connection stays open afterwards.
+	 * @return The error response.
+	 */
+	static Response errorResponse(int errorCode, String headers, boolean keepAlive) {
+
+		String protocol = "HTTP/1.1";
+		String statusDescription = " ";
+		String statusMessage = "";
+
+		switch (errorCode) {
+		case 400:
+			statusDescription += "400 Bad Request";
+			statusMessage += "The syntax of the request is bad.";
+			break;
+		case 403:
+			statusDescription += "403 Forbidden";
+			statusMessage += "The server does not have permission to read the file.";
+			break;
+		case 404:
+			statusDescription += "404 Not Found";
+			statusMessage += "The resource that you requested does not exist on this server.";
+			break;
+		case 414:
+			statusDescription += "414 URI Too Long";
+			statusMessage += "The requested file name is longer than the server accepts.";
+			break;
+		case 416:
+			statusDescription += "416 Range Not Satisfiable";
+			statusMessage += "None of the requested ranges are inside the file.";
+			break;
+		case 431:
+			statusDescription += "431 Request Header Fields Too Large";
+			statusMessage += "The request's headers are larger than the server accepts.";
+			break;
+		case 500:
+			statusDescription += "500 Internal Server Error";
+			statusMessage += "There has been an error in handling the connection.";
+			break;
+		case 501:
+			statusDescription += "501 Not Implemented";
+			statusMessage += "The command received has not been implemented.";
+			break;
+		case 503:
+			statusDescription += "503 Service Unavailable";
+			statusMessage += "The server is too busy to answer right now.  Please try again later.";
+			break;
+		default:
+			statusDescription += "500 Internal Server Error";
+			statusMessage += "There has been an error in handling the connection.";
+			break;
+		}
+
+		return htmlResponse(protocol + statusDescription, headers,
+						"<html><head><title>Error</title></head><body>\r\n"
+						+ "<h2>Error:" + statusDescription + "</h2>\r\n"
+						+ "<p>" + statusMessage + "</p>\r\n"
+						+ "</body></html>\r\n", keepAlive);
+	} // end errorResponse
+
+	/**
+	 * This is called in response to an "INDEX" command from the client.
+	 * Returns the list of files in the server's directory, one per line.
+	 */
+	private static Response indexResponse(File directory) throws Exception {
+		String[] fileList = directory.list();
+		if (fileList == null)
+			throw new Exception("Can't list " + directory + ".");
+		StringBuilder index = new StringBuilder();
+		for (int i = 0; i < fileList.length; i++)
+			index.append(fileList[i]).append(System.lineSeparator());
+		return Response.text(index.toString(), false);
+	}
+
+	/**
+	 * Returns an HTML Directory Listing response if the requested file is
+	 * a directory.  The listing comes from the cache if there is one.
+	 *
+	 * @param directory File object that is a directory from which to obtain
+	 *     a listing.
+	 * @param path The directory's name as it was requested, such as
+	 *     "/sub", which links are made from.
+	 * @param query The query parameters: "page", counting from 1, "sort",
+	 *     one of DirectoryListing.SORT_KEYS, and "order", "asc" or "desc".
+	 * @param keepAlive True if the connection stays open afterwards.
+	 * @return The Directory Listing response.
+	 * @throws Exception If an error is encountered while attempting to list
+	 *     the files in the directory.
+	 */
+	private Response directoryListing(File directory, String path, Map<String, String> query,
+					boolean keepAlive) throws Exception {
+
+		DirectoryListing listing = cache == null ? DirectoryListing.read(directory.toPath())
+						: cache.listing(directory.toPath());
+
+		String sort = "name";
+		for (String key : DirectoryListing.SORT_KEYS) {
+			if (key.equals(query.get("sort"))) {
+				sort = key;
+			}
+		}
+		boolean descending = "desc".equals(query.get("order"));
+		int pages = Math.max(1, (listing.size() + LISTING_PAGE_SIZE - 1) / LISTING_PAGE_SIZE);
+		int page = 1;
+		try {
+			page = Math.min(pages, Math.max(1, Integer.parseInt(query.getOrDefault("page", "1"))));
+		} catch (NumberFormatException e) {
+			// Not a number, so show the first page.
+		}
+
+		if (!path.endsWith("/")) {
+			path += "/";
+		}
+		String parent = path;
+		if (path.length() > 1) {
+			parent = path.substring(0, path.lastIndexOf('/', path.length() - 2) + 1);
+		}
+
+		DirectoryListing.Item[] items = listing.page(sort, descending,
+						(page - 1) * LISTING_PAGE_SIZE, LISTING_PAGE_SIZE);
+		StringBuilder outgoing = new StringBuilder(300 + 200 * items.length);
+		outgoing.append("<h1>Directory Listing</h1>" + "<h3>")
+						.append(escape(path)).append("</h3>"
+						+ "<table border=\"0\" cellspacing=\"8\">"
+						+ "<tr><td><b>")
+						.append(sortLink("Filename", "name", sort, descending))
+						.append("</b><br></td><td align=\"right\"><b>")
+						.append(sortLink("Size", "size", sort, descending))
+						.append("</b></td><td><b>")
+						.append(sortLink("Last Modified", "modified", sort, descending))
+						.append("</b></td></tr>"
+						+ "<tr><td><b><a href=\"").append(escape(parent))
+						.append("\">../</a></b><br></td><td></td><td></td></tr>");
+
+		for (DirectoryListing.Item item : items) {
+			String name = escape(item.name());
+			String href = escape(path) + name;
+			if (item.isDirectory()) {
+				outgoing.append("<tr><td><b><a href=\"").append(href).append("/\">")
+								.append(name)
+								.append("/</a></b></td><td></td><td></td></tr>");
+			} else {
+				outgoing.append("<tr><td><a href=\"").append(href).append("\">")
+								.append(name)
+								.append("</a></td><td align=\"right\">")
+								.append(item.size()).append("</td><td>")
+								.append(new Date(item.lastModified()).toString())
+								.append("</td></tr>");
+			}
+		}
+		outgoing.append("</table>");
+
+		if (pages > 1) {
+			String order = "&amp;sort=" + sort + "&amp;order=" + (descending ? "desc" : "asc");
+			outgoing.append("<p>");
+			if (page > 1) {
+				outgoing.append("<a href=\"?page=").append(page - 1).append(order)
+								.append("\">&lt; Previous</a> ");
+			}
+			outgoing.append("Page ").append(page).append(" of ").append(pages)
+							.append(" (").append(listing.size()).append(" files)");
+			if (page < pages) {
+				outgoing.append(" <a href=\"?page=").append(page + 1).append(order)
+								.append("\">Next &gt;</a>");
+			}
+			outgoing.append("</p>");
+		}
+		outgoing.append("<hr>\r\n");
+		return htmlResponse("HTTP/1.1 200 OK", "", outgoing.toString(), keepAlive);
+	}
+
+	/**
+	 * Returns a column heading that sorts the listing by that column, in
+	 * the other order if it is sorted by it already.
+	 */
+	private static String sortLink(String heading, String key, String sort, boolean descending) {
+		String order = key.equals(sort) && !descending ? "desc" : "asc";
+		return "<a href=\"?sort=" + key + "&amp;order=" + order + "\">" + heading + "</a>";
+	}
+
+	/**
+	 * Splits a query string such as "page=2&amp;sort=size" into its
+	 * parameters.  A parameter without a value gets "".
+	 */
+	static Map<String, String> parseQuery(String query) {
+		Map<String, String> parameters = new HashMap<>();
+		for (String parameter : query.split("&")) {
+			if (parameter.isEmpty()) {
+				continue;
+			}
+			int equals = parameter.indexOf('=');
+			if (equals < 0) {
+				parameters.put(parameter, "");
+			} else {
+				parameters.put(parameter.substring(0, equals), parameter.substring(equals + 1));
+			}
+		}
+		return parameters;
+	}
+
+	/**
+	 * Escapes the characters that mean something in HTML, so a file name
+	 * is shown as it is.
+	 */
+	static String escape(String text) {
+		StringBuilder escaped = null;
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			String entity = c == '&' ? "&amp;" : c == '<' ? "&lt;" : c == '>' ? "&gt;"
+							: c == '"' ? "&quot;" : null;
+			if (entity != null && escaped == null) {
+				escaped = new StringBuilder(text.length() + 16).append(text, 0, i);
+			}
+			if (escaped != null) {
+				if (entity != null) {
+					escaped.append(entity);
+				} else {
+					escaped.append(c);
+				}
+			}
+		}
+		return escaped == null ? text : escaped.toString();
+	}
+}
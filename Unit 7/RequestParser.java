@@ -0,0 +1,463 @@
+package simplewebserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Reads Requests from bytes as they arrive.
+ * <p>
+ * An HTTP request is a request line, "GET &lt;file-name&gt;
+ * &lt;protocol&gt;", then header lines, then an empty line.  Any other
+ * first word, such as "index", is a command of its own and is complete as
+ * soon as the word has been read, the same as <code>Scanner.next()</code>
+ * would read it.  Lines may end with CRLF or just LF, and a request may be
+ * split over any number of reads.
+ * <p>
+ * feed() stops at the end of a request, so whatever follows it in the
+ * buffer is the start of the next request on the same connection.  After
+ * the response has been sent, reset() gets the parser ready for that
+ * request, and arranges to skip the body of the last one if it had a
+ * Content-Length.
+ * <p>
+ * The parser works on bytes and makes as few objects as it can, since it
+ * runs for every request.  The request line and headers are copied into
+ * one byte array that the parser keeps from one request to the next, and
+ * each header is only noted as where its name and value are in the array;
+ * no header becomes a String unless the server asks for it.  Bytes are
+ * copied out of the buffer CHUNK_SIZE at a time and then read from the
+ * array, which is much quicker than asking the buffer for each byte, and
+ * the buffer's position is only moved past the bytes that were used.  The
+ * method and the usual protocols are always the same String objects, and
+ * so are paths that have been asked for recently, so a request for a
+ * popular file makes no Strings at all.
+ * <p>
+ * A Request reads its headers from the parser's own array rather than a
+ * copy, so they can only be asked for until the parser is reset for the
+ * next request.  The command, file name and protocol can be kept for as
+ * long as they are needed.
+ */
+class RequestParser {
+
+	/**
+	 * The longest request line accepted, in bytes, which limits how long a
+	 * URI can be.
+	 */
+	static final int MAX_REQUEST_LINE_LENGTH = 8192;
+
+	/** The most bytes of header lines accepted in one request. */
+	static final int MAX_HEADER_BYTES = 16384;
+
+	/** The most header lines accepted in one request. */
+	static final int MAX_HEADERS = 100;
+
+	/**
+	 * The size of the array a parser starts with, and goes back to after a
+	 * request that needed more than KEPT_HEAD_SIZE.
+	 */
+	private static final int INITIAL_HEAD_SIZE = 256;
+	private static final int KEPT_HEAD_SIZE = 4096;
+
+	/** The most bytes copied from the buffer at once. */
+	private static final int CHUNK_SIZE = 1024;
+
+	/**
+	 * The paths that have been asked for, by a hash of their bytes.  Any
+	 * thread may replace an entry; a String is immutable, so whichever one
+	 * a thread sees is correct.
+	 */
+	private static final String[] internedPaths = new String[1024];
+
+	/** The longest path that is interned. */
+	private static final int MAX_INTERNED_LENGTH = 256;
+
+	private enum State { REQUEST_LINE, HEADERS, DONE }
+
+	private State state = State.REQUEST_LINE;
+	private byte[] head = new byte[INITIAL_HEAD_SIZE];
+	private int length;
+	private int lineStart;
+	private int headersStart;
+	private boolean started;
+
+	/** The start and end of each of the first three words of the request line. */
+	private final int[] words = new int[6];
+
+	/** For each header: where its name starts and ends, then its value. */
+	private int[] fields = new int[4 * 8];
+	private int headerCount;
+
+	private String command = "";
+	private String fileName;
+	private String protocol;
+	private boolean uriTooLong;
+	private boolean headersTooLarge;
+	private boolean malformed;
+
+	/** The body bytes of the last request that still have to be skipped. */
+	private long skip;
+
+	/**
+	 * Reads the bytes of <code>bytes</code> until a request is complete or
+	 * they run out.
+	 *
+	 * @param bytes The bytes that arrived.  Its position is advanced past
+	 *     the bytes that were used, and no further.
+	 * @return True if a request is now complete, too long or malformed.
+	 */
+	boolean feed(ByteBuffer bytes) {
+
+		if (skip > 0) {
+			int n = (int) Math.min(skip, bytes.remaining());
+			bytes.position(bytes.position() + n);
+			skip -= n;
+		}
+
+		while (state != State.DONE && bytes.hasRemaining()) {
+			int n = Math.min(bytes.remaining(), CHUNK_SIZE);
+			ensureRoom(n);
+			bytes.get(bytes.position(), head, length, n);
+			int used = state == State.REQUEST_LINE ? scanRequestLine(length + n)
+							: scanHeaders(length + n);
+			bytes.position(bytes.position() + used - length);
+			length = used;
+			if (!started) {
+				length = lineStart = 0;    // nothing but blank lines so far
+			}
+		}
+		return state == State.DONE;
+	}
+
+	/**
+	 * Reads the request line from the bytes of head that have just been
+	 * copied, up to <code>end</code>.  Blank lines and spaces before a
+	 * request are skipped.
+	 *
+	 * @return The position just after the last byte that was used.
+	 */
+	private int scanRequestLine(int end) {
+		for (int i = length; i < end; i++) {
+			byte b = head[i];
+			if (i == lineStart && isWhitespace(b)) {
+				lineStart++;
+				continue;
+			}
+			started = true;
+
+			if (b == '\n') {
+				endRequestLine(i);
+				if (state == State.HEADERS) {
+					return scanHeaders(end);
+				}
+				return i + 1;
+			} else if (isWhitespace(b) && isOneWordCommand(i)) {
+				command = command(lineStart, i);
+				state = State.DONE;
+				return i + 1;
+			} else if (i - lineStart == MAX_REQUEST_LINE_LENGTH) {
+				uriTooLong = true;
+				state = State.DONE;
+				return i;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * Reads header lines from the bytes of head that have just been copied,
+	 * up to <code>end</code>, until the empty line that ends them.
+	 *
+	 * @return The position just after the last byte that was used.
+	 */
+	private int scanHeaders(int end) {
+		int i = lineStart;
+		while (true) {
+			while (i < end && head[i] != '\n') {
+				i++;
+			}
+			if (i - headersStart > MAX_HEADER_BYTES) {
+				headersTooLarge = true;
+				state = State.DONE;
+				return end;
+			}
+			if (i == end) {
+				return end;
+			}
+			endHeaderLine(i);
+			i++;
+			if (state == State.DONE) {
+				return i;
+			}
+		}
+	}
+
+	/**
+	 * Tests whether any bytes of a request have arrived since the last
+	 * reset.
+	 *
+	 * @return True if a request has been started.
+	 */
+	boolean hasStarted() {
+		return started;
+	}
+
+	/**
+	 * Returns the request read so far.  If the client has closed its side
+	 * of the connection, a line that was still being read counts as
+	 * finished, and so do the headers.
+	 *
+	 * @param endOfInput True if no more bytes will arrive.
+	 * @return The request.
+	 */
+	Request request(boolean endOfInput) {
+		if (endOfInput) {
+			if (state == State.REQUEST_LINE && length > lineStart) {
+				endRequestLine(length);
+			}
+			if (state == State.HEADERS) {
+				if (length > lineStart) {
+					endHeaderLine(length);
+				}
+				state = State.DONE;
+			}
+		}
+		boolean complete = state == State.DONE && !uriTooLong && !headersTooLarge && !malformed
+						&& (fileName != null || !command.equalsIgnoreCase("get"));
+		return new Request(command, fileName, protocol, head, fields, headerCount, complete,
+						uriTooLong, headersTooLarge, malformed);
+	}
+
+	/**
+	 * Gets ready for the next request on the same connection.
+	 */
+	void reset() {
+		skip = contentLength();
+		state = State.REQUEST_LINE;
+		if (head.length > KEPT_HEAD_SIZE) {
+			head = new byte[INITIAL_HEAD_SIZE];
+		}
+		length = 0;
+		lineStart = 0;
+		headersStart = 0;
+		headerCount = 0;
+		started = false;
+		command = "";
+		fileName = null;
+		protocol = null;
+		uriTooLong = false;
+		headersTooLarge = false;
+		malformed = false;
+	}
+
+	/** Makes the head array big enough for n more bytes. */
+	private void ensureRoom(int n) {
+		if (length + n > head.length) {
+			head = Arrays.copyOf(head, Math.max(length + n, head.length * 2));
+		}
+	}
+
+	/**
+	 * Tests whether the request line up to <code>end</code> is one word,
+	 * other than GET, which makes it a command of its own.
+	 */
+	private boolean isOneWordCommand(int end) {
+		for (int i = lineStart; i < end; i++) {
+			if (isWhitespace(head[i])) {
+				return false;
+			}
+		}
+		int s = lineStart;
+		return !(end - s == 3 && (head[s] | 0x20) == 'g' && (head[s + 1] | 0x20) == 'e'
+						&& (head[s + 2] | 0x20) == 't');
+	}
+
+	/**
+	 * Handles the request line, which has just been read.
+	 *
+	 * @param newline The position of the end of the line.
+	 */
+	private void endRequestLine(int newline) {
+		int end = newline;
+		if (end > lineStart && head[end - 1] == '\r') {
+			end--;
+		}
+
+		int count = 0;
+		int i = lineStart;
+		while (i < end) {
+			while (i < end && isWhitespace(head[i])) {
+				i++;
+			}
+			int start = i;
+			while (i < end && !isWhitespace(head[i])) {
+				i++;
+			}
+			if (i > start) {
+				if (count < 3) {
+					words[2 * count] = start;
+					words[2 * count + 1] = i;
+				}
+				count++;
+			}
+		}
+
+		command = command(words[0], words[1]);
+		if (!command.equalsIgnoreCase("get")) {
+			state = State.DONE;
+		} else if (count == 3) {
+			fileName = path(words[2], words[3]);
+			protocol = protocol(words[4], words[5]);
+			lineStart = headersStart = newline + 1;
+			state = State.HEADERS;
+		} else {
+			malformed = true;
+			state = State.DONE;
+		}
+	}
+
+	/**
+	 * Handles the header line that has just been read, or the empty line
+	 * that ends the headers.  A header's name and value are noted without
+	 * the spaces around them.
+	 *
+	 * @param newline The position of the end of the line.
+	 */
+	private void endHeaderLine(int newline) {
+		int start = lineStart;
+		int end = newline;
+		if (end > start && head[end - 1] == '\r') {
+			end--;
+		}
+		lineStart = newline + 1;
+
+		if (end == start) {
+			state = State.DONE;
+			return;
+		}
+		if (headerCount == MAX_HEADERS) {
+			headersTooLarge = true;
+			state = State.DONE;
+			return;
+		}
+		int colon = start;
+		while (colon < end && head[colon] != ':') {
+			colon++;
+		}
+		int nameStart = trimStart(start, colon);
+		int nameEnd = trimEnd(nameStart, colon);
+		if (nameStart == nameEnd || colon == end) {
+			malformed = true;
+			state = State.DONE;
+			return;
+		}
+		int valueStart = trimStart(colon + 1, end);
+		int valueEnd = trimEnd(valueStart, end);
+
+		if (4 * headerCount == fields.length) {
+			fields = Arrays.copyOf(fields, fields.length * 2);
+		}
+		int f = 4 * headerCount++;
+		fields[f] = nameStart;
+		fields[f + 1] = nameEnd;
+		fields[f + 2] = valueStart;
+		fields[f + 3] = valueEnd;
+	}
+
+	/** Skips the spaces and control characters at the start of a field. */
+	private int trimStart(int start, int end) {
+		while (start < end && (head[start] & 0xff) <= ' ') {
+			start++;
+		}
+		return start;
+	}
+
+	/** Drops the spaces and control characters at the end of a field. */
+	private int trimEnd(int start, int end) {
+		while (end > start && (head[end - 1] & 0xff) <= ' ') {
+			end--;
+		}
+		return end;
+	}
+
+	/**
+	 * Returns the length of the body of the request that was read, from
+	 * its Content-Length header, or 0.
+	 */
+	private long contentLength() {
+		for (int f = 0; f < 4 * headerCount; f += 4) {
+			if (Request.nameEquals(head, fields[f], fields[f + 1], "content-length")) {
+				long value = 0;
+				for (int i = fields[f + 2]; i < fields[f + 3]; i++) {
+					if (head[i] < '0' || head[i] > '9' || value > Long.MAX_VALUE / 10 - 1) {
+						return 0;
+					}
+					value = value * 10 + (head[i] - '0');
+				}
+				return value;
+			}
+		}
+		return 0;
+	}
+
+	/** Returns a command, using the same String for GET every time. */
+	private String command(int start, int end) {
+		return matches("GET", start, end) ? "GET" : decode(start, end);
+	}
+
+	/** Returns a protocol, using the same String for HTTP/1.x every time. */
+	private String protocol(int start, int end) {
+		if (matches("HTTP/1.1", start, end)) {
+			return "HTTP/1.1";
+		} else if (matches("HTTP/1.0", start, end)) {
+			return "HTTP/1.0";
+		} else {
+			return decode(start, end);
+		}
+	}
+
+	/**
+	 * Returns a path, using the String from an earlier request for the
+	 * same path if it is still in the table.
+	 */
+	private String path(int start, int end) {
+		if (end - start > MAX_INTERNED_LENGTH) {
+			return decode(start, end);
+		}
+		int hash = 0;
+		for (int i = start; i < end; i++) {
+			if (head[i] < 0) {
+				return decode(start, end);    // not ASCII
+			}
+			hash = 31 * hash + head[i];
+		}
+		int slot = (hash ^ (hash >>> 16)) & (internedPaths.length - 1);
+		String path = internedPaths[slot];
+		if (path == null || !matches(path, start, end)) {
+			path = decode(start, end);
+			internedPaths[slot] = path;
+		}
+		return path;
+	}
+
+	/** Tests whether some of the head is the ASCII characters of text. */
+	private boolean matches(String text, int start, int end) {
+		if (end - start != text.length()) {
+			return false;
+		}
+		for (int i = start; i < end; i++) {
+			if (head[i] != text.charAt(i - start)) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private String decode(int start, int end) {
+		return new String(head, start, end - start, StandardCharsets.UTF_8);
+	}
+
+	/** Tests for the ASCII whitespace characters that Scanner skips. */
+	private static boolean isWhitespace(byte b) {
+		return b == ' ' || b == '\n' || b == '\r' || b == '\t' || b == '\f' || b == 0x0B;
+	}
+}
@@ -0,0 +1,441 @@
+package simplewebserver;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.GatheringByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A reply that is ready to send: some text, made of the status line and
+ * headers and any body the server generated, followed by the contents of
+ * a file if one was requested.  The file's contents may come from the
+ * FileCache instead of the file itself.
+ * <p>
+ * A response is a list of pieces that are sent one after the other: text,
+ * bytes in a buffer, or a region of a file.  Most responses have one or
+ * two, but a response to a request for several ranges of a file has a
+ * region for each range, with the text of the multipart body between
+ * them.  Every region comes from the same file.
+ * <p>
+ * A response can be written to a blocking socket all at once, or to a
+ * non-blocking channel a piece at a time as the channel has room for it.
+ * Pieces of bytes that follow each other, such as the headers and the
+ * contents of a cached file, are written together with one gathering
+ * write when the channel can take one.
+ * Text is encoded in the platform's default charset, the same as the
+ * PrintWriter the server has always used.
+ * <p>
+ * A file is sent with FileChannel.transferTo() whenever the socket has a
+ * channel, which on Linux lets the kernel copy the file straight to the
+ * socket (sendfile) without it ever passing through the Java heap.  A
+ * socket without a channel gets the file copied through a large buffer
+ * instead.  Either way the file is read by position, so its regions can
+ * be sent in any order.  Exactly as many bytes are sent as the
+ * Content-Length said; if the file gets shorter while it is being sent,
+ * the connection is dropped so the client can tell the download is
+ * incomplete.
+ * <p>
+ * A response remembers the status code from its status line and counts
+ * the bytes it has sent, for the server's metrics and access log.
+ */
+class Response {
+
+	/** The size of the buffer used to copy a file to a socket stream. */
+	private static final int COPY_BUFFER_SIZE = 256 * 1024;
+
+	/**
+	 * One piece of a response: bytes, or if bytes is null, the region of
+	 * the file from start up to end.
+	 */
+	private static class Piece {
+
+		final ByteBuffer bytes;
+		final long start;
+		final long end;
+
+		Piece(ByteBuffer bytes, long start, long end) {
+			this.bytes = bytes;
+			this.start = start;
+			this.end = end;
+		}
+	}
+
+	private final List<Piece> pieces = new ArrayList<>(2);
+	private final boolean keepAlive;
+	private File file;
+	private int status;
+	private long bytesSent;
+
+	/* Only used while writing to a non-blocking channel. */
+	private int current;
+	private FileChannel fileChannel;
+
+	/* The pieces' buffers, for gathering writes, made when first needed. */
+	private ByteBuffer[] gather;
+	private long filePosition = -1;
+
+	/**
+	 * Creates an empty response, to be filled with add().
+	 *
+	 * @param keepAlive True if the connection stays open afterwards, which
+	 *     the headers that are added must agree with.
+	 */
+	Response(boolean keepAlive) {
+		this.keepAlive = keepAlive;
+	}
+
+	/**
+	 * Creates a response that is only text.
+	 *
+	 * @param text Everything to send.
+	 * @param keepAlive True if the connection stays open afterwards, which
+	 *     the text's headers must agree with.
+	 * @return The response.
+	 */
+	static Response text(String text, boolean keepAlive) {
+		return new Response(keepAlive).add(text);
+	}
+
+	/**
+	 * Creates a response that sends a file after its headers.  The file's
+	 * length is taken now, so it should match the Content-Length in
+	 * <code>head</code>.
+	 *
+	 * @param head The status line and headers.
+	 * @param file The file to send after them.
+	 * @param keepAlive True if the connection stays open afterwards, which
+	 *     the headers must agree with.
+	 * @return The response.
+	 */
+	static Response file(ResponseHead head, File file, boolean keepAlive) {
+		return new Response(keepAlive).add(head).add(file, 0, file.length());
+	}
+
+	/**
+	 * Creates a response that sends the bytes of a buffer after its
+	 * headers.
+	 *
+	 * @param head The status line and headers.
+	 * @param body The bytes to send after them, from its position to its
+	 *     limit.  The response moves its position, so it should be a buffer
+	 *     of the response's own, such as a duplicate.
+	 * @param keepAlive True if the connection stays open afterwards, which
+	 *     the headers must agree with.
+	 * @return The response.
+	 */
+	static Response buffer(ResponseHead head, ByteBuffer body, boolean keepAlive) {
+		return new Response(keepAlive).add(head).add(body);
+	}
+
+	/**
+	 * Adds a status line and headers to the end of the response, which
+	 * should be empty.
+	 *
+	 * @param head The head, which mustn't be added to afterwards.
+	 * @return This response.
+	 */
+	Response add(ResponseHead head) {
+		if (pieces.isEmpty()) {
+			status = head.status();
+		}
+		return add(head.end());
+	}
+
+	/**
+	 * Adds text to the end of the response.
+	 *
+	 * @param text The text to send.
+	 * @return This response.
+	 */
+	Response add(String text) {
+		if (pieces.isEmpty()) {
+			status = parseStatus(text);
+		}
+		return add(ByteBuffer.wrap(text.getBytes(Charset.defaultCharset())));
+	}
+
+	/**
+	 * Reads the status code from the start of an HTTP response.
+	 *
+	 * @return The code, or 0 if the text doesn't start with a status line.
+	 */
+	private static int parseStatus(String text) {
+		// "HTTP/1.1 200 ..."
+		if (!text.startsWith("HTTP/") || text.length() < 12 || text.charAt(8) != ' ') {
+			return 0;
+		}
+		int code = 0;
+		for (int i = 9; i < 12; i++) {
+			char c = text.charAt(i);
+			if (c < '0' || c > '9') {
+				return 0;
+			}
+			code = code * 10 + (c - '0');
+		}
+		return code;
+	}
+
+	/**
+	 * Adds bytes to the end of the response.
+	 *
+	 * @param bytes The bytes to send, from its position to its limit.  The
+	 *     response moves its position.
+	 * @return This response.
+	 */
+	Response add(ByteBuffer bytes) {
+		pieces.add(new Piece(bytes, 0, 0));
+		return this;
+	}
+
+	/**
+	 * Adds a region of a file to the end of the response.
+	 *
+	 * @param file The file, which must be the same for every region.
+	 * @param start The position of the region's first byte.
+	 * @param end The position just after the region's last byte.
+	 * @return This response.
+	 * @throws IllegalArgumentException If the response already sends a
+	 *     different file.
+	 */
+	Response add(File file, long start, long end) {
+		if (this.file != null && !this.file.equals(file)) {
+			throw new IllegalArgumentException("A response can only send one file.");
+		}
+		this.file = file;
+		pieces.add(new Piece(null, start, end));
+		return this;
+	}
+
+	/**
+	 * Tests whether the connection stays open for another request after
+	 * this response.
+	 *
+	 * @return True to keep the connection, false to close it.
+	 */
+	boolean keepAlive() {
+		return keepAlive;
+	}
+
+	/**
+	 * @return The status code, such as 200, or 0 if the response isn't
+	 *     HTTP, like the reply to the "index" command.
+	 */
+	int status() {
+		return status;
+	}
+
+	/** @return The number of bytes written so far. */
+	long bytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Writes the whole response to a blocking socket.
+	 *
+	 * @param socket The socket to write to.
+	 * @throws IOException If the file can't be read or the socket fails.
+	 */
+	void writeTo(Socket socket) throws IOException {
+		WritableByteChannel channel = socket.getChannel();
+		boolean sendfile = channel != null;
+		if (!sendfile) {
+			channel = Channels.newChannel(socket.getOutputStream());
+		}
+
+		FileChannel in = null;
+		ByteBuffer chunk = null;
+		try {
+			for (int i = 0; i < pieces.size(); i++) {
+				Piece piece = pieces.get(i);
+				if (piece.bytes != null) {
+					int end = gatherEnd(i, channel);
+					for (long left = remaining(i, end); left > 0; ) {
+						long n = write(channel, i, end);
+						left -= n;
+						bytesSent += n;
+					}
+					i = end - 1;
+					continue;
+				}
+				if (in == null) {
+					in = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				}
+				long position = piece.start;
+				while (position < piece.end) {
+					long n = sendfile ? transfer(in, position, piece.end, channel) : 0;
+					if (n == 0) {
+						// Without a channel, or on a virtual thread whose socket
+						// is non-blocking underneath and so makes transferTo()
+						// give up when it is full, write() is what waits.
+						if (chunk == null) {
+							chunk = ByteBuffer.allocate(COPY_BUFFER_SIZE);
+						}
+						n = copyChunk(in, position, piece.end, chunk, channel);
+					}
+					position += n;
+					bytesSent += n;
+				}
+			}
+		} finally {
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+
+	/**
+	 * Writes as much of the response as <code>channel</code> will take
+	 * without blocking.  Call it again when the channel has room, until it
+	 * returns true.
+	 *
+	 * @param channel A non-blocking channel to write to.
+	 * @return True if the whole response has been written.
+	 * @throws IOException If the file can't be read or the channel fails.
+	 */
+	boolean writeTo(WritableByteChannel channel) throws IOException {
+		while (current < pieces.size()) {
+			Piece piece = pieces.get(current);
+			if (piece.bytes != null) {
+				int end = gatherEnd(current, channel);
+				while (remaining(current, end) > 0) {
+					long n = write(channel, current, end);
+					if (n == 0) {
+						return false;
+					}
+					bytesSent += n;
+				}
+				current = end;
+				continue;
+			} else {
+				if (fileChannel == null) {
+					fileChannel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+				}
+				if (filePosition < 0) {
+					filePosition = piece.start;
+				}
+				while (filePosition < piece.end) {
+					long n = transfer(fileChannel, filePosition, piece.end, channel);
+					if (n == 0) {
+						return false;
+					}
+					filePosition += n;
+					bytesSent += n;
+				}
+				filePosition = -1;
+			}
+			current++;
+		}
+		return true;
+	}
+
+	/**
+	 * Finds the end of the run of pieces of bytes that starts at
+	 * <code>start</code>, which can go to the channel in one gathering
+	 * write.  A channel that can't gather gets one piece at a time.
+	 *
+	 * @return The index just after the run's last piece.
+	 */
+	private int gatherEnd(int start, WritableByteChannel channel) {
+		int end = start + 1;
+		if (channel instanceof GatheringByteChannel) {
+			while (end < pieces.size() && pieces.get(end).bytes != null) {
+				end++;
+			}
+		}
+		return end;
+	}
+
+	/**
+	 * @return The number of bytes left to write in the pieces from
+	 *     <code>start</code> up to <code>end</code>, which are all bytes.
+	 */
+	private long remaining(int start, int end) {
+		long left = 0;
+		for (int i = start; i < end; i++) {
+			left += pieces.get(i).bytes.remaining();
+		}
+		return left;
+	}
+
+	/**
+	 * Writes what the channel takes of the pieces from <code>start</code>
+	 * up to <code>end</code>, which are all bytes.  A channel that can
+	 * gather gets them all in one call, so the head and body of a cached
+	 * file usually go out in a single system call.
+	 *
+	 * @return The number of bytes written.
+	 */
+	private long write(WritableByteChannel channel, int start, int end) throws IOException {
+		if (end - start == 1) {
+			return channel.write(pieces.get(start).bytes);
+		}
+		if (gather == null) {
+			gather = new ByteBuffer[pieces.size()];
+			for (int i = 0; i < gather.length; i++) {
+				gather[i] = pieces.get(i).bytes;
+			}
+		}
+		return ((GatheringByteChannel) channel).write(gather, start, end - start);
+	}
+
+	/**
+	 * Sends as much of a region of the file as the channel takes in one
+	 * go.
+	 *
+	 * @return The number of bytes sent, which is 0 only if a non-blocking
+	 *     channel is full.
+	 * @throws IOException If the transfer fails or the file has got
+	 *     shorter than the region.
+	 */
+	private long transfer(FileChannel in, long position, long end, WritableByteChannel out)
+					throws IOException {
+		long n = in.transferTo(position, end - position, out);
+		if (n == 0 && position >= in.size()) {
+			throw new EOFException(file + " got shorter while it was being sent.");
+		}
+		return n;
+	}
+
+	/**
+	 * Copies the next part of a region of the file through a buffer,
+	 * waiting until the channel has taken all of it.
+	 *
+	 * @return The number of bytes sent.
+	 * @throws IOException If the copy fails or the file has got shorter
+	 *     than the region.
+	 */
+	private long copyChunk(FileChannel in, long position, long end, ByteBuffer chunk,
+					WritableByteChannel out) throws IOException {
+		chunk.clear();
+		chunk.limit((int) Math.min(chunk.capacity(), end - position));
+		if (in.read(chunk, position) < 0) {
+			throw new EOFException(file + " got shorter while it was being sent.");
+		}
+		chunk.flip();
+		int n = chunk.remaining();
+		while (chunk.hasRemaining()) {
+			out.write(chunk);
+		}
+		return n;
+	}
+
+	/**
+	 * Lets go of the file, if one was opened for writing to a channel.
+	 */
+	void close() {
+		if (fileChannel != null) {
+			try {
+				fileChannel.close();
+			} catch (IOException e) {
+			}
+			fileChannel = null;
+		}
+	}
+}
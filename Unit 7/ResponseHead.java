@@ -0,0 +1,194 @@
+package simplewebserver;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * The status line and headers of a response, put together from header
+ * lines that were encoded once and are copied in as bytes.
+ * <p>
+ * The status lines a file can be sent with, the Connection headers and the
+ * other headers that never change are encoded when the class is loaded.
+ * The Content-Type lines come from MimeTypes, and the ETag and
+ * Last-Modified lines of a cached file from its FileCache.Entry, so the
+ * headers of a cached file are made without building a String or
+ * encoding one.  A number, such as the Content-Length, is written as
+ * digits straight into the bytes.  A head only allocates the array it
+ * collects the bytes in, which is big enough for the usual headers.
+ * <p>
+ * Header lines are ASCII, and anything else is written as ISO-8859-1, the
+ * way HTTP has always treated header bytes.
+ */
+class ResponseHead {
+
+	/** The usual length of a file's headers, which the array starts at. */
+	private static final int INITIAL_SIZE = 256;
+
+	static final byte[] KEEP_ALIVE = encode("Connection: keep-alive\r\n");
+	static final byte[] CLOSE = encode("Connection: close\r\n");
+	static final byte[] ACCEPT_RANGES = encode("Accept-Ranges: bytes\r\n");
+	static final byte[] VARY_ACCEPT_ENCODING = encode("Vary: Accept-Encoding\r\n");
+	static final byte[] GZIP = encode("Content-Encoding: " + Compression.GZIP + "\r\n");
+	static final byte[] DEFLATE = encode("Content-Encoding: " + Compression.DEFLATE + "\r\n");
+
+	private static final byte[] CONTENT_LENGTH = encode("Content-Length: ");
+	private static final byte[] CRLF = encode("\r\n");
+
+	/** The protocols and codes whose status lines are encoded ahead. */
+	private static final String[] PROTOCOLS = { "HTTP/1.1", "HTTP/1.0", Http2Connection.PROTOCOL };
+	private static final int[] CODES = { 200, 206, 304 };
+	private static final String[] REASONS = { "OK", "Partial Content", "Not Modified" };
+
+	/** The status lines, by protocol and then code. */
+	private static final byte[][][] STATUS_LINES = new byte[PROTOCOLS.length][CODES.length][];
+
+	static {
+		for (int i = 0; i < PROTOCOLS.length; i++) {
+			for (int j = 0; j < CODES.length; j++) {
+				STATUS_LINES[i][j] = encode(PROTOCOLS[i] + " " + CODES[j] + " " + REASONS[j] + "\r\n");
+			}
+		}
+	}
+
+	private final int status;
+	private byte[] bytes = new byte[INITIAL_SIZE];
+	private int length;
+
+	/**
+	 * Starts a head with its status line and Connection header.
+	 *
+	 * @param protocol The protocol of the request, such as "HTTP/1.1".
+	 * @param status The status code: 200, 206 or 304.
+	 * @param keepAlive True if the connection stays open afterwards.
+	 */
+	ResponseHead(String protocol, int status, boolean keepAlive) {
+		this.status = status;
+		add(statusLine(protocol, status));
+		add(keepAlive ? KEEP_ALIVE : CLOSE);
+	}
+
+	/**
+	 * Encodes text as header bytes.
+	 *
+	 * @param text The text, which should be ASCII.
+	 * @return Its bytes.
+	 */
+	static byte[] encode(String text) {
+		return text.getBytes(StandardCharsets.ISO_8859_1);
+	}
+
+	/**
+	 * Returns the status line for a protocol and code, with its CRLF.
+	 */
+	private static byte[] statusLine(String protocol, int status) {
+		int code = 0;
+		while (code < CODES.length && CODES[code] != status) {
+			code++;
+		}
+		if (code == CODES.length) {
+			throw new IllegalArgumentException("No status line for " + status + ".");
+		}
+		for (int i = 0; i < PROTOCOLS.length; i++) {
+			if (PROTOCOLS[i].equals(protocol)) {
+				return STATUS_LINES[i][code];
+			}
+		}
+		// "http/1.1" in lower case is accepted too, and answered as it was sent.
+		return encode(protocol + " " + status + " " + REASONS[code] + "\r\n");
+	}
+
+	/** @return The status code. */
+	int status() {
+		return status;
+	}
+
+	/**
+	 * Adds encoded header lines.
+	 *
+	 * @param line One or more lines, each ending with CRLF.  The array is
+	 *     copied, so it can be shared.
+	 * @return This head.
+	 */
+	ResponseHead add(byte[] line) {
+		ensureRoom(line.length);
+		System.arraycopy(line, 0, bytes, length, line.length);
+		length += line.length;
+		return this;
+	}
+
+	/**
+	 * Adds a header line whose value changes from response to response.
+	 *
+	 * @param name The header's name, such as "Content-Range".
+	 * @param value Its value.
+	 * @return This head.
+	 */
+	ResponseHead add(String name, String value) {
+		ensureRoom(name.length() + value.length() + 4);
+		length = copy(name, length);
+		bytes[length++] = ':';
+		bytes[length++] = ' ';
+		length = copy(value, length);
+		bytes[length++] = '\r';
+		bytes[length++] = '\n';
+		return this;
+	}
+
+	/**
+	 * Adds the Content-Length header.
+	 *
+	 * @param contentLength The length of the body, which isn't negative.
+	 * @return This head.
+	 */
+	ResponseHead contentLength(long contentLength) {
+		add(CONTENT_LENGTH);
+		ensureRoom(21);
+		int digits = 1;
+		for (long n = contentLength / 10; n > 0; n /= 10) {
+			digits++;
+		}
+		for (int i = length + digits - 1; i >= length; i--) {
+			bytes[i] = (byte) ('0' + contentLength % 10);
+			contentLength /= 10;
+		}
+		length += digits;
+		bytes[length++] = '\r';
+		bytes[length++] = '\n';
+		return this;
+	}
+
+	/**
+	 * Ends the head with its blank line.
+	 *
+	 * @return The bytes of the head, ready to be written.  The head must
+	 *     not be added to afterwards.
+	 */
+	ByteBuffer end() {
+		add(CRLF);
+		return ByteBuffer.wrap(bytes, 0, length);
+	}
+
+	/**
+	 * Writes the characters of a string as ISO-8859-1 bytes.
+	 *
+	 * @return The position after the last byte written.
+	 */
+	private int copy(String text, int position) {
+		for (int i = 0; i < text.length(); i++) {
+			char c = text.charAt(i);
+			bytes[position++] = (byte) (c <= 0xff ? c : '?');
+		}
+		return position;
+	}
+
+	/**
+	 * Makes the array bigger if fewer than <code>needed</code> bytes are
+	 * left in it.
+	 */
+	private void ensureRoom(int needed) {
+		if (length + needed > bytes.length) {
+			bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + needed));
+		}
+	}
+}
@@ -0,0 +1,132 @@
+package testwebserver;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reads one response from the server as its bytes arrive, without keeping
+ * more of it than the status line and headers.
+ * <p>
+ * An HTTP response ends after as many bytes as its Content-Length says,
+ * or if it has none, when the server closes the connection.  The reply to
+ * the "index" command isn't HTTP, and always ends when the server closes
+ * the connection.
+ */
+class ResponseReader {
+
+	/** The longest status line and headers accepted. */
+	private static final int MAX_HEAD_LENGTH = 64 * 1024;
+
+	private final byte[] head = new byte[MAX_HEAD_LENGTH];
+	private int headLength;
+	private boolean inBody;
+	private int status;
+	private long remaining;
+	private boolean closes;
+	private long bytes;
+
+	/**
+	 * Gets ready for the next response.
+	 *
+	 * @param http True for an HTTP response, false for the reply to
+	 *     "index".
+	 */
+	void start(boolean http) {
+		headLength = 0;
+		inBody = !http;
+		status = 0;
+		remaining = -1;
+		closes = !http;
+		bytes = 0;
+	}
+
+	/**
+	 * Reads the bytes of a buffer that belong to the response.
+	 *
+	 * @param input The bytes that arrived.
+	 * @return True if the response is complete.
+	 * @throws IOException If the status line and headers are too long.
+	 */
+	boolean feed(ByteBuffer input) throws IOException {
+		while (!inBody && input.hasRemaining()) {
+			if (headLength == MAX_HEAD_LENGTH) {
+				throw new IOException("The response's headers are too long.");
+			}
+			head[headLength++] = input.get();
+			bytes++;
+			if (headLength >= 4 && head[headLength - 1] == '\n' && head[headLength - 2] == '\r'
+							&& head[headLength - 3] == '\n' && head[headLength - 4] == '\r') {
+				readHead();
+				inBody = true;
+				if (remaining == 0) {
+					return true;
+				}
+			}
+		}
+		int n = input.remaining();
+		if (remaining >= 0) {
+			n = (int) Math.min(n, remaining);
+			remaining -= n;
+		}
+		input.position(input.position() + n);
+		bytes += n;
+		return remaining == 0;
+	}
+
+	/**
+	 * Tells the reader that the server has closed the connection.
+	 *
+	 * @return True if that was the proper end of the response.
+	 */
+	boolean endOfInput() {
+		return inBody && remaining < 0;
+	}
+
+	/** @return The status code, or 0 for the reply to "index". */
+	int status() {
+		return status;
+	}
+
+	/** @return The number of bytes of the response, headers included. */
+	long bytes() {
+		return bytes;
+	}
+
+	/** @return True if the server closes the connection after it. */
+	boolean closes() {
+		return closes;
+	}
+
+	/**
+	 * Reads the status code, Content-Length and Connection header.
+	 */
+	private void readHead() throws IOException {
+		String[] lines = new String(head, 0, headLength, StandardCharsets.ISO_8859_1).split("\r\n");
+		String[] statusLine = lines[0].split(" ");
+		try {
+			status = Integer.parseInt(statusLine[1]);
+		} catch (RuntimeException e) {
+			throw new IOException("Bad status line: " + lines[0]);
+		}
+		for (int i = 1; i < lines.length; i++) {
+			int colon = lines[i].indexOf(':');
+			if (colon < 0) {
+				continue;
+			}
+			String name = lines[i].substring(0, colon).trim();
+			String value = lines[i].substring(colon + 1).trim();
+			if (name.equalsIgnoreCase("Content-Length")) {
+				remaining = Long.parseLong(value);
+			} else if (name.equalsIgnoreCase("Connection")) {
+				closes = value.equalsIgnoreCase("close");
+			}
+		}
+		if (status == 304 || status == 204 || status / 100 == 1) {
+			remaining = 0;
+		}
+		if (remaining < 0) {
+			closes = true;
+		}
+	}
+}
@@ -0,0 +1,400 @@
+package simplewebserver;
+
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The server engine that uses non-blocking channels and selectors, so a
+ * few threads can look after tens of thousands of connections.
+ * <p>
+ * The main thread accepts connections and hands each one to an I/O
+ * thread, taking turns.  Each I/O thread has its own Selector and waits
+ * for any of its connections to be ready.  A connection only costs its
+ * parser's few bytes until its request is complete, since the thread
+ * reads every connection through one shared buffer.  A complete request
+ * is handled on a virtual thread of its own, since working out a response
+ * can mean reading a file, listing a directory or compressing, and an I/O
+ * thread that did that itself would keep all of its other connections
+ * waiting.  The finished response is queued for the I/O thread, which is
+ * woken to write it as fast as the client takes it.  Nothing more is read
+ * from the client until the response has been written.  If the response
+ * keeps the connection open, any pipelined requests that arrived with the
+ * last one are answered next, and then the connection waits for more.
+ * <p>
+ * About once a second, each I/O thread closes the connections that have
+ * made no progress for longer than the idle timeout.  A connection whose
+ * request is still being handled doesn't count as idle.
+ * <p>
+ * A connection whose first request is the HTTP/2 preface, or whose request
+ * asks to upgrade to h2c, leaves the selector and is served by an
+ * Http2Connection on a virtual thread of its own, with the channel in
+ * blocking mode, since HTTP/2 answers many requests at once anyway.
+ */
+class SelectorServer {
+
+	/** The size of each I/O thread's read buffer. */
+	private static final int READ_BUFFER_SIZE = 8192;
+
+	/** How often each I/O thread looks for idle connections. */
+	private static final long IDLE_CHECK_MILLIS = 1000;
+
+	private final int port;
+	private final RequestHandler handler;
+	private final ConnectionGauge gauge;
+	private final long idleTimeout;
+	private final int maxRequests;
+	private final IoThread[] ioThreads;
+
+	/**
+	 * Creates the server.  Nothing happens until run() is called.
+	 *
+	 * @param port The port to listen on.
+	 * @param ioThreadCount The number of I/O threads.
+	 * @param handler Works out the response to each request.
+	 * @param gauge Counts the open connections.
+	 * @param idleTimeout How many milliseconds a connection may go without
+	 *     progress before it is closed.
+	 * @param maxRequests The most requests answered on one connection.
+	 */
+	SelectorServer(int port, int ioThreadCount, RequestHandler handler,
+					ConnectionGauge gauge, int idleTimeout, int maxRequests) {
+		this.port = port;
+		this.handler = handler;
+		this.gauge = gauge;
+		this.idleTimeout = idleTimeout;
+		this.maxRequests = maxRequests;
+		this.ioThreads = new IoThread[ioThreadCount];
+	}
+
+	/**
+	 * Starts the I/O threads, then accepts connections until the server
+	 * socket fails.
+	 *
+	 * @throws IOException If the I/O threads or the listening socket
+	 *     can't be created.
+	 */
+	void run() throws IOException {
+
+		for (int i = 0; i < ioThreads.length; i++) {
+			ioThreads[i] = new IoThread(i);
+			ioThreads[i].start();
+		}
+
+		ServerSocketChannel serverChannel = ServerSocketChannel.open();
+		try {
+			serverChannel.bind(new InetSocketAddress(port), SimpleWebServer.ACCEPT_BACKLOG);
+		} catch (IOException e) {
+			serverChannel.close();
+			throw e;
+		}
+		System.out.println("Listening on port " + port);
+
+		/* Accept connections and pass them to the I/O threads in turn.
+		 * The server runs until the program is terminated, for example
+		 * by a CONTROL-C.
+		 */
+		try {
+			int next = 0;
+			while (true) {
+				SocketChannel connection = serverChannel.accept();
+				gauge.opened();
+				ioThreads[next].add(connection);
+				next = (next + 1) % ioThreads.length;
+			}
+		} catch (IOException e) {
+			System.out.println("Server socket shut down unexpectedly!");
+			System.out.println("Error: " + e);
+			System.out.println("Exiting.");
+		} finally {
+			try {
+				serverChannel.close();
+			} catch (IOException e) {
+				System.out.println("Error closing the server socket.");
+			}
+		}
+	}
+
+	/**
+	 * A thread that does all of the reading and writing for its share of
+	 * the connections.
+	 */
+	private class IoThread extends Thread {
+
+		private final Selector selector;
+		private final Queue<SocketChannel> newConnections = new ConcurrentLinkedQueue<>();
+		private final Queue<Connection> handled = new ConcurrentLinkedQueue<>();
+		private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(READ_BUFFER_SIZE);
+		private final List<Connection> http2 = new ArrayList<>();
+
+		IoThread(int number) throws IOException {
+			super("io-" + number);
+			setDaemon(true);
+			selector = Selector.open();
+		}
+
+		/** Gives this thread a newly accepted connection. */
+		void add(SocketChannel connection) {
+			newConnections.add(connection);
+			selector.wakeup();
+		}
+
+		@Override
+		public void run() {
+			long lastIdleCheck = System.currentTimeMillis();
+			while (true) {
+				try {
+					selector.select(IDLE_CHECK_MILLIS);
+				} catch (IOException e) {
+					System.out.println("Selector failed: " + e);
+					return;
+				}
+
+				// The select() has let go of the channels whose keys were
+				// cancelled to hand them over to HTTP/2.
+				for (Connection connection : http2) {
+					connection.startHttp2();
+				}
+				http2.clear();
+
+				long now = System.currentTimeMillis();
+				if (now - lastIdleCheck >= IDLE_CHECK_MILLIS) {
+					closeIdleConnections(now);
+					lastIdleCheck = now;
+				}
+
+				Connection done;
+				while ((done = handled.poll()) != null) {
+					done.handled();
+				}
+
+				SocketChannel channel;
+				while ((channel = newConnections.poll()) != null) {
+					try {
+						channel.configureBlocking(false);
+						channel.socket().setTcpNoDelay(true);
+						channel.register(selector, SelectionKey.OP_READ, new Connection(channel));
+					} catch (IOException e) {
+						close(channel);
+					}
+				}
+
+				Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+				while (keys.hasNext()) {
+					SelectionKey key = keys.next();
+					keys.remove();
+					Connection connection = (Connection) key.attachment();
+					try {
+						if (key.isReadable()) {
+							connection.read(key);
+						} else if (key.isWritable()) {
+							connection.write(key);
+						}
+					} catch (IOException | RuntimeException e) {
+						connection.close(key);
+					}
+				}
+			}
+		}
+
+		/** Closes every connection that has been idle for too long. */
+		private void closeIdleConnections(long now) {
+			for (SelectionKey key : selector.keys()) {
+				Connection connection = (Connection) key.attachment();
+				if (key.isValid() && !connection.handling
+								&& now - connection.lastActive > idleTimeout) {
+					connection.close(key);
+				}
+			}
+		}
+
+		/**
+		 * The state of one connection: a request being read, handled or
+		 * answered, and any bytes of the next request that arrived early.
+		 * Only the I/O thread uses it, except for <code>response</code>,
+		 * which the handling thread sets before it queues the connection.
+		 */
+		private class Connection {
+
+			private final SocketChannel channel;
+			private final RequestParser parser = new RequestParser();
+			private InetAddress client;
+			private Request request;
+			private long started;
+			private Response response;
+			private ByteBuffer pending;
+			private int requests;
+			private boolean endOfInput;
+			private boolean handling;
+			private long lastActive = System.currentTimeMillis();
+
+			Connection(SocketChannel channel) {
+				this.channel = channel;
+			}
+
+			void read(SelectionKey key) throws IOException {
+				readBuffer.clear();
+				int n = channel.read(readBuffer);
+				lastActive = System.currentTimeMillis();
+				if (n < 0) {
+					endOfInput = true;
+					if (requests == 0 || parser.hasStarted()) {
+						respond(key, parser.request(true));
+					} else {
+						close(key);
+					}
+				} else {
+					readBuffer.flip();
+					if (parser.feed(readBuffer)) {
+						if (readBuffer.hasRemaining()) {
+							pending = ByteBuffer.allocate(readBuffer.remaining());
+							pending.put(readBuffer).flip();
+						}
+						Request next = parser.request(false);
+						if (handOver(key, next)) {
+							return;
+						}
+						respond(key, next);
+					}
+				}
+			}
+
+			/**
+			 * Handles a request on a virtual thread.  The connection is
+			 * left out of the selects until handled() is called with the
+			 * response.
+			 */
+			private void respond(SelectionKey key, Request request) throws IOException {
+				if (client == null) {
+					client = ((InetSocketAddress) channel.getRemoteAddress()).getAddress();
+				}
+				this.request = request;
+				started = System.nanoTime();
+				requests++;
+				boolean mayKeepAlive = requests < maxRequests && !endOfInput;
+				handling = true;
+				key.interestOps(0);
+				Thread.ofVirtual().name(getName() + "-handler").start(() -> {
+					try {
+						response = handler.handle(request, client, mayKeepAlive);
+					} finally {
+						handled.add(this);
+						selector.wakeup();
+					}
+				});
+			}
+
+			/**
+			 * Starts writing the response once the request has been
+			 * handled, back on the I/O thread.  If handling failed there is
+			 * no response, and the connection is closed.
+			 */
+			void handled() {
+				handling = false;
+				SelectionKey key = channel.keyFor(selector);
+				if (response == null) {
+					close(key);    // the handler threw, and has been reported
+					return;
+				}
+				try {
+					key.interestOps(SelectionKey.OP_WRITE);
+					write(key);
+				} catch (IOException | RuntimeException e) {
+					close(key);
+				}
+			}
+
+			/**
+			 * Writes what the channel will take of the response.  When it
+			 * is done, either closes the connection or goes on to the next
+			 * request, which may already be waiting in the pending bytes.
+			 */
+			void write(SelectionKey key) throws IOException {
+				lastActive = System.currentTimeMillis();
+				while (response.writeTo(channel)) {
+					response.close();
+					handler.sent(request, response, client, started);
+					if (!response.keepAlive()) {
+						close(key);
+						return;
+					}
+					response = null;
+					parser.reset();
+					if (pending == null || !parser.feed(pending)) {
+						pending = null;
+						key.interestOps(SelectionKey.OP_READ);
+						return;
+					}
+					if (!pending.hasRemaining()) {
+						pending = null;
+					}
+					Request next = parser.request(false);
+					if (!handOver(key, next)) {
+						respond(key, next);
+					}
+					return;
+				}
+			}
+
+			/**
+			 * Hands the connection over to HTTP/2 if a request starts it.
+			 * The key is cancelled now, and the channel goes to its own
+			 * thread once the next select() has let go of it.
+			 *
+			 * @return True if the connection was handed over.
+			 */
+			private boolean handOver(SelectionKey key, Request next) {
+				if (!Http2Connection.startsHttp2(next, requests == 0)) {
+					return false;
+				}
+				request = next;
+				key.cancel();
+				http2.add(this);
+				selector.wakeup();
+				return true;
+			}
+
+			/**
+			 * Serves the connection as HTTP/2 on a virtual thread, until it
+			 * ends.
+			 */
+			void startHttp2() {
+				Thread.ofVirtual().name(getName() + "-h2").start(() -> {
+					try {
+						channel.configureBlocking(true);
+						new Http2Connection(channel.socket(), handler, (int) idleTimeout)
+										.serve(request, pending);
+					} catch (IOException e) {
+						handler.error(channel.socket().getInetAddress() + " " + e);
+					} finally {
+						SelectorServer.this.close(channel);
+					}
+				});
+			}
+
+			void close(SelectionKey key) {
+				key.cancel();
+				if (response != null) {
+					response.close();
+				}
+				SelectorServer.this.close(channel);
+			}
+		}
+	}
+
+	/** Closes a connection and counts it as closed. */
+	private void close(SocketChannel channel) {
+		try {
+			channel.close();
+		} catch (IOException e) {
+		}
+		gauge.closed();
+	}
+}
@@ -0,0 +1,141 @@
+package simplewebserver;
+
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * Counts what the server has done, for monitoring: responses by status
+ * code, bytes sent, and how long requests took, along with gauges such as
+ * the number of open connections that are read when they are asked for.
+ * <p>
+ * Everything can be recorded from any number of threads at once without
+ * locking, so keeping count costs a request almost nothing.  The metrics
+ * are written in the Prometheus text format, which a Prometheus server can
+ * scrape and which is easy enough to read in a browser.
+ */
+class ServerMetrics {
+
+	/** The quantiles of the request duration that are reported. */
+	private static final double[] QUANTILES = { 0.5, 0.9, 0.99, 0.999 };
+
+	/** A value that is read when the metrics are written. */
+	private static class Reading {
+
+		final String name;
+		final String type;
+		final String help;
+		final LongSupplier value;
+
+		Reading(String name, String type, String help, LongSupplier value) {
+			this.name = name;
+			this.type = type;
+			this.help = help;
+			this.value = value;
+		}
+	}
+
+	/** The number of responses with each status code, by code. */
+	private final AtomicLongArray responses = new AtomicLongArray(600);
+	private final LongAdder bytesSent = new LongAdder();
+	private final LatencyHistogram durations = new LatencyHistogram();
+	private final List<Reading> readings = new CopyOnWriteArrayList<>();
+
+	/**
+	 * Adds a gauge to the metrics.
+	 *
+	 * @param name The metric's name, such as "simplewebserver_connections".
+	 * @param help What it measures.
+	 * @param value Reads the value, from whatever thread asks for the
+	 *     metrics.
+	 */
+	void gauge(String name, String help, LongSupplier value) {
+		readings.add(new Reading(name, "gauge", help, value));
+	}
+
+	/**
+	 * Adds a counter that is kept somewhere else to the metrics.  Its
+	 * value should only ever go up.
+	 *
+	 * @param name The metric's name, which should end in "_total".
+	 * @param help What it counts.
+	 * @param value Reads the value, from whatever thread asks for the
+	 *     metrics.
+	 */
+	void counter(String name, String help, LongSupplier value) {
+		readings.add(new Reading(name, "counter", help, value));
+	}
+
+	/**
+	 * Counts a response that has been sent.
+	 *
+	 * @param status The status code, or 0 if the response wasn't HTTP.
+	 * @param bytes The number of bytes sent.
+	 * @param nanos How long it took from reading the request to sending
+	 *     the last byte of the response, in nanoseconds.
+	 */
+	void record(int status, long bytes, long nanos) {
+		if (status > 0 && status < responses.length()) {
+			responses.incrementAndGet(status);
+		}
+		bytesSent.add(bytes);
+		durations.record(nanos / 1000);
+	}
+
+	/**
+	 * Writes the metrics in the Prometheus text format.
+	 *
+	 * @return The metrics, one per line.
+	 */
+	String prometheus() {
+		StringBuilder out = new StringBuilder(2048);
+
+		header(out, "simplewebserver_responses_total", "counter",
+						"Responses sent, by status code.");
+		for (int code = 0; code < responses.length(); code++) {
+			long count = responses.get(code);
+			if (count > 0) {
+				out.append("simplewebserver_responses_total{code=\"").append(code).append("\"} ")
+								.append(count).append('\n');
+			}
+		}
+
+		header(out, "simplewebserver_sent_bytes_total", "counter",
+						"Bytes of responses sent, headers included.");
+		out.append("simplewebserver_sent_bytes_total ").append(bytesSent.sum()).append('\n');
+
+		String name = "simplewebserver_request_duration_seconds";
+		header(out, name, "summary",
+						"Time from reading a request to sending the last byte of its response.");
+		long[] total = new long[1];
+		long[] values = durations.valuesAt(QUANTILES, total);
+		for (int i = 0; i < QUANTILES.length; i++) {
+			out.append(name).append("{quantile=\"").append(QUANTILES[i]).append("\"} ")
+							.append(seconds(values[i])).append('\n');
+		}
+		out.append(name).append("_sum ").append(seconds(durations.sum())).append('\n');
+		out.append(name).append("_count ").append(total[0]).append('\n');
+		header(out, name + "_max", "gauge", "The longest a request has taken.");
+		out.append(name).append("_max ").append(seconds(durations.max())).append('\n');
+
+		for (Reading reading : readings) {
+			header(out, reading.name, reading.type, reading.help);
+			out.append(reading.name).append(' ').append(reading.value.getAsLong()).append('\n');
+		}
+		return out.toString();
+	}
+
+	/** Writes the HELP and TYPE lines that come before a metric. */
+	private static void header(StringBuilder out, String name, String type, String help) {
+		out.append("# HELP ").append(name).append(' ').append(help).append('\n');
+		out.append("# TYPE ").append(name).append(' ').append(type).append('\n');
+	}
+
+	/** Turns microseconds into seconds, as Prometheus expects. */
+	private static String seconds(long micros) {
+		return String.format(Locale.ROOT, "%.6f", micros / 1e6);
+	}
+}
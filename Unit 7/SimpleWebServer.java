@@ -1,11 +1,20 @@
 package simplewebserver;
 
 import java.io.*;
+import java.net.InetSocketAddress;
 import java.net.ServerSocket;
 import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.concurrent.ArrayBlockingQueue;
-import java.util.Date;
-import java.util.Scanner;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 
 /**
  * This program is a simple multi-threaded web server.
@@ -25,47 +34,225 @@ import java.util.Scanner;
  * 
  * The files that the server can serve should all be contained in
  * the directory indicated by the constant ROOT_DIRECTORY.  This can
- * be adjusted to a directory of your choosing on your computer, or it
- * defaults to the current working directory.
+ * be set to a directory of your choosing on your computer with the
+ * system property ROOT_DIRECTORY_PROPERTY, or it defaults to the current
+ * working directory.  The port is set the same way, with PORT_PROPERTY.
  * 
- * This version of the program defines a multi-threaded
- * server that uses a thread pool.  The threads handle
- * all communication with the clients.  The main program
- * simply accepts connections and puts them into a queue.
- * The connection-handling threads in the thread pool remove
- * connections from the queue as they become available.
+ * The server has three engines, chosen with the system property
+ * simplewebserver.engine.  The default, "nio", is SelectorServer: a
+ * few I/O threads use non-blocking channels and selectors, so the
+ * server can hold tens of thousands of connections at once.
+ * "virtual" handles each connection on its own virtual thread, with
+ * the same blocking code as the thread pool, so the number of
+ * connections is only limited by memory.  "threads" is the original
+ * multi-threaded server that uses a thread pool.  The threads handle
+ * all communication with the clients.  The main program simply accepts
+ * connections and puts them into a queue.  The connection-handling
+ * threads in the thread pool remove connections from the queue as they
+ * become available.  All of the engines answer requests with the same
+ * RequestHandler.
+ * 
+ * The thread pool starts with POOL_SIZE_PROPERTY threads and may grow to
+ * MAX_POOL_SIZE_PROPERTY when every thread is busy and the queue of
+ * QUEUE_SIZE_PROPERTY connections is full; the extra threads go away
+ * again once they have been idle for a while.  When the pool can't grow
+ * any more, REJECTION_POLICY_PROPERTY decides what happens to a new
+ * connection: "block" waits for room in the queue, leaving new clients
+ * waiting in the operating system's backlog; "reject" answers the new
+ * connection with "503 Service Unavailable" and a Retry-After header; and
+ * "drop-oldest" answers the connection that has waited longest in the
+ * queue that way instead, and queues the new one.  By default the pool
+ * doesn't grow and the policy is "block", as it always was.
+ * 
+ * HTTP connections are kept open for more requests, as HTTP/1.1 expects,
+ * and a client may send its requests without waiting for each response
+ * (pipelining); they are answered in order.  A connection is closed when
+ * the client asks, after it has been idle for IDLE_TIMEOUT_PROPERTY
+ * milliseconds (15 seconds by default), or after MAX_REQUESTS_PROPERTY
+ * requests (100 by default).  The "index" command still closes the
+ * connection when it has been answered.
+ * 
+ * Recently served files are kept in memory by a FileCache of
+ * CACHE_SIZE_PROPERTY bytes, and a client that sends back a file's ETag or
+ * Last-Modified date gets "304 Not Modified" if the file hasn't changed.
+ * Cached text files are sent gzip or deflate compressed to clients that
+ * accept it, and a file's ".gz" sibling is sent in place of compressing
+ * the file.  Range requests get "206 Partial Content" with just the bytes
+ * asked for, so downloads can be resumed or fetched in pieces.
+ * 
+ * Files are sent with the MIME type for their extension.  The server knows
+ * a few common types itself, and more can be read from a file in the
+ * mime.types format named by MIME_TYPES_PROPERTY.
+ * 
+ * The server counts its responses by status code, the bytes it sends, how
+ * long requests take, and how many connections are open, and a GET of
+ * METRICS_PATH_PROPERTY ("/admin/metrics" by default) returns the counts
+ * in the Prometheus text format.  For the "threads" engine they include
+ * how many connections are waiting in the queue and how many threads are
+ * busy.  Each response is written to an AccessLog, on standard output or
+ * in the file named by ACCESS_LOG_PROPERTY, by a thread of its own, so
+ * that logging doesn't hold up the threads that answer requests.
  * 
  * @author Ryan Coon
  */
 public class SimpleWebServer {
 
 	/**
-	 * The server listens on this port. Note that the port number must
-	 * be greater than 1024 and lest than 65535.
+	 * The system property that sets the port to listen on.
 	 */
-	private final static int LISTENING_PORT = 50500;
+	static final String PORT_PROPERTY = "simplewebserver.port";
+
+	/**
+	 * The system property that sets the directory that files are served
+	 * from.
+	 */
+	static final String ROOT_DIRECTORY_PROPERTY = "simplewebserver.root";
+
+	/**
+	 * The server listens on this port, 50500 unless PORT_PROPERTY says
+	 * otherwise. Note that the port number must be greater than 1024 and
+	 * lest than 65535.
+	 */
+	private final static int LISTENING_PORT = Integer.getInteger(PORT_PROPERTY, 50500);
+
+	/**
+	 * How many connections the operating system will hold for the server
+	 * before it has accepted them.  The default of 50 is soon used up when
+	 * many clients connect at once, and the rest then have to retry.
+	 */
+	static final int ACCEPT_BACKLOG = 1024;
 
 	/**
 	 * The server's root directory.  I used a directory on my home computer
 	 * to store the files that SimpleWebServer would serve up.  For running the
 	 * server on your computer, user.dir will make the server's root directory
-	 * the current working directory that you've saved the file in.
+	 * the current working directory that you've saved the file in, unless
+	 * ROOT_DIRECTORY_PROPERTY names another one.
 	 */
-	private final static String ROOT_DIRECTORY = System.getProperty("user.dir");
+	private final static String ROOT_DIRECTORY = System.getProperty(ROOT_DIRECTORY_PROPERTY,
+					System.getProperty("user.dir"));
 	//private final static String ROOT_DIRECTORY = "G:\\temp\\rootDirectory";
+
+	/**
+	 * The system property that chooses the engine: "nio", "virtual" or
+	 * "threads".
+	 */
+	static final String ENGINE_PROPERTY = "simplewebserver.engine";
+
+	/**
+	 * The system property that sets the number of I/O threads for the
+	 * "nio" engine.  The default is one per processor.
+	 */
+	static final String IO_THREADS_PROPERTY = "simplewebserver.ioThreads";
+
+	/**
+	 * The system property that sets how many milliseconds a connection
+	 * may sit idle, waiting for the client's next request, before it is
+	 * closed.
+	 */
+	static final String IDLE_TIMEOUT_PROPERTY = "simplewebserver.idleTimeout";
+
+	/**
+	 * The system property that sets the most requests answered on one
+	 * connection before it is closed.
+	 */
+	static final String MAX_REQUESTS_PROPERTY = "simplewebserver.maxRequests";
+
+	/**
+	 * The system property that sets how many bytes of file contents the
+	 * server keeps in memory.  The default is 64 MB, and 0 turns the cache
+	 * off.
+	 */
+	static final String CACHE_SIZE_PROPERTY = "simplewebserver.cacheSize";
+
+	/**
+	 * The system property that sets the path that answers with the
+	 * server's metrics.
+	 */
+	static final String METRICS_PATH_PROPERTY = "simplewebserver.metricsPath";
+
+	/**
+	 * The system property that names the file the access log is appended
+	 * to.  Without it, the log goes to standard output.
+	 */
+	static final String ACCESS_LOG_PROPERTY = "simplewebserver.accessLog";
+
+	/**
+	 * The system property that names a mime.types file with more MIME
+	 * types, by file extension.
+	 */
+	static final String MIME_TYPES_PROPERTY = "simplewebserver.mimeTypes";
+
+	/**
+	 * The system property that sets the number of threads the thread pool
+	 * starts with, and never goes below.
+	 */
+	static final String POOL_SIZE_PROPERTY = "simplewebserver.poolSize";
+
+	/**
+	 * The system property that sets the most threads the thread pool grows
+	 * to when it is overloaded.  The default is POOL_SIZE_PROPERTY, so the
+	 * pool doesn't grow.
+	 */
+	static final String MAX_POOL_SIZE_PROPERTY = "simplewebserver.maxPoolSize";
+
+	/**
+	 * The system property that sets the length of the queue of connections
+	 * waiting for a thread.
+	 */
+	static final String QUEUE_SIZE_PROPERTY = "simplewebserver.queueSize";
+
+	/**
+	 * The system property that chooses what happens to a connection when
+	 * the thread pool is as big as it can be and the queue is full:
+	 * "block", "reject" or "drop-oldest".
+	 */
+	static final String REJECTION_POLICY_PROPERTY = "simplewebserver.rejectionPolicy";
+
+	/**
+	 * The size of the buffer each blocking connection reads into.
+	 */
+	private static final int INPUT_BUFFER_SIZE = 8192;
+
+	/**
+	 * The buffers that blocking connections read into, which are reused
+	 * from one connection to the next.
+	 */
+	private static final BufferPool inputBuffers = new BufferPool(INPUT_BUFFER_SIZE, 256);
 	
     /**
-     * The number of threads in the thread pool.
+     * The number of threads in the thread pool, unless
+     * POOL_SIZE_PROPERTY says otherwise.
      */
     private static final int THREAD_POOL_SIZE = 6;
     
     /**
-     * The length of the ArrayBlockingQueue of connections.
+     * The length of the ArrayBlockingQueue of connections, unless
+     * QUEUE_SIZE_PROPERTY says otherwise.
      * This should not be too big, since connections in the
      * queue are waiting for service and hopefully won't 
      * spend too long in the queue.
      */
     private static final int CONNECTION_QUEUE_SIZE = 3;
+
+    /**
+     * How long a thread beyond the pool's starting size waits for a
+     * connection before it ends.
+     */
+    private static final long EXTRA_THREAD_IDLE_SECONDS = 30;
+
+    /**
+     * The number of seconds a rejected client is told to wait before it
+     * tries again, in the Retry-After header.
+     */
+    private static final int RETRY_AFTER_SECONDS = 1;
+
+    /**
+     * How long a rejected connection is kept open, reading and throwing
+     * away whatever the client sends, so that the client gets to read the
+     * 503 before the connection is closed.
+     */
+    private static final int REJECT_LINGER_MILLIS = 1000;
     
     /**
      * The queue that is used to send connections from the
@@ -73,35 +260,199 @@ public class SimpleWebServer {
      * A connection is represented by a connected Socket.
      */
     private static ArrayBlockingQueue<Socket> connectionQueue;
+
+    /**
+     * Works out the response to each request, for either engine.
+     */
+    private static RequestHandler handler;
+
+    /**
+     * The active and peak connection counts, for every engine.
+     */
+    private static final ConnectionGauge gauge = new ConnectionGauge();
+
+    /**
+     * The counts that the metrics path reports.
+     */
+    private static final ServerMetrics metrics = new ServerMetrics();
+
+    /**
+     * The number of threads in the thread pool that are handling a
+     * connection right now.
+     */
+    private static final AtomicInteger busyWorkers = new AtomicInteger();
+
+    /**
+     * The number of threads in the thread pool, and the sizes it can be,
+     * from POOL_SIZE_PROPERTY and MAX_POOL_SIZE_PROPERTY.
+     */
+    private static final AtomicInteger workers = new AtomicInteger();
+    private static int poolSize;
+    private static int maxPoolSize;
+
+    /**
+     * What to do with a connection the pool has no room for, from
+     * REJECTION_POLICY_PROPERTY.
+     */
+    private static String rejectionPolicy;
+
+    /**
+     * The number of connections that have been answered with a 503.
+     */
+    private static final AtomicLong rejected = new AtomicLong();
+
+    /**
+     * The idle timeout in milliseconds, and the most requests per
+     * connection, from IDLE_TIMEOUT_PROPERTY and MAX_REQUESTS_PROPERTY.
+     */
+    private static int idleTimeout;
+    private static int maxRequests;
 	
 	/**
-	 * Main program creates the thread pool and then opens a server
-	 * socket and listens for connection requests.
+	 * Main program starts the engine chosen by ENGINE_PROPERTY.
 	 * 
 	 * @param args Command line args (not used).
 	 */
 	public static void main(String[] args) {
-		
-		ServerSocket serverSocket;
-		Socket connection;
+
+		long cacheSize = Long.getLong(CACHE_SIZE_PROPERTY, 64 * 1024 * 1024);
+		handler = new RequestHandler(ROOT_DIRECTORY,
+						readMimeTypes(System.getProperty(MIME_TYPES_PROPERTY)),
+						cacheSize > 0 ? new FileCache(cacheSize) : null, metrics,
+						System.getProperty(METRICS_PATH_PROPERTY, "/admin/metrics"),
+						openAccessLog(System.getProperty(ACCESS_LOG_PROPERTY)));
+		metrics.gauge("simplewebserver_connections", "Connections open now.", gauge::active);
+		metrics.gauge("simplewebserver_connections_peak", "The most connections open at once.",
+						gauge::peak);
+		idleTimeout = Integer.getInteger(IDLE_TIMEOUT_PROPERTY, 15000);
+		maxRequests = Integer.getInteger(MAX_REQUESTS_PROPERTY, 100);
+
+		String engine = System.getProperty(ENGINE_PROPERTY, "nio");
+		if (engine.equals("threads")) {
+			poolSize = Math.max(1, Integer.getInteger(POOL_SIZE_PROPERTY, THREAD_POOL_SIZE));
+			maxPoolSize = Math.max(poolSize, Integer.getInteger(MAX_POOL_SIZE_PROPERTY, poolSize));
+			rejectionPolicy = System.getProperty(REJECTION_POLICY_PROPERTY, "block");
+			if (!rejectionPolicy.equals("block") && !rejectionPolicy.equals("reject")
+							&& !rejectionPolicy.equals("drop-oldest")) {
+				System.out.println("Unknown rejection policy \"" + rejectionPolicy
+								+ "\".  Use \"block\", \"reject\" or \"drop-oldest\".");
+				return;
+			}
+			runThreadPool(Math.max(1, Integer.getInteger(QUEUE_SIZE_PROPERTY, CONNECTION_QUEUE_SIZE)));
+		} else if (engine.equals("virtual")) {
+			metrics.gauge("simplewebserver_workers_busy",
+							"Threads handling a connection; one per connection.", gauge::active);
+			acceptConnections(true);
+		} else if (engine.equals("nio")) {
+			int ioThreads = Integer.getInteger(IO_THREADS_PROPERTY,
+							Runtime.getRuntime().availableProcessors());
+			try {
+				new SelectorServer(LISTENING_PORT, ioThreads, handler, gauge,
+								idleTimeout, maxRequests).run();
+			} catch (IOException e) {
+				System.out.println("Failed to create listening socket.");
+			}
+		} else {
+			System.out.println("Unknown engine \"" + engine
+							+ "\".  Use \"nio\", \"virtual\" or \"threads\".");
+		}
+	} // end main()
+
+	/**
+	 * Makes the table of MIME types.
+	 *
+	 * @param fileName A mime.types file with more types, or null.
+	 * @return The table.  If the file can't be read, the table has just
+	 *     the server's own types.
+	 */
+	private static MimeTypes readMimeTypes(String fileName) {
+		if (fileName != null) {
+			try {
+				return MimeTypes.read(Paths.get(fileName));
+			} catch (IOException e) {
+				System.out.println("Can't read the MIME types file " + fileName + ": " + e);
+			}
+		}
+		return MimeTypes.builtIn();
+	}
+
+	/**
+	 * Opens the access log.
+	 *
+	 * @param fileName The file to append the log to, or null for standard
+	 *     output.
+	 * @return The log.  If the file can't be opened, the log goes to
+	 *     standard output.
+	 */
+	private static AccessLog openAccessLog(String fileName) {
+		if (fileName != null) {
+			try {
+				return new AccessLog(Files.newBufferedWriter(Paths.get(fileName),
+								Charset.defaultCharset(), StandardOpenOption.CREATE,
+								StandardOpenOption.APPEND));
+			} catch (IOException e) {
+				System.out.println("Can't open the access log " + fileName + ": " + e);
+			}
+		}
+		return new AccessLog(new OutputStreamWriter(System.out, Charset.defaultCharset()));
+	}
+
+	/**
+	 * Creates the thread pool and then listens for connection requests.
+	 *
+	 * @param queueSize The length of the connection queue.
+	 */
+	private static void runThreadPool(int queueSize) {
 		
         /* Create the connection queue.  We want to do this before 
          * creating the threads, which need to use the queue.
          */
-        connectionQueue = new ArrayBlockingQueue<Socket>(CONNECTION_QUEUE_SIZE);
+        connectionQueue = new ArrayBlockingQueue<Socket>(queueSize);
+        metrics.gauge("simplewebserver_connection_queue_depth",
+                        "Connections waiting for a thread.", connectionQueue::size);
+        metrics.gauge("simplewebserver_workers", "Threads in the thread pool.",
+                        workers::get);
+        metrics.gauge("simplewebserver_workers_busy", "Threads handling a connection.",
+                        busyWorkers::get);
+        metrics.counter("simplewebserver_rejected_connections_total",
+                        "Connections answered with 503 because the server was too busy.",
+                        rejected::get);
         
         /* Create the thread pool and start the threads.  Note that 
          * there is no need to keep references to the threads, since
          * there is nothing to do with them in this program
          * after they have been started.
          */        
-        for (int i = 0; i < THREAD_POOL_SIZE; i++) {
-            ConnectionHandler worker = new ConnectionHandler();
+        for (int i = 0; i < poolSize; i++) {
+            workers.incrementAndGet();
+            ConnectionHandler worker = new ConnectionHandler(null);
             worker.start();
         }
+
+        acceptConnections(false);
+	} // end runThreadPool()
+
+	/**
+	 * Opens a server socket and listens for connection requests.  Each
+	 * connection is either put in the queue for the thread pool, or
+	 * handled on a new virtual thread of its own.
+	 * 
+	 * @param virtualThreads True to start a virtual thread for each
+	 *     connection, false to use the thread pool.
+	 */
+	private static void acceptConnections(boolean virtualThreads) {
+
+		ServerSocket serverSocket;
+		Socket connection;
 		
 		try {
-			serverSocket = new ServerSocket(LISTENING_PORT);
+			/* The server socket is opened as a channel, so that every
+			 * socket it accepts has a channel too and files can be sent
+			 * to it with FileChannel.transferTo().
+			 */
+			ServerSocketChannel serverChannel = ServerSocketChannel.open();
+			serverChannel.bind(new InetSocketAddress(LISTENING_PORT), ACCEPT_BACKLOG);
+			serverSocket = serverChannel.socket();
 		} catch (Exception e) {
 			System.out.println("Failed to create listening socket.");
 			return;
@@ -109,16 +460,21 @@ public class SimpleWebServer {
 		System.out.println("Listening on port " + LISTENING_PORT);
 		
 		/* Listen for connection requests from clients.  For each 
-         * connection, add the connected socket to the connection
-         * queue.  The server runs until the program is terminated, 
-         * for example by a CONTROL-C. 
+         * connection, either start a virtual thread to handle it, or
+         * pass it to the thread pool.  The server runs until the
+         * program is terminated, for example by a CONTROL-C. 
          */
 		try {
+			Thread.Builder virtual = Thread.ofVirtual().name("connection-", 0);
 			while (true) {
 				connection = serverSocket.accept();
-				System.out.println("\nConnection from "
-								+ connection.getRemoteSocketAddress());
-				connectionQueue.add(connection);
+				gauge.opened();
+				if (virtualThreads) {
+					final Socket socket = connection;
+					virtual.start(() -> handleConnection(socket));
+				} else {
+					dispatch(connection);
+				}
 			}
 		} catch (Exception e) {
 			System.out.println("Server socket shut down unexpectedly!");
@@ -131,24 +487,117 @@ public class SimpleWebServer {
 		} catch (Exception e) {
 			System.out.println("Error closing the server socket.");
 		}
-	} // end main()
+	} // end acceptConnections()
+
+	/**
+	 * Passes a connection to the thread pool: to the queue if it has room,
+	 * or else to a new thread if the pool can grow, or else to the
+	 * rejection policy.
+	 *
+	 * @param connection The connection that has just been accepted.
+	 * @throws InterruptedException If the "block" policy is interrupted
+	 *     while it waits.
+	 */
+	private static void dispatch(Socket connection) throws InterruptedException {
+		if (connectionQueue.offer(connection)) {
+			return;
+		}
+		if (workers.get() < maxPoolSize) {
+			workers.incrementAndGet();
+			new ConnectionHandler(connection).start();
+			return;
+		}
+		if (rejectionPolicy.equals("reject")) {
+			reject(connection);
+		} else if (rejectionPolicy.equals("drop-oldest")) {
+			Socket oldest = connectionQueue.poll();
+			if (oldest != null) {
+				reject(oldest);
+			}
+			if (!connectionQueue.offer(connection)) {
+				reject(connection);
+			}
+		} else {
+			connectionQueue.put(connection);
+		}
+	}
+
+	/**
+	 * Answers a connection with "503 Service Unavailable" and closes it.
+	 * This is done on a virtual thread of its own, so that the thread
+	 * accepting connections doesn't wait for a slow client.
+	 *
+	 * @param connection The connection to turn away.
+	 */
+	private static void reject(Socket connection) {
+		rejected.incrementAndGet();
+		Thread.startVirtualThread(() -> {
+			try {
+				connection.setSoTimeout(REJECT_LINGER_MILLIS);
+				Response response = RequestHandler.errorResponse(503,
+								"Retry-After: " + RETRY_AFTER_SECONDS + "\r\n", false);
+				response.writeTo(connection);
+				connection.shutdownOutput();
+				// Closing a socket that has unread input resets the connection,
+				// and the client could lose the 503 before it reads it.
+				InputStream in = connection.getInputStream();
+				byte[] discard = new byte[INPUT_BUFFER_SIZE];
+				long deadline = System.currentTimeMillis() + REJECT_LINGER_MILLIS;
+				while (in.read(discard) >= 0 && System.currentTimeMillis() < deadline) {
+				}
+			} catch (IOException e) {
+			} finally {
+				try {
+					connection.close();
+				} catch (IOException e) {
+				}
+				gauge.closed();
+			}
+		});
+	}
 
     /**
      * The class that defines the connection-handling threads in the
-     * thread pool.  The thread runs in an infinite loop in which
-     * it removes a connected socket from the connection queue and
-     * calls the handleConnection() method for that socket.
+     * thread pool.  The thread runs in a loop in which it removes a
+     * connected socket from the connection queue and calls the
+     * handleConnection() method for that socket.  A thread that was
+     * added because the pool was overloaded ends when it has had
+     * nothing to do for EXTRA_THREAD_IDLE_SECONDS, as long as the pool
+     * is bigger than its starting size.
      */
     private static class ConnectionHandler extends Thread {
 
-        ConnectionHandler() {
+        private Socket first;
+
+        /**
+         * @param first A connection to handle before taking any from
+         *     the queue, or null.
+         */
+        ConnectionHandler(Socket first) {
             setDaemon(true);
+            this.first = first;
         }
         public void run() {
             while (true) {
                 try {
-                    Socket connection = connectionQueue.take();
-                    handleConnection(connection);
+                    Socket connection = first;
+                    first = null;
+                    if (connection == null) {
+                        connection = connectionQueue.poll(EXTRA_THREAD_IDLE_SECONDS, TimeUnit.SECONDS);
+                    }
+                    if (connection == null) {
+                        int count = workers.get();
+                        if (count > poolSize && workers.compareAndSet(count, count - 1)) {
+                            return;
+                        }
+                        continue;
+                    }
+                    busyWorkers.incrementAndGet();
+                    try {
+                        handleConnection(connection);
+                    } finally {
+                        busyWorkers.decrementAndGet();
+                    }
                 }
                 catch (Exception e) {
                 }
@@ -158,284 +607,97 @@ public class SimpleWebServer {
 	
     /**
      * This method processes the connection with one client.
-     * It creates streams for communicating with the client,
-     * reads a command from the client, and carries out that
-     * command.  The connection is also logged to standard output.
-     * If no errors are encountered, a "200 OK" response is sent.
-     * Errors 400, 403, 404, 500, and 501 are implemented 
-     * according to their descriptions.  If the requested file
-     * is a directory, an HTML directory listing response is sent. 
+     * It reads requests from the client, has the RequestHandler
+     * work out each response, and sends it.  The connection is
+     * kept open for more requests for as long as the responses
+     * allow, and closed if the client stays idle for longer than
+     * the idle timeout.
      */
 	private static void handleConnection(Socket connection) {
 
-		Scanner in;
-		PrintWriter outgoing;
-		OutputStream out;
-		String command = "";
-		String fileName = "";
-		String protocol = "";		
-		
-		try {
-			in = new Scanner(connection.getInputStream());
-			outgoing = new PrintWriter(connection.getOutputStream());
-			out = connection.getOutputStream();
-
-			command = in.next();
-
-			if (command.equalsIgnoreCase("index")) {
-				sendIndex(new File(ROOT_DIRECTORY), outgoing);
-			} else if (!command.equalsIgnoreCase("get")) {
-				System.out.println("ERROR: unsupported command.");
-				sendErrorResponse(501, out);
-			} else {
-				fileName = in.next();
-				protocol = in.next();		
-			
-				if (!protocol.equalsIgnoreCase("HTTP/1.1") &&
-							!protocol.equalsIgnoreCase("HTTP/1.0")) {
-					System.out.println("ERROR: Bad request.  Not HTTP/1.1 or HTTP/1.0.");
-					sendErrorResponse(400, out);
-				} else {
+		RequestParser parser = new RequestParser();
+		ByteBuffer input = inputBuffers.take();
+		input.flip();
+		Response response = null;
+		int requests = 0;
 
-					File file = new File(ROOT_DIRECTORY + fileName);
-	
-					System.out.println("Attempting to retrieve file at: "
-									+ file.toString());
-	
-					if (file.isDirectory()) {
-						sendDirectoryListing(file, outgoing);
-					} else if (file.exists() && file.canRead()) {
-						String goodStatus = protocol + " 200 OK\r\n";
-						outgoing.print(goodStatus);
-	
-						outgoing.print("Connection: close\r\n");
-	
-						String type = getMimeType(file.getName());
-						outgoing.print("Content-Type: " + type + "\r\n");
-	
-						long fileLength = file.length();
-						outgoing.print("Content-Length: " + fileLength + "\r\n");
-						outgoing.print("\r\n");
-						outgoing.flush();
-	
-						sendFile(file, out);
-					} else {
-						if (file.exists() && !file.canRead()) {
-							System.out.println("ERROR: Permission to read file denied.");
-							sendErrorResponse(403, out);
-						} else if (!file.exists()) {
-							System.out.println("ERROR: File does not exist on this server.");
-							sendErrorResponse(404, out);
-						}
-						outgoing.flush();
-					}
+		try {
+			connection.setSoTimeout(idleTimeout);
+			// A response's head and file are separate writes; without this,
+			// the file waits for the client's delayed ACK of the head.
+			connection.setTcpNoDelay(true);
+			InputStream in = connection.getInputStream();
+			while (true) {
+				Request request = readRequest(in, input, parser, requests == 0);
+				if (request == null) {
+					break;
+				}
+				if (Http2Connection.startsHttp2(request, requests == 0)) {
+					new Http2Connection(connection, handler, idleTimeout).serve(request, input);
+					break;
+				}
+				long started = System.nanoTime();
+				requests++;
+				response = handler.handle(request, connection.getInetAddress(),
+								requests < maxRequests);
+				response.writeTo(connection);
+				response.close();
+				handler.sent(request, response, connection.getInetAddress(), started);
+				if (!response.keepAlive()) {
+					break;
 				}
+				response = null;
+				parser.reset();
 			}
-
 		} catch (Exception e) {
-			System.out.println("ERROR " + connection.getInetAddress() + " "
-							+ command + " " + e);
-			try {
-				OutputStream newOut = connection.getOutputStream();
-				sendErrorResponse(500, newOut);
-			} catch (Exception ex) {
-				System.out.println("Error sending Internal Server Error response.");
-			}
+			handler.error(connection.getInetAddress() + " " + e);
 		} finally {
+			if (response != null) {
+				response.close();
+			}
+			inputBuffers.give(input);
 			try {
 				connection.close();
 			} catch (IOException e) {
 			}
+			gauge.closed();
 		}
 	} // end handleConnection
-	
-	/**
-	 * Returns the MIME type in String format.
-	 * 
-	 * @param fileName The filename from which to determine the MIME type.
-	 * @return MIME type in String format.
-	 */
-	private static String getMimeType(String fileName) {
-		int pos = fileName.lastIndexOf('.');
-		if (pos < 0) // no file extension in name
-			return "x-application/x-unknown";
-		String ext = fileName.substring(pos + 1).toLowerCase();
-		if (ext.equals("txt"))
-			return "text/plain";
-		else if (ext.equals("html"))
-			return "text/html";
-		else if (ext.equals("htm"))
-			return "text/html";
-		else if (ext.equals("css"))
-			return "text/css";
-		else if (ext.equals("js"))
-			return "text/javascript";
-		else if (ext.equals("java"))
-			return "text/x-java";
-		else if (ext.equals("jpeg"))
-			return "image/jpeg";
-		else if (ext.equals("jpg"))
-			return "image/jpeg";
-		else if (ext.equals("png"))
-			return "image/png";
-		else if (ext.equals("gif"))
-			return "image/gif";
-		else if (ext.equals("ico"))
-			return "image/x-icon";
-		else if (ext.equals("class"))
-			return "application/java-vm";
-		else if (ext.equals("jar"))
-			return "application/java-archive";
-		else if (ext.equals("zip"))
-			return "application/zip";
-		else if (ext.equals("xml"))
-			return "application/xml";
-		else if (ext.equals("xhtml"))
-			return "application/xhtml+xml";
-		else
-			return "x-application/x-unknown";
-		// Note: x-application/x-unknown is something made up;
-		// it will probably make the browser offer to save the file.
-	} // end getMimeType
 
 	/**
-	 * Sends an HTML error response over the <code>socketOut</code> OutputStream.
-	 * 
-	 * @param errorCode An int matching one of the implemented error codes.
-	 * @param socketOut An OutputStream over which to send the error response.
+	 * Reads from <code>in</code> until a whole request has arrived or the
+	 * client stops sending.  The bytes in <code>input</code> are used
+	 * first; any that follow the request are left there for the next one,
+	 * so pipelined requests are answered in turn.
+	 *
+	 * @param in The stream to read more bytes from.
+	 * @param input The bytes read but not used yet.
+	 * @param parser The parser, ready for a new request.
+	 * @param first True for the first request on the connection.
+	 * @return The request, or null if the client closed the connection or
+	 *     stayed idle before starting another request.
 	 */
-	private static void sendErrorResponse(int errorCode, OutputStream socketOut) {
-		
-		String protocol = "HTTP/1.1";
-		String statusDescription = " ";
-		String statusMessage = "";
-		
-		switch (errorCode) {
-		case 400:
-			statusDescription += "400 Bad Request";
-			statusMessage += "The syntax of the request is bad.";
-			break;
-		case 403:
-			statusDescription += "403 Forbidden";
-			statusMessage += "The server does not have permission to read the file.";
-			break;
-		case 404:
-			statusDescription += "404 Not Found";
-			statusMessage += "The resource that you requested does not exist on this server.";
-			break;
-		case 500:
-			statusDescription += "500 Internal Server Error";
-			statusMessage += "There has been an error in handling the connection.";
-			break;
-		case 501:
-			statusDescription += "501 Not Implemented";
-			statusMessage += "The command received has not been implemented.";
-			break;
-		default:
-			statusDescription += "500 Internal Server Error";
-			statusMessage += "There has been an error in handling the connection.";
-			break;
-		}
-		
-		try {
-			PrintWriter out = new PrintWriter(socketOut);
-			
-			out.print(protocol + statusDescription + "\r\n");
-			out.print("Connection: close\r\n");
-			out.print("Content-Type: text/html\r\n");
-			out.print("\r\n");
-			out.print("<html><head><title>Error</title></head><body>\r\n");
-			out.print("<h2>Error:" + statusDescription + "</h2>\r\n");
-			out.print("<p>" + statusMessage + "</p>\r\n");
-			out.print("</body></html>\r\n");
-			out.flush();
-			
-			out.close();
-		} catch (Exception e) {
-			// Nothing to do if error occurs while attempting to send error message.
-		}		
-	} // end sendErrorResponse
-	
-	/**
-	 * Send the File <code>file</code> over the OutputStream <code>socketOut</code>.
-	 * File is sent as a stream of bytes.
-	 * 
-	 * @param file File object to be sent.
-	 * @param socketOut OutputStream over which the file is to be sent.
-	 * @throws IOException If any errors are encountered while creating the
-	 *     InputStream or OutputStream.
-	 */
-	private static void sendFile(File file, OutputStream socketOut)
-					throws IOException {
-		InputStream in = new BufferedInputStream(new FileInputStream(file));
-		OutputStream out = new BufferedOutputStream(socketOut);
+	private static Request readRequest(InputStream in, ByteBuffer input,
+					RequestParser parser, boolean first) throws IOException {
 		while (true) {
-			int x = in.read(); // read one byte from file
-			if (x < 0)
-				break; // end of file reached
-			out.write(x); // write the byte to the socket
-		}
-		out.flush();
-		in.close();
-	}
-
-	/**
-	 * This is called by the handleConnection() method in response to an "INDEX"
-	 * command from the client. Send the list of files in the server's directory.
-	 */
-	private static void sendIndex(File directory, PrintWriter outgoing)
-					throws Exception {
-		String[] fileList = directory.list();
-		for (int i = 0; i < fileList.length; i++)
-			outgoing.println(fileList[i]);
-		outgoing.flush();
-		outgoing.close();
-		if (outgoing.checkError())
-			throw new Exception("Error while transmitting data.");
-	}
-	
-	/**
-	 * Send an HTML Directory Listing response if the requested file is
-	 * a directory.
-	 * 
-	 * @param directory File object that is a directory from which to obtain
-	 *     a listing.
-	 * @param outgoing PrintWriter through which to send the HTML response.
-	 * @throws Exception If an error is encountered while attempting to list
-	 *     the files in the directory or while sending the Directory Listing.
-	 */
-	private static void sendDirectoryListing(File directory,
-					PrintWriter outgoing) throws Exception {
-
-		File[] files = directory.listFiles();
-
-		outgoing.print("HTTP/1.1 200 OK\r\n" + "Content-Type: text/html\r\n"
-						+ "\r\n" + "<h1>Directory Listing</h1>" + "<h3>"
-						+ directory.getPath() + "</h3>"
-						+ "<table border=\"0\" cellspacing=\"8\">"
-						+ "<tr><td><b>Filename</b><br></td><td align=\"right\"><b>Size</b></td>"
-						+ "<td><b>Last Modified</b></td></tr>"
-						+ "<tr><td><b><a href=\"../\">../</b><br></td><td></td><td></td></tr>");
-
-		for (int i = 0; i < files.length; i++) {
-			directory = files[i];
-			
-			if (directory.isDirectory()) {
-				outgoing.print("<tr><td><b><a href=\"" + directory.getPath()
-								+ directory.getName() + "/\">"
-								+ directory.getName()
-								+ "/</a></b></td><td></td><td></td></tr>");
-			} else {
-				outgoing.print("<tr><td><a href=\"" + directory.getPath()
-								+ directory.getName() + "\">"
-								+ directory.getName()
-								+ "</a></td><td align=\"right\">"
-								+ directory.length() + "</td><td>"
-								+ new Date(directory.lastModified()).toString()
-								+ "</td></tr>");
+			if (parser.feed(input)) {
+				return parser.request(false);
+			}
+			input.clear();
+			int n;
+			try {
+				n = in.read(input.array());
+			} catch (SocketTimeoutException e) {
+				if (parser.hasStarted()) {
+					throw e;
+				}
+				return null;
+			}
+			if (n < 0) {
+				input.limit(0);
+				return first || parser.hasStarted() ? parser.request(true) : null;
 			}
+			input.limit(n);
 		}
-		outgoing.print("</table><hr>\r\n");
-		outgoing.flush();
 	}
-} // end class SimpleWebServer
\ No newline at end of file
+} // end class SimpleWebServer
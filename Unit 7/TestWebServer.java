@@ -2,6 +2,7 @@ package testwebserver;
 
 import java.net.*;
 import java.io.*;
+import java.util.Arrays;
 import java.util.Scanner;
 
 /**
@@ -24,6 +25,11 @@ import java.util.Scanner;
  * server's IP address and the requested file name to be
  * retrieved.
  * 
+ * Run with "load" as its first argument, it doesn't ask anything,
+ * and instead puts the server under load and reports the
+ * throughput and latency (see LoadTest for the options):
+ *   java testwebserver.TestWebServer load connections=50 rate=2000
+ * 
  * @author A.Nonymous
  */
 public class TestWebServer {
@@ -39,6 +45,10 @@ public class TestWebServer {
 		BufferedReader incoming; // Stream for reading data from the connection.
 		String command; // Command to send to the server.
 
+		if (args.length > 0 && args[0].equals("load")) {
+			LoadTest.run(Arrays.copyOfRange(args, 1, args.length));
+			return;
+		}
 
 		/* Get the server name and the message to send to the server. */
 
@@ -83,6 +93,14 @@ public class TestWebServer {
 								connection.getInputStream()));
 				outgoing = new PrintWriter(connection.getOutputStream());
 				outgoing.println(command);
+				if (command.startsWith("GET ")) {
+					// End the request's headers, and ask the server to close
+					// the connection after its response, since the response
+					// is read until the end-of-stream.
+					outgoing.println("Host: " + computer);
+					outgoing.println("Connection: close");
+					outgoing.println();
+				}
 				outgoing.flush(); 
 			} catch (Exception e) {
 				System.out.println("Can't make connection to server at \""